@@ -27,6 +27,7 @@ import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.ConnectionPool;
 import com.squareup.okhttp.Interceptor;
 import com.squareup.okhttp.OkHttpClient;
 
@@ -35,6 +36,7 @@ import org.jetbrains.annotations.NotNull;
 import java.io.IOException;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import oauth.signpost.exception.OAuthCommunicationException;
 import oauth.signpost.exception.OAuthExpectationFailedException;
@@ -48,6 +50,17 @@ import static com.desk.java.apiclient.DeskClientBuilder.AuthType.OAUTH;
 
 public class DeskClient {
 
+    // connection pool shared by every client in the process, so keep-alive connections and TLS sessions survive
+    // the client being rebuilt for a requeued job
+    private static final int MAX_IDLE_CONNECTIONS = 16;
+    private static final long KEEP_ALIVE_DURATION_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final ConnectionPool CONNECTION_POOL = new ConnectionPool(MAX_IDLE_CONNECTIONS,
+            KEEP_ALIVE_DURATION_MS);
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 15;
+    private static final long READ_TIMEOUT_SECONDS = 60;
+    private static final long WRITE_TIMEOUT_SECONDS = 60;
+
     private final String hostname;
     private final String apiToken;
     private final String consumerKey;
@@ -59,6 +72,7 @@ public class DeskClient {
     private final List<Interceptor> networkInterceptors;
     private final AuthType authType;
 
+    private final Gson gson;
     private final Retrofit restAdapter;
     private final RetrofitHttpOAuthConsumer oAuthConsumer;
 
@@ -106,6 +120,7 @@ public class DeskClient {
         this.applicationInterceptors = builder.applicationInterceptors;
         this.networkInterceptors = builder.networkInterceptors;
         this.oAuthConsumer = createOAuthConsumer();
+        this.gson = createGson();
 
         Retrofit.Builder retrofitBuilder = createRestAdapter();
         if (builder.callAdapters != null && !builder.callAdapters.isEmpty()) {
@@ -169,7 +184,7 @@ public class DeskClient {
      * @return the default Desk User service
      */
     @NotNull
-    public UserService users() {
+    public synchronized UserService users() {
         if (userService == null) {
             userService = restAdapter.create(UserService.class);
         }
@@ -182,7 +197,7 @@ public class DeskClient {
      * @return the default Desk Site service
      */
     @NotNull
-    public SiteService sites() {
+    public synchronized SiteService sites() {
         if (siteService == null) {
             siteService = restAdapter.create(SiteService.class);
         }
@@ -195,7 +210,7 @@ public class DeskClient {
      * @return the default Desk Label service
      */
     @NotNull
-    public LabelService labels() {
+    public synchronized LabelService labels() {
         if (labelService == null) {
             labelService = restAdapter.create(LabelService.class);
         }
@@ -208,7 +223,7 @@ public class DeskClient {
      * @return the default Desk Custom Fields service
      */
     @NotNull
-    public CustomFieldsService customFields() {
+    public synchronized CustomFieldsService customFields() {
         if (customFieldsService == null) {
             customFieldsService = restAdapter.create(CustomFieldsService.class);
         }
@@ -221,7 +236,7 @@ public class DeskClient {
      * @return the default Desk Group service
      */
     @NotNull
-    public GroupService groups() {
+    public synchronized GroupService groups() {
         if (groupService == null) {
             groupService = restAdapter.create(GroupService.class);
         }
@@ -234,7 +249,7 @@ public class DeskClient {
      * @return the default Desk Macro service
      */
     @NotNull
-    public MacroService macros() {
+    public synchronized MacroService macros() {
         if (macroService == null) {
             macroService = restAdapter.create(MacroService.class);
         }
@@ -247,7 +262,7 @@ public class DeskClient {
      * @return the default Desk Outbound Mailbox service
      */
     @NotNull
-    public OutboundMailboxService outboundMailboxes() {
+    public synchronized OutboundMailboxService outboundMailboxes() {
         if (outboundMailboxService == null) {
             outboundMailboxService = restAdapter.create(OutboundMailboxService.class);
         }
@@ -260,7 +275,7 @@ public class DeskClient {
      * @return the default Desk Filter service
      */
     @NotNull
-    public FilterService filters() {
+    public synchronized FilterService filters() {
         if (filterService == null) {
             filterService = restAdapter.create(FilterService.class);
         }
@@ -273,7 +288,7 @@ public class DeskClient {
      * @return the default Desk Case service
      */
     @NotNull
-    public CaseService cases() {
+    public synchronized CaseService cases() {
         if (caseService == null) {
             caseService = restAdapter.create(CaseService.class);
         }
@@ -286,7 +301,7 @@ public class DeskClient {
      * @return the default Desk Company service
      */
     @NotNull
-    public CompanyService companies() {
+    public synchronized CompanyService companies() {
         if (companyService == null) {
             companyService = restAdapter.create(CompanyService.class);
         }
@@ -299,7 +314,7 @@ public class DeskClient {
      * @return the default Desk Customer service
      */
     @NotNull
-    public CustomerService customers() {
+    public synchronized CustomerService customers() {
         if (customerService == null) {
             customerService = restAdapter.create(CustomerService.class);
         }
@@ -312,7 +327,7 @@ public class DeskClient {
      * @return the default Desk Permission service
      */
     @NotNull
-    public PermissionService permissions() {
+    public synchronized PermissionService permissions() {
         if (permissionService == null) {
             permissionService = restAdapter.create(PermissionService.class);
         }
@@ -325,7 +340,7 @@ public class DeskClient {
      * @return the default Desk Twitter User service
      */
     @NotNull
-    public TwitterUserService twitterUsers() {
+    public synchronized TwitterUserService twitterUsers() {
         if (twitterUserService == null) {
             twitterUserService = restAdapter.create(TwitterUserService.class);
         }
@@ -338,7 +353,7 @@ public class DeskClient {
      * @return the default Desk Topic service
      */
     @NotNull
-    public TopicService topics() {
+    public synchronized TopicService topics() {
         if (topicService == null) {
             topicService = restAdapter.create(TopicService.class);
         }
@@ -351,7 +366,7 @@ public class DeskClient {
      * @return the default Desk Article service
      */
     @NotNull
-    public ArticleService articles() {
+    public synchronized ArticleService articles() {
         if (articleService == null) {
             articleService = restAdapter.create(ArticleService.class);
         }
@@ -364,7 +379,7 @@ public class DeskClient {
      * @return the default Desk Inbound Mailbox service
      */
     @NotNull
-    public InboundMailboxService inboundMailboxes() {
+    public synchronized InboundMailboxService inboundMailboxes() {
         if (inboundMailboxService == null) {
             inboundMailboxService = restAdapter.create(InboundMailboxService.class);
         }
@@ -377,7 +392,7 @@ public class DeskClient {
      * @return the default Desk Brand service
      */
     @NotNull
-    public BrandService brands() {
+    public synchronized BrandService brands() {
         if (brandService == null) {
             brandService = this.getRestAdapter().create(BrandService.class);
         }
@@ -390,7 +405,7 @@ public class DeskClient {
      * @return the default Desk Note service
      */
     @NotNull
-    public NoteService notes()
+    public synchronized NoteService notes()
     {
         if (noteService == null)
         {
@@ -405,7 +420,7 @@ public class DeskClient {
      * @return the default Desk Interaction service
      */
     @NotNull
-    public InteractionService interactions()
+    public synchronized InteractionService interactions()
     {
         if (interactionService == null)
         {
@@ -414,6 +429,14 @@ public class DeskClient {
         return interactionService;
     }
 
+    /**
+     * Gets the Gson instance used to convert Desk responses, for callers reading raw response bodies
+     * @return the gson instance
+     */
+    public Gson getGson() {
+        return gson;
+    }
+
     protected Retrofit getRestAdapter() {
         return restAdapter;
     }
@@ -422,7 +445,7 @@ public class DeskClient {
         return new Retrofit.Builder()
                 .baseUrl(getUrl(API_BASE_PATH))
                 .client(createOkHttpClient())
-                .addConverterFactory(GsonConverterFactory.create(createGson()));
+                .addConverterFactory(GsonConverterFactory.create(gson));
     }
 
     private Gson createGson() {
@@ -435,6 +458,10 @@ public class DeskClient {
 
     private OkHttpClient createOkHttpClient() {
         OkHttpClient okHttpClient = new OkHttpClient();
+        okHttpClient.setConnectionPool(CONNECTION_POOL);
+        okHttpClient.setConnectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        okHttpClient.setReadTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        okHttpClient.setWriteTimeout(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
 
         // if we have response cache let's use it!
         if (responseCache != null) {
@@ -23,6 +23,7 @@ import com.desk.java.apiclient.model.Embed;
 import com.desk.java.apiclient.model.Fields;
 import com.desk.java.apiclient.model.MacroResponse;
 import com.desk.java.apiclient.model.Message;
+import com.desk.java.apiclient.model.Note;
 import com.desk.java.apiclient.model.SortDirection;
 import retrofit.Call;
 import retrofit.http.Body;
@@ -127,20 +128,20 @@ public interface CaseService {
      * @param sortField the field to sort on
      * @param sortDirection the direction to sort
      * @param embed what to embed
-     * @param fields the fields requested
+     * @param fields comma separated list of the fields requested, null for all fields
      * @return a case api response
      */
     @GET(CASES_URI + "/search")
     Call<ApiResponse<Case>> searchCasesByUpdatedDate(@Query("since_updated_at") long since_updated_at,
         @Query("per_page") int perPage, @Query("page") int page, @Query("sort_field") String sortField,
         @Query("sort_direction") SortDirection sortDirection, @Query("embed") Embed embed,
-        @Query("fields") Fields fields);
+        @Query("fields") String fields);
 
     @GET(CASES_URI + "/search")
     Call<ApiResponse<Case>> searchCasesById(@Query("since_id") long since_id, @Query("per_page") int perPage,
         @Query("page") int page, @Query("sort_field") String sortField,
         @Query("sort_direction") SortDirection sortDirection, @Query("embed") Embed embed,
-        @Query("fields") Fields fields);
+        @Query("fields") String fields);
 
     /**
      * Gets the case by id
@@ -280,6 +281,18 @@ public interface CaseService {
     @POST(CASES_URI + "/{id}/" + NOTE_URI)
     Call<Message> createNote(@Path("id") int caseId, @Body Message note);
 
+    /**
+     * Retrieves a paginated list of the notes of a case
+     * @see <a href="http://dev.desk.com/API/cases/#notes-list">http://dev.desk.com/API/cases/#notes-list</a>
+     *
+     * @param caseId the id of the case
+     * @param perPage the total notes per page
+     * @param page the page requested
+     * @return a note api response
+     */
+    @GET(CASES_URI + "/{id}/" + NOTE_URI)
+    Call<ApiResponse<Note>> getNotes(@Path("id") long caseId, @Query("per_page") int perPage, @Query("page") int page);
+
     /**
      * Retrieves a preview for applying a set of macros to a case
      * @see <a href="http://dev.desk.com/API/cases/#macros-preview">http://dev.desk.com/API/cases/#macros-preview</a>
@@ -111,11 +111,12 @@ public interface CustomerService {
      * @param perPage the total cases per page
      * @param page the page requested
      * @param since_id filters by the id
+     * @param fields comma separated list of the fields requested, null for all fields
      * @return a customer response
      */
     @GET(CUSTOMERS_URI)
     Call<ApiResponse<Customer>> getCustomers(@Query("since_id") Long since_id, @Query("per_page") int perPage, @Query("page") int page, @Query("sort_field") String sortField,
-                                             @Query("sort_direction") SortDirection sortDirection, @Query("fields") Fields fields);
+                                             @Query("sort_direction") SortDirection sortDirection, @Query("fields") String fields);
 
     /**
      * Searches for customers by the updated_at date &amp; time
@@ -136,5 +137,5 @@ public interface CustomerService {
     @GET(CUSTOMERS_URI + "/search")
     Call<ApiResponse<Customer>> searchCustomersByUpdatedAt(@Query("since_updated_at") Long since_updated_at,
         @Query("per_page") int perPage, @Query("page") int page, @Query("sort_field") String sortField, 
-        @Query("sort_direction") SortDirection sortDirection, @Query("fields") Fields fields);
+        @Query("sort_direction") SortDirection sortDirection, @Query("fields") String fields);
 }
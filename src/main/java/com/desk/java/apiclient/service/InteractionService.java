@@ -18,16 +18,17 @@ package com.desk.java.apiclient.service;
 import com.desk.java.apiclient.model.ApiResponse;
 import com.desk.java.apiclient.model.Interaction;
 
+import com.squareup.okhttp.ResponseBody;
+
 import retrofit.Call;
 import retrofit.http.GET;
 import retrofit.http.Query;
+import retrofit.http.Streaming;
 
 public interface InteractionService
 {
 
-    String INTERACTION_URI = "interactions"
-    + "?fields=" +
-    "body,body_html,id,created_at,updated_at,sent_at,direction,sent_at,to,from,cc,bcc,status,subject,hidden_at,type,entered_at,twitter_status_id,facebook_id,facebook_id,facebook_name,liked,event_type,public_url,answers_disallowed_at,agent_answer_count,customer_answer_count,rating,rating_count,rating_score";
+    String INTERACTION_URI = "interactions";
 
 
     /**
@@ -35,8 +36,23 @@ public interface InteractionService
      *
      * @param since_id the id that will be the lower boundary of the results 
      * @param per_page how many notes to return per page (max 100)
+     * @param fields comma separated list of the fields requested, null for all fields
      * @return an interaction api response
      */
     @GET(INTERACTION_URI + "")
-    Call<ApiResponse<Interaction>> getInteractions(@Query("per_page") int perPage, @Query("since_id") long since_id);
+    Call<ApiResponse<Interaction>> getInteractions(@Query("per_page") int perPage, @Query("since_id") long since_id,
+        @Query("fields") String fields);
+
+    /**
+     * Retrieve a page of interactions as the raw response body, so it can be read incrementally
+     *
+     * @param since_id the id that will be the lower boundary of the results 
+     * @param per_page how many interactions to return per page (max 100)
+     * @param fields comma separated list of the fields requested, null for all fields
+     * @return the unparsed interaction api response
+     */
+    @Streaming
+    @GET(INTERACTION_URI + "")
+    Call<ResponseBody> streamInteractions(@Query("per_page") int perPage, @Query("since_id") long since_id,
+        @Query("fields") String fields);
 }
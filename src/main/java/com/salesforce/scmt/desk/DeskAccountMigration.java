@@ -37,6 +37,7 @@ import com.salesforce.scmt.utils.SalesforceConstants.CaseFields;
 import com.salesforce.scmt.utils.SalesforceConstants.DeskMigrationFields;
 import com.sforce.async.OperationEnum;
 
+import retrofit.Call;
 import retrofit.Response;
 
 public class DeskAccountMigration<D extends Serializable> extends DeskBase<D>
@@ -74,38 +75,62 @@ public class DeskAccountMigration<D extends Serializable> extends DeskBase<D>
     @Override
     protected DeskBaseResponse<ApiResponse<D>> callDesk(DeskUtil du)
     {
-
-        // get a service
-        CompanyService service = du.getDeskClient().companies();
-        Response<ApiResponse<Company>> resp = null;
-
-        // set the starting timestamp filter
-        minTime = (delta ? updatedAt : (lastRecordId == 1 ? 1 : lastRecordId));
-
-        // get the current timestamp so we have an upper boundary
-        now = (int) (Calendar.getInstance().getTime().getTime() / 1000);
-
+        Response<ApiResponse<D>> resp = null;
         try
         {
-            resp = service
-                .searchCompanies(String.format("(%s:[%d TO %d])", (delta ? "updated_at" : "created_at"), minTime, now),
-                    DESK_PAGE_SIZE_COMPANY, page, "created_at", SortDirection.ASC)
-                .execute();
-
+            resp = createCall(du, (delta ? updatedAt : lastRecordId), page).execute();
         }
         catch (IOException e)
         {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
-        DeskBaseResponse<ApiResponse<D>> d = new DeskBaseResponse<>();
-        d.errorCode = resp.code();
-        d.setIsSuccess(resp.isSuccess());
-        d.body = (ApiResponse<D>) resp.body();
-        d.setHeaders(resp.headers());
-        d.setMessage(resp.message());
-
-        return d;
+        return toDeskBaseResponse(resp);
+    }
+
+    @Override
+    protected boolean supportsPrefetch()
+    {
+        return true;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    protected Call<ApiResponse<D>> createCall(DeskUtil du, long cursor, int page)
+    {
+        // get a service
+        CompanyService service = du.getDeskClient().companies();
+
+        // the starting timestamp filter and the upper boundary stay fixed while the pages of a cursor are walked, so
+        // the prefetched pages belong to the same search
+        if (now == 0 || cursor != minTime)
+        {
+            minTime = cursor;
+            now = (int) (Calendar.getInstance().getTime().getTime() / 1000);
+        }
+
+        return (Call) service.searchCompanies(
+            String.format("(%s:[%d TO %d])", (delta ? "updated_at" : "created_at"), minTime, now),
+            DESK_PAGE_SIZE_COMPANY, page, "created_at", SortDirection.ASC);
+    }
+
+    @Override
+    protected boolean supportsFetchById()
+    {
+        return true;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    protected Call<D> createFetchCall(DeskUtil du, long id)
+    {
+        return (Call) du.getDeskClient().companies().getCompany(id);
+    }
+
+    @Override
+    protected String getSalesforceObject()
+    {
+        return SalesforceConstants.OBJ_ACCOUNT;
     }
 
     @Override
@@ -15,21 +15,64 @@
 
 package com.salesforce.scmt.desk;
 
+import static java.lang.System.getenv;
+
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import com.desk.java.apiclient.model.ApiResponse;
 import com.salesforce.scmt.model.DeployException;
 import com.salesforce.scmt.model.DeployResponse;
+import com.salesforce.scmt.service.BatchPacker;
+import com.salesforce.scmt.service.BulkReconciler;
+import com.salesforce.scmt.service.SalesforceService;
+import com.salesforce.scmt.utils.DeskSpool;
 import com.salesforce.scmt.utils.DeskUtil;
 import com.salesforce.scmt.utils.SalesforceConstants;
 import com.salesforce.scmt.utils.SalesforceConstants.DeskMigrationFields;
+import com.salesforce.scmt.utils.SalesforceUtil;
 import com.salesforce.scmt.utils.Utils;
+import com.squareup.okhttp.Headers;
+
+import retrofit.Call;
+import retrofit.Callback;
+import retrofit.Response;
+import retrofit.Retrofit;
 
 public abstract class DeskBase<D extends Serializable>
 {
+    // environment variable / config key holding the number of concurrent extraction shards
+    private static final String DESK_SHARD_COUNT = "DESK_SHARD_COUNT";
+    private static final String CONFIG_SHARD_COUNT = "shard_count";
+
+    // max number of fetched pages buffered per shard before the fetchers block
+    private static final int SHARD_QUEUE_PAGES = 4;
+
+    // max number of throttled (429) responses in a row before a fetcher gives up, and the longest back off between them
+    protected static final int MAX_THROTTLES = 30;
+    private static final long MAX_BACKOFF_MILLIS = 60 * 1000;
+
+    // environment variable / config key holding the number of pages requested ahead of the page being processed
+    private static final String DESK_PREFETCH_DEPTH = "DESK_PREFETCH_DEPTH";
+    private static final String CONFIG_PREFETCH_DEPTH = "prefetch_depth";
+
+    // max number of records of a retry requested from Desk.com at a time, the dispatcher bounds the requests per host
+    private static final int RETRY_FETCH_WINDOW = 50;
+
     protected List<D> recList = new ArrayList<>();
     private DeskBaseResponse<ApiResponse<D>> dResp = new DeskBaseResponse<>();
 
@@ -51,6 +94,26 @@ public abstract class DeskBase<D extends Serializable>
 
     protected String jobId = null;
 
+    // number of concurrent shards, 1 means the serial page walk
+    protected int shardCount = 1;
+
+    // upper cursor boundary of the default shards, the resume point once they are all retrieved
+    private long shardUpper = -1;
+
+    // set once the shards are running, the serial page walk is used otherwise
+    private boolean sharded = false;
+
+    // number of look-ahead pages, 0 disables the prefetch
+    protected int prefetchDepth = 0;
+
+    // in-flight look-ahead requests keyed by page, all for the same cursor
+    private long prefetchCursor = -1;
+    private Map<Integer, Call<ApiResponse<D>>> prefetchCalls = new HashMap<>();
+    private Map<Integer, CompletableFuture<DeskBaseResponse<ApiResponse<D>>>> prefetchPages = new HashMap<>();
+
+    // local spool of the fetched pages, null when spooling is disabled or not supported by the object
+    private DeskSpool spool;
+
     // flag which indicates if the job is being re-queued (to better handle the daily Heroku dyno restarts)
     private boolean bRequeued = false;
     
@@ -95,8 +158,52 @@ public abstract class DeskBase<D extends Serializable>
         // create initial bulk job, each object has implementation
         jobId = createJob(du);
 
+        // open the local page spool, pages fetched by an earlier run of this job are replayed from it
+        try
+        {
+            spool = (getPageType() == null ? null
+                : DeskSpool.open(du.getDeskService().getMigrationId(), getClass().getSimpleName()));
+        }
+        catch (IOException e)
+        {
+            Utils.logException(e);
+            spool = null;
+        }
+
+        try
+        {
+            migratePages(clientSettings);
+        }
+        finally
+        {
+            // drop any look-ahead requests, and the spool unless a re-queued job continues with it
+            cancelPrefetch();
+            if (!bRequeued)
+            {
+                deleteSpool();
+            }
+        }
+    }
+
+    /*
+     * Retrieves the pages, with the sharded extraction when the object supports it or the serial page walk, and
+     * uploads their records.
+     */
+    private void migratePages(Map<String, Object> clientSettings) throws Exception
+    {
         du.updateMigrationStatus(DeskMigrationFields.StatusRunning, "", null, jobId);
 
+        // split the cursor space across concurrent workers when the object supports it
+        shardCount = Utils.getIntSetting(config, CONFIG_SHARD_COUNT, DESK_SHARD_COUNT, getDefaultShardCount());
+        prefetchDepth = Utils.getIntSetting(config, CONFIG_PREFETCH_DEPTH, DESK_PREFETCH_DEPTH, 0);
+        if (shardCount > 1 && supportsSharding() && migrateSharded(clientSettings))
+        {
+
+            // general processing for the remaining records
+            objectBulkUploadComplete(du, config);
+            return;
+        }
+
         // loop through retrieving records
         do
         {
@@ -107,13 +214,12 @@ public abstract class DeskBase<D extends Serializable>
                 requestCount++;
 
 
-                if (!delta)
+                // the next page, served from the look-ahead requests when the object supports them
+                dResp = nextPage(du);
+                if (dResp == null)
                 {
-                    dResp = callDesk(du);
-                }
-                else
-                {
-                    dResp = callDesk(du);
+                    // the request failed (e.g. a socket timeout), retried below
+                    throw new IOException("No response from Desk.com for page [" + page + "]");
                 }
 
                 // check for success
@@ -164,10 +270,7 @@ public abstract class DeskBase<D extends Serializable>
                     // check for 'too many requests' response                	
                     if (dResp.errorCode == 429)
                     {                    	
-                        // get the reset seconds and sleep for that many seconds
-                    	System.out.println("reset "+dResp.getHeaders().get(DeskUtil.DESK_HEADER_LIMIT_RESET));
-                        Thread.sleep(Integer.parseInt(dResp.getHeaders().get(DeskUtil.DESK_HEADER_LIMIT_RESET)) * 1000);
-
+                        // the rate governor holds the retry until the limit resets
                         // re-queue or retry
                         bRetry = true;
                     }
@@ -219,10 +322,398 @@ public abstract class DeskBase<D extends Serializable>
         while (!bRequeued && (bRetry || (dResp.getIsSuccess() && ((ApiResponse<D>) dResp.body).hasNextPage()
             && SalesforceConstants.RETRIEVE_ALL)));
 
+        // drop any look-ahead requests past the last page
+        cancelPrefetch();
+
         // general processing for remaining objects over 10k or under10k, object specific is invoked.
         objectBulkUploadComplete(du, config);
     }
 
+    /*
+     * Sharded extraction, the fetchers started by startFetchers() run concurrently and their pages are merged on the
+     * calling thread into the regular bulk upload path. Returns false, before anything is fetched, when the object
+     * can't be sharded after all.
+     */
+    private boolean migrateSharded(Map<String, Object> clientSettings) throws Exception
+    {
+        long resumePoint = (delta ? updatedAt : lastRecordId);
+
+        BlockingQueue<List<D>> pages = new LinkedBlockingQueue<>(shardCount * SHARD_QUEUE_PAGES);
+        List<Future<Void>> fetchers = new ArrayList<>();
+
+        try
+        {
+            List<Future<Void>> started = startFetchers(pages);
+            if (started == null)
+            {
+                return false;
+            }
+            fetchers.addAll(started);
+            sharded = true;
+
+            // drain on this thread, the bulk upload path and the record list are not thread-safe
+            while (!isDone(fetchers) || !pages.isEmpty())
+            {
+                List<D> entries = pages.poll(1, TimeUnit.SECONDS);
+                if (entries == null) continue;
+
+                recList.addAll(entries);
+                clientSettings = objectSpecificProcessing(clientSettings, entries);
+                objectBulkUploadProcessing(du, config);
+            }
+
+            // surface the first fetcher failure
+            for (Future<Void> fetcher : fetchers)
+            {
+                fetcher.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            cancelFetchers(fetchers);
+            dr.setResumePoint(resumePoint);
+            du.updateMigrationStatus(DeskMigrationFields.StatusFailed, "", dr);
+            throw (e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+        catch (Exception e)
+        {
+            cancelFetchers(fetchers);
+            dr.setResumePoint(resumePoint);
+            du.updateMigrationStatus(DeskMigrationFields.StatusFailed, "", dr);
+            throw e;
+        }
+
+        // everything below the upper boundary has been retrieved, the boundary is an updated_at time in delta mode
+        if (shardUpper > 0 && delta)
+        {
+            updatedAt = shardUpper;
+        }
+        else if (shardUpper > 0)
+        {
+            lastRecordId = shardUpper;
+        }
+        return true;
+    }
+
+    /*
+     * Starts the concurrent fetchers, each hands its pages to the merge queue. By default the cursor space (id, or
+     * updated_at for delta) is split into contiguous ranges which are walked with callDesk(du, cursor, page). Returns
+     * null, without starting any fetcher, when the object has no cursor based paging.
+     */
+    protected List<Future<Void>> startFetchers(BlockingQueue<List<D>> pages) throws Exception
+    {
+        long lower = (delta ? updatedAt : lastRecordId);
+
+        // objects with a max cursor page by cursor with callDesk(du, cursor, page)
+        long maxCursor = getMaxCursor(du);
+        if (maxCursor < 0)
+        {
+            Utils.log("[WARN] Sharded extraction is not supported for this object, using the serial page walk");
+            return null;
+        }
+        long upper = maxCursor + 1;
+        long span = Math.max(1, (upper - lower + shardCount - 1) / shardCount);
+
+        Utils.log(String.format("Sharded extraction: [%d] shards over [%d, %d)", shardCount, lower, upper));
+
+        ExecutorService pool = Executors.newFixedThreadPool(shardCount);
+        List<Future<Void>> shards = new ArrayList<>();
+
+        for (long lo = lower; lo < upper; lo += span)
+        {
+            final long from = lo;
+            final long to = Math.min(lo + span, upper);
+            shards.add(pool.submit(() -> fetchShard(from, to, pages)));
+        }
+        pool.shutdown();
+
+        shardUpper = upper;
+        return shards;
+    }
+
+    /*
+     * Returns how long to wait after a throttled response, from its Retry-After header or growing with the number of
+     * throttled responses in a row.
+     */
+    protected static long getRetryAfterMillis(Headers headers, int throttles)
+    {
+        String retryAfter = (headers == null ? null : headers.get("Retry-After"));
+        try
+        {
+            if (retryAfter != null)
+            {
+                return Math.min(MAX_BACKOFF_MILLIS, Long.parseLong(retryAfter.trim()) * 1000);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            Utils.log("[WARN] Unexpected Retry-After header: " + retryAfter);
+        }
+        return Math.min(MAX_BACKOFF_MILLIS, throttles * 1000L);
+    }
+
+    private static boolean isDone(List<Future<Void>> fetchers)
+    {
+        for (Future<Void> fetcher : fetchers)
+        {
+            if (!fetcher.isDone()) return false;
+        }
+        return true;
+    }
+
+    private static void cancelFetchers(List<Future<Void>> fetchers)
+    {
+        for (Future<Void> fetcher : fetchers)
+        {
+            fetcher.cancel(true);
+        }
+    }
+
+    /*
+     * Walks the pages of a single shard, [from, to), handing each page to the merge queue.
+     */
+    private Void fetchShard(long from, long to, BlockingQueue<List<D>> pages) throws Exception
+    {
+        long cursor = from;
+        int shardPage = 1;
+        int retries = 0;
+        int throttles = 0;
+        boolean bMore = true;
+
+        while (bMore)
+        {
+            // null when the request failed (e.g. a socket timeout)
+            DeskBaseResponse<ApiResponse<D>> resp = readSpool(cursor, shardPage);
+            if (resp == null)
+            {
+                resp = callDesk(du, cursor, shardPage);
+                writeSpool(cursor, shardPage, resp);
+            }
+
+            if (resp == null || !resp.getIsSuccess())
+            {
+                // the shared rate governor holds throttled shards until the limit resets
+                if (resp != null && resp.errorCode == 429)
+                {
+                    if (++throttles > MAX_THROTTLES)
+                    {
+                        throw new Exception(String.format("Shard [%d, %d) still throttled at cursor [%d]", from, to,
+                            cursor));
+                    }
+
+                    // without a reset time the governor can't hold the shard, back off before trying again
+                    if (resp.getHeaders() == null || resp.getHeaders().get(DeskUtil.DESK_HEADER_LIMIT_RESET) == null)
+                    {
+                        Thread.sleep(getRetryAfterMillis(resp.getHeaders(), throttles));
+                    }
+                    continue;
+                }
+
+                if (++retries > 5)
+                {
+                    throw new Exception(String.format("Shard [%d, %d) failed at cursor [%d]: %s", from, to, cursor,
+                        (resp == null ? "no response" : resp.getMessage())));
+                }
+                continue;
+            }
+            retries = 0;
+            throttles = 0;
+
+            // keep only the records inside this shard, the next shard picks up from its own start
+            List<D> entries = new ArrayList<>();
+            for (D d : resp.body.getEntriesAsList())
+            {
+                long c = (delta ? getUpdatedAt(d) : getId(d));
+                if (c >= to)
+                {
+                    bMore = false;
+                    break;
+                }
+                entries.add(d);
+            }
+
+            if (!entries.isEmpty())
+            {
+                pages.put(entries);
+            }
+
+            bMore = bMore && resp.body.hasNextPage() && SalesforceConstants.RETRIEVE_ALL;
+
+            // move the cursor forward once we hit the max page depth
+            if (bMore && shardPage >= DeskUtil.DESK_MAX_PAGES && !entries.isEmpty())
+            {
+                D last = entries.get(entries.size() - 1);
+                cursor = (delta ? getUpdatedAt(last) : getId(last) + 1);
+                shardPage = 0;
+            }
+            shardPage++;
+        }
+
+        return null;
+    }
+
+    /*
+     * Returns the next page for the current cursor. With a prefetch depth the following pages are already requested
+     * asynchronously, so their round trips overlap with the mapping and upload of this page.
+     */
+    private DeskBaseResponse<ApiResponse<D>> nextPage(DeskUtil du) throws Exception
+    {
+        long cursor = (delta ? updatedAt : lastRecordId);
+
+        // replay the page if an earlier run already fetched it
+        DeskBaseResponse<ApiResponse<D>> resp = readSpool(cursor, page);
+        if (resp != null)
+        {
+            return resp;
+        }
+
+        if (prefetchDepth <= 0 || !supportsPrefetch())
+        {
+            resp = callDesk(du);
+            writeSpool(cursor, page, resp);
+            return resp;
+        }
+
+        // the cursor moved (max page depth reached), the outstanding pages are for the old range
+        if (cursor != prefetchCursor)
+        {
+            cancelPrefetch();
+            prefetchCursor = cursor;
+        }
+
+        // never look past the max page depth, the cursor is moved forward from the last record there, the current page
+        // is requested even if it is in the spool, its spooled copy could not be read
+        int lastPage = Math.min(page + prefetchDepth, DeskUtil.DESK_MAX_PAGES);
+        for (int p = page; p <= lastPage; p++)
+        {
+            if (!prefetchPages.containsKey(p)
+                && (p == page || spool == null || !spool.contains(spoolKey(cursor, p))))
+            {
+                Call<ApiResponse<D>> call = createCall(du, cursor, p);
+                prefetchCalls.put(p, call);
+                prefetchPages.put(p, enqueue(call).thenApply(this::toDeskBaseResponse));
+            }
+        }
+
+        // a failed page is removed here so a retry requests it again
+        prefetchCalls.remove(page);
+        resp = prefetchPages.remove(page).get();
+        writeSpool(cursor, page, resp);
+
+        // the page has no next link, the pages requested past it are empty
+        if (resp.getIsSuccess() && resp.body != null && !resp.body.hasNextPage())
+        {
+            cancelPrefetch();
+        }
+        return resp;
+    }
+
+    /*
+     * Returns the page from the local spool, or null if it has not been spooled.
+     */
+    private DeskBaseResponse<ApiResponse<D>> readSpool(long cursor, int page)
+    {
+        if (spool == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            String json = spool.read(spoolKey(cursor, page));
+            if (json == null)
+            {
+                return null;
+            }
+
+            DeskBaseResponse<ApiResponse<D>> d = new DeskBaseResponse<>();
+            d.errorCode = 200;
+            d.setIsSuccess(true);
+            d.body = du.getDeskClient().getGson().fromJson(json, getPageType());
+            d.setHeaders(new Headers.Builder().build());
+            d.setMessage("OK (spooled)");
+            return d;
+        }
+        catch (Exception e)
+        {
+            // fall back to Desk.com
+            Utils.logException(e);
+            return null;
+        }
+    }
+
+    private void writeSpool(long cursor, int page, DeskBaseResponse<ApiResponse<D>> resp)
+    {
+        if (spool == null || resp == null || !resp.getIsSuccess() || resp.body == null)
+        {
+            return;
+        }
+
+        try
+        {
+            spool.append(spoolKey(cursor, page), du.getDeskClient().getGson().toJson(resp.body, getPageType()));
+        }
+        catch (IOException e)
+        {
+            Utils.logException(e);
+        }
+    }
+
+    private void deleteSpool()
+    {
+        if (spool != null)
+        {
+            spool.delete();
+            spool = null;
+        }
+    }
+
+    private String spoolKey(long cursor, int page)
+    {
+        return String.format("%s:%d:%d", (delta ? "updated_at" : "id"), cursor, page);
+    }
+
+    private static <T> CompletableFuture<Response<T>> enqueue(Call<T> call)
+    {
+        CompletableFuture<Response<T>> future = new CompletableFuture<>();
+        call.enqueue(new Callback<T>()
+        {
+            @Override
+            public void onResponse(Response<T> resp, Retrofit retrofit)
+            {
+                future.complete(resp);
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private void cancelPrefetch()
+    {
+        for (Call<ApiResponse<D>> call : prefetchCalls.values())
+        {
+            call.cancel();
+        }
+        prefetchCalls.clear();
+        prefetchPages.clear();
+    }
+
+    protected DeskBaseResponse<ApiResponse<D>> toDeskBaseResponse(Response<ApiResponse<D>> resp)
+    {
+        DeskBaseResponse<ApiResponse<D>> d = new DeskBaseResponse<>();
+        d.errorCode = resp.code();
+        d.setIsSuccess(resp.isSuccess());
+        d.body = resp.body();
+        d.setHeaders(resp.headers());
+        d.setMessage(resp.message());
+        return d;
+    }
+
     private DeployResponse transformObject(String jobId, List<D> deskObjects, DeskUtil du)
     {
         DeployResponse dr = new DeployResponse();
@@ -231,7 +722,6 @@ public abstract class DeskBase<D extends Serializable>
         {
             Utils.log("Bulk Upload");
             List<Map<String, Object>> sfRecs = new ArrayList<>();
-            int counter = 0;
 
             for (D d : deskObjects)
             {
@@ -239,34 +729,27 @@ public abstract class DeskBase<D extends Serializable>
                 if (skipObject(d)) continue;
 
                 // convert the desk case to the Map for conversion to JSON
-                // sfRecs.add(d);
-            	List<Map<String, Object>> obj = deskObjectToSalesforceObject(du, d);
-                sfRecs.addAll(obj);
-                
-                // increment the counter 
-                counter = counter + obj.size();
+                sfRecs.addAll(deskObjectToSalesforceObject(du, d));
+            }
 
-                // submit a bulk job every 10k records
-                if ((counter % SalesforceConstants.BULK_MAX_SIZE) == 0)
-                {                	
-                    du.getSalesforceService().addBatchToJob(jobId, sfRecs);
-                    
-                    //update dr success count
-                    dr.incrementSuccessCount(sfRecs.size());
-                    // clear the lists
-                    sfRecs.clear();
-                    //reset counter
-                    counter = 0;
-                }
+            // in parallel mode keep the children of a parent in the same batch
+            String parentField = (SalesforceService.isBulkParallel() ? getBatchParentField() : null);
+            if (parentField != null)
+            {
+                SalesforceUtil.groupByParent(sfRecs, parentField);
             }
 
-            // check if there are records that still need to be bulk upserted
-            if (!sfRecs.isEmpty())
+            // submit the records in batches filled up to the bulk limits
+            BatchPacker packer = du.getSalesforceService().newBatchPacker(jobId, parentField);
+            try
             {
-                du.getSalesforceService().addBatchToJob(jobId, sfRecs);
-                
-                // update dr success count
-                dr.incrementSuccessCount(sfRecs.size());                
+                packer.addAll(sfRecs);
+                packer.flush();
+            }
+            finally
+            {
+                // the records are counted from the job results by the ClosedWorker, the batches are still uploading
+                packer.close();
             }
         }
         catch (Exception e)
@@ -287,7 +770,14 @@ public abstract class DeskBase<D extends Serializable>
         {
             // check for valid job, job closes after 5k batches or 24 hours,
             // whichever comes first
-            if (du.getSalesforceService().createNewJob(this.jobId))
+            boolean bNewJob = du.getSalesforceService().createNewJob(this.jobId);
+            if (bNewJob && sharded)
+            {
+                // the shards can't be re-queued from a single start id, roll over to a fresh job instead
+                du.getSalesforceService().closeBulkJob(this.jobId, du.getDeskService().getMigrationId());
+                this.jobId = createJob(du);
+            }
+            else if (bNewJob)
             {
 
                 // object specificBulk processing
@@ -302,11 +792,13 @@ public abstract class DeskBase<D extends Serializable>
                                 
             }
 
-            // create the cases, transformObject calls object specific method
-            dr.addDeployResponse(transformObject(this.jobId, recList, du));
+            // create the cases, transformObject calls object specific method, merged pages can take the list past the
+            // chunk so only the chunk is uploaded here and the rest waits for the next one
+            List<D> chunk = recList.subList(0, SalesforceConstants.BULK_MAX_SIZE);
+            dr.addDeployResponse(transformObject(this.jobId, chunk, du));
 
             // clear the records that were bulk inserted
-            recList.subList(0, SalesforceConstants.BULK_MAX_SIZE).clear();
+            chunk.clear();
         }
 
     }
@@ -349,8 +841,177 @@ public abstract class DeskBase<D extends Serializable>
         }
     }
 
+    /**
+     * Reloads the records of this object which failed in earlier bulk jobs (see BulkReconciler). Each one is fetched
+     * from Desk.com again by its id and upserted in a new job. The records are marked Converted once the results of
+     * the new job are reconciled, the ones that fail again stay failed.
+     */
+    public void retryFailures() throws Exception
+    {
+        String soType = getSalesforceObject();
+        if (soType == null)
+        {
+            Utils.log("Failed records can't be retried for " + getClass().getSimpleName());
+            return;
+        }
+
+        BulkReconciler reconciler = du.getSalesforceService().getBulkReconciler();
+        List<Long> deskIds = reconciler.getFailedIds(soType);
+        Utils.log(String.format("[RETRY] Retrying [%d] failed %s records.", deskIds.size(), soType));
+        if (deskIds.isEmpty())
+        {
+            return;
+        }
+        if (!supportsFetchById())
+        {
+            Utils.log("Failed records can't be fetched by id for " + getClass().getSimpleName());
+            return;
+        }
+
+        // the records which can't be fetched or mapped again stay failed, with the reason
+        List<Long> resubmitted = new ArrayList<>();
+        Map<Long, String> failures = new TreeMap<>();
+
+        jobId = createJob(du);
+        BatchPacker packer = du.getSalesforceService().newBatchPacker(jobId, getBatchParentField());
+        try
+        {
+            // the records are requested a window at a time on the shared dispatcher, and mapped in order
+            for (int from = 0; from < deskIds.size(); from += RETRY_FETCH_WINDOW)
+            {
+                List<Long> window = deskIds.subList(from, Math.min(from + RETRY_FETCH_WINDOW, deskIds.size()));
+                List<CompletableFuture<Response<D>>> fetches = new ArrayList<>(window.size());
+                for (Long deskId : window)
+                {
+                    fetches.add(enqueue(createFetchCall(du, deskId)));
+                }
+
+                for (int i = 0; i < window.size(); i++)
+                {
+                    retryFailure(du, window.get(i), fetches.get(i), packer, resubmitted, failures);
+                }
+            }
+            packer.flush();
+        }
+        finally
+        {
+            packer.close();
+        }
+
+        // the resubmitted records are marked by the reconciliation of the new job, once its results are in
+        BulkReconciler.registerResubmitted(jobId, soType, resubmitted);
+        reconciler.recordFailures(soType, failures);
+        Utils.log(String.format("[RETRY] Resubmitted [%d] %s records, [%d] still failed.", resubmitted.size(),
+            soType, failures.size()));
+
+        du.getSalesforceService().closeBulkJob(jobId, du.getDeskService().getMigrationId(), soType);
+        objectSpecificBulkComplete(du);
+    }
+
+    /*
+     * Maps a record fetched again by its id and adds it to the retry job, or records why it still failed.
+     */
+    private void retryFailure(DeskUtil du, Long deskId, CompletableFuture<Response<D>> fetch, BatchPacker packer,
+        List<Long> resubmitted, Map<Long, String> failures) throws Exception
+    {
+        Response<D> resp;
+        try
+        {
+            resp = fetch.get();
+        }
+        catch (ExecutionException e)
+        {
+            failures.put(deskId, "Desk.com request failed: " + e.getCause().getMessage());
+            return;
+        }
+
+        if (!resp.isSuccess())
+        {
+            failures.put(deskId, String.format("Desk.com returned (%d) %s", resp.code(), resp.message()));
+        }
+        else if (skipObject(resp.body()))
+        {
+            failures.put(deskId, "Skipped, deleted in Desk.com");
+        }
+        else
+        {
+            List<Map<String, Object>> sfRecs = deskObjectToSalesforceObject(du, resp.body());
+            if (sfRecs.isEmpty())
+            {
+                failures.put(deskId, "Unable to map the record");
+                return;
+            }
+            packer.addAll(sfRecs);
+            resubmitted.add(deskId);
+        }
+    }
+
     protected boolean skipObject(D d) { return false; }
 
+    /*
+     * Objects loaded by their Desk id return the object they are loaded into, their failed records can be retried.
+     */
+    protected String getSalesforceObject() { return null; }
+
+    /*
+     * Objects which build the request for a single record by its Desk id (see createFetchCall) can be retried.
+     */
+    protected boolean supportsFetchById() { return false; }
+
+    /*
+     * Objects which support fetch by id build the request for a single record by its Desk id.
+     */
+    protected Call<D> createFetchCall(DeskUtil du, long id) { return null; }
+
+    /*
+     * Relationship field of the records that refers to their parent, in parallel bulk mode the records are batched by
+     * parent so concurrent batches don't lock the same parent row. Null for objects without a parent to contend on.
+     */
+    protected String getBatchParentField() { return null; }
+
+    /*
+     * Objects which implement the cursor based callDesk, getMaxCursor and entry processing (or their own
+     * startFetchers) can be sharded.
+     */
+    protected boolean supportsSharding() { return false; }
+
+    /*
+     * Number of shards used when none is configured.
+     */
+    protected int getDefaultShardCount() { return 1; }
+
+    /*
+     * Objects which can be sharded return the page of a cursor, null when the request failed.
+     */
+    protected DeskBaseResponse<ApiResponse<D>> callDesk(DeskUtil du, long cursor, int page) { return null; }
+
+    /*
+     * Objects which can build the request for any cursor and page (see createCall) can have their pages prefetched.
+     */
+    protected boolean supportsPrefetch() { return false; }
+
+    /*
+     * Objects which support prefetch build the request for a cursor and page.
+     */
+    protected Call<ApiResponse<D>> createCall(DeskUtil du, long cursor, int page) { return null; }
+
+    /*
+     * Objects which return the type of their page (ApiResponse<Object>) have their fetched pages spooled to disk.
+     */
+    protected Type getPageType() { return null; }
+
+    /*
+     * Objects which can be sharded return the highest cursor (id, or updated_at for delta), -1 when they don't support
+     * it.
+     */
+    protected long getMaxCursor(DeskUtil du) throws Exception { return -1; }
+
+    protected Map<String, Object> objectSpecificProcessing(Map<String, Object> clientSettings, List<D> entries)
+        throws Exception
+    {
+        return clientSettings;
+    }
+
     protected abstract long getId(D d);
 
     protected abstract long getUpdatedAt(D d);
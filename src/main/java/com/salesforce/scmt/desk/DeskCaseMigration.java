@@ -19,6 +19,7 @@ import static com.salesforce.scmt.utils.DeskJsonMapUtil.deskCaseToSalesforceJson
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -28,7 +29,9 @@ import com.desk.java.apiclient.model.Case;
 import com.desk.java.apiclient.model.CaseStatus;
 import com.desk.java.apiclient.model.SortDirection;
 import com.desk.java.apiclient.service.CaseService;
+import com.google.gson.reflect.TypeToken;
 import com.salesforce.scmt.rabbitmq.RabbitConfiguration;
+import com.salesforce.scmt.utils.DeskJsonMapUtil;
 import com.salesforce.scmt.utils.DeskUtil;
 import com.salesforce.scmt.utils.JsonUtil;
 import com.salesforce.scmt.utils.RabbitUtil;
@@ -38,6 +41,7 @@ import com.salesforce.scmt.utils.SalesforceConstants.DeskMigrationFields;
 import com.salesforce.scmt.utils.Utils;
 import com.sforce.async.OperationEnum;
 
+import retrofit.Call;
 import retrofit.Response;
 
 public class DeskCaseMigration<D extends Serializable> extends DeskBase<D>
@@ -54,35 +58,98 @@ public class DeskCaseMigration<D extends Serializable> extends DeskBase<D>
     @Override
     protected DeskBaseResponse<ApiResponse<D>> callDesk(DeskUtil du)
     {
-        // get a service
-        CaseService service = du.getDeskClient().cases();
-        Response<ApiResponse<Case>> resp = null;
+        return callDesk(du, (delta ? updatedAt : lastRecordId), page);
+    }
+
+    @Override
+    protected DeskBaseResponse<ApiResponse<D>> callDesk(DeskUtil du, long cursor, int page)
+    {
+        Response<ApiResponse<D>> resp = null;
         try
         {
-            if (!delta)
-            {
-                resp = service
-                    .searchCasesById(lastRecordId, DESK_PAGE_SIZE_CASE, page, "id", SortDirection.ASC, null, null)
-                    .execute();
-            }
-            else
-            {
-                resp = service.searchCasesByUpdatedDate(updatedAt, DESK_PAGE_SIZE_CASE, page, "updated_at",
-                    SortDirection.ASC, null, null).execute();
-            }
+            resp = createCall(du, cursor, page).execute();
         }
         catch (IOException e)
         {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            // the caller retries the page
+            Utils.logException(e);
+            return null;
+        }
+        return toDeskBaseResponse(resp);
+    }
+
+    @Override
+    protected Type getPageType()
+    {
+        return new TypeToken<ApiResponse<Case>>(){}.getType();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    protected Call<ApiResponse<D>> createCall(DeskUtil du, long cursor, int page)
+    {
+        // get a service
+        CaseService service = du.getDeskClient().cases();
+        if (!delta)
+        {
+            return (Call) service.searchCasesById(cursor, DESK_PAGE_SIZE_CASE, page, "id", SortDirection.ASC, null,
+                DeskJsonMapUtil.CASE_FIELDS);
+        }
+        else
+        {
+            return (Call) service.searchCasesByUpdatedDate(cursor, DESK_PAGE_SIZE_CASE, page, "updated_at",
+                SortDirection.ASC, null, DeskJsonMapUtil.CASE_FIELDS);
+        }
+    }
+
+    @Override
+    protected boolean supportsPrefetch()
+    {
+        return true;
+    }
+
+    @Override
+    protected boolean supportsFetchById()
+    {
+        return true;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    protected Call<D> createFetchCall(DeskUtil du, long id)
+    {
+        return (Call) du.getDeskClient().cases().getCaseById(id, null, null);
+    }
+
+    @Override
+    protected String getSalesforceObject()
+    {
+        return SalesforceConstants.OBJ_CASE;
+    }
+
+    @Override
+    protected boolean supportsSharding()
+    {
+        return true;
+    }
+
+    @Override
+    protected long getMaxCursor(DeskUtil du) throws Exception
+    {
+        // delta shards are bounded by the current time
+        if (delta)
+        {
+            return System.currentTimeMillis() / 1000;
+        }
+
+        // otherwise the newest case id is the upper boundary
+        Response<ApiResponse<Case>> resp = du.getDeskClient().cases()
+            .getCases(1, 1, "id", SortDirection.DESC, null, null).execute();
+        if (!resp.isSuccess() || resp.body().getEntriesAsList().isEmpty())
+        {
+            throw new Exception(String.format("Unable to determine the max case id: %s", resp.message()));
         }
-        DeskBaseResponse<ApiResponse<D>> d = new DeskBaseResponse<>();
-        d.errorCode = resp.code();
-        d.setIsSuccess(resp.isSuccess());
-        d.body = (ApiResponse<D>) resp.body();
-        d.setHeaders(resp.headers());
-        d.setMessage(resp.message());        
-        return d;
+        return resp.body().getEntriesAsList().get(0).getId();
     }
 
     @Override
@@ -101,9 +168,17 @@ public class DeskCaseMigration<D extends Serializable> extends DeskBase<D>
     @Override
     protected Map<String, Object> objectSpecificProcessing(Map<String, Object> clientSettings,
         DeskBaseResponse<ApiResponse<D>> dResp) throws Exception
+    {
+        return objectSpecificProcessing(clientSettings, dResp.body.getEntriesAsList());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected Map<String, Object> objectSpecificProcessing(Map<String, Object> clientSettings, List<D> entries)
+        throws Exception
     {
         // build list of case id's
-        for (Case c : ((ApiResponse<Case>) dResp.body).getEntriesAsList())
+        for (Case c : (List<Case>) entries)
         {
             // check if this case has attachments
             if (c.getActiveAttachmentsCount() > 0)
@@ -19,6 +19,7 @@ import static com.salesforce.scmt.utils.DeskJsonMapUtil.deskCustomerToSalesforce
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -31,8 +32,10 @@ import com.desk.java.apiclient.model.ApiResponse;
 import com.desk.java.apiclient.model.Customer;
 import com.desk.java.apiclient.model.SortDirection;
 import com.desk.java.apiclient.service.CustomerService;
+import com.google.gson.reflect.TypeToken;
 import com.salesforce.scmt.model.DeployResponse;
 import com.salesforce.scmt.rabbitmq.RabbitConfiguration;
+import com.salesforce.scmt.utils.DeskJsonMapUtil;
 import com.salesforce.scmt.utils.DeskUtil;
 import com.salesforce.scmt.utils.JsonUtil;
 import com.salesforce.scmt.utils.RabbitUtil;
@@ -41,6 +44,7 @@ import com.salesforce.scmt.utils.SalesforceConstants.CaseFields;
 import com.salesforce.scmt.utils.SalesforceConstants.DeskMigrationFields;
 import com.sforce.async.OperationEnum;
 
+import retrofit.Call;
 import retrofit.Response;
 
 public class DeskContactMigration<D extends Serializable> extends DeskBase<D>
@@ -83,36 +87,67 @@ public class DeskContactMigration<D extends Serializable> extends DeskBase<D>
     @Override
     protected DeskBaseResponse<ApiResponse<D>> callDesk(DeskUtil du)
     {
-        // get a service
-        CustomerService service = du.getDeskClient().customers();
-        Response<ApiResponse<Customer>> resp = null;
+        Response<ApiResponse<D>> resp = null;
         try
         {
-            if (!delta)
-            {
-                // false == bigCompanies TODO
-                resp = service.getCustomers(lastRecordId, DESK_PAGE_SIZE_CUSTOMER, page, "id", SortDirection.ASC, null).execute();
-            }
-            else
-            {
-                resp = service.searchCustomersByUpdatedAt(updatedAt, DESK_PAGE_SIZE_CUSTOMER, page, "updated_at",
-                    SortDirection.ASC, null).execute();
-            }
-
+            resp = createCall(du, (delta ? updatedAt : lastRecordId), page).execute();
         }
         catch (IOException e)
         {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
-        DeskBaseResponse<ApiResponse<D>> d = new DeskBaseResponse<>();
-        d.errorCode = resp.code();
-        d.setIsSuccess(resp.isSuccess());
-        d.body = (ApiResponse<D>) resp.body();
-        d.setHeaders(resp.headers());
-        d.setMessage(resp.message());
-
-        return d;
+        return toDeskBaseResponse(resp);
+    }
+
+    @Override
+    protected Type getPageType()
+    {
+        return new TypeToken<ApiResponse<Customer>>(){}.getType();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    protected Call<ApiResponse<D>> createCall(DeskUtil du, long cursor, int page)
+    {
+        // get a service
+        CustomerService service = du.getDeskClient().customers();
+        if (!delta)
+        {
+            // false == bigCompanies TODO
+            return (Call) service.getCustomers(cursor, DESK_PAGE_SIZE_CUSTOMER, page, "id", SortDirection.ASC,
+                DeskJsonMapUtil.CUSTOMER_FIELDS);
+        }
+        else
+        {
+            return (Call) service.searchCustomersByUpdatedAt(cursor, DESK_PAGE_SIZE_CUSTOMER, page, "updated_at",
+                SortDirection.ASC, DeskJsonMapUtil.CUSTOMER_FIELDS);
+        }
+    }
+
+    @Override
+    protected boolean supportsPrefetch()
+    {
+        return true;
+    }
+
+    @Override
+    protected boolean supportsFetchById()
+    {
+        return true;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    protected Call<D> createFetchCall(DeskUtil du, long id)
+    {
+        return (Call) du.getDeskClient().customers().getCustomer((int) id, null);
+    }
+
+    @Override
+    protected String getSalesforceObject()
+    {
+        return SalesforceConstants.OBJ_CONTACT;
     }
 
     @Override
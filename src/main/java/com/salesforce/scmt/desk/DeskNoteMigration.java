@@ -18,21 +18,39 @@ package com.salesforce.scmt.desk;
 import static com.salesforce.scmt.utils.DeskJsonMapUtil.deskNoteToSalesforceJsonMap;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import com.desk.java.apiclient.model.ApiResponse;
+import com.desk.java.apiclient.model.Case;
 import com.desk.java.apiclient.model.Note;
+import com.desk.java.apiclient.model.SortDirection;
 import com.desk.java.apiclient.service.NoteService;
 import com.salesforce.scmt.model.DeployResponse;
 import com.salesforce.scmt.utils.DeskUtil;
 import com.salesforce.scmt.utils.SalesforceConstants;
+import com.salesforce.scmt.utils.SalesforceConstants.CaseCommentFields;
 import com.salesforce.scmt.utils.SalesforceConstants.DeskMigrationFields;
 import com.salesforce.scmt.utils.Utils;
 import com.sforce.async.OperationEnum;
 
+import retrofit.Call;
 import retrofit.Response;
 
 public class DeskNoteMigration<D extends Serializable> extends DeskBase<D>
@@ -43,6 +61,14 @@ public class DeskNoteMigration<D extends Serializable> extends DeskBase<D>
 
 	private static final int DESK_PAGE_SIZE_NOTE = 100;
 	private static final int DESK_NOTES_MAX_PAGE = 30000;
+
+	// environment variable / config key holding the number of concurrent note partitions, unless a shard count is
+	// configured, 1 keeps the serial notes walk
+	private static final String DESK_NOTES_SHARD_COUNT = "DESK_NOTES_SHARD_COUNT";
+	private static final String CONFIG_NOTES_SHARD_COUNT = "notes_shard_count";
+
+	// page size of the case id walk of the per case partitions
+	private static final int DESK_PAGE_SIZE_CASE = 100;
 	private boolean notesDelta = false;
 	private long notesPage;
 
@@ -97,7 +123,7 @@ public class DeskNoteMigration<D extends Serializable> extends DeskBase<D>
                 d.errorCode = 200;
                 d.setIsSuccess(false);
                 d.setMessage("Max. Page accessible through DeskAPI is 30k. ");
-                Utils.log("Max note page reached! Max page is 30k");
+                Utils.log("Max note page reached! Max page is 30k, use a shard count > 1 to migrate the remaining notes");
                 return d;
         	}
             resp = service.getNotes(notesPage, DESK_PAGE_SIZE_NOTE).execute();
@@ -119,6 +145,298 @@ public class DeskNoteMigration<D extends Serializable> extends DeskBase<D>
         return d;
     }
 
+    @Override
+    protected boolean supportsSharding()
+    {
+        return true;
+    }
+
+    @Override
+    protected int getDefaultShardCount()
+    {
+        return Utils.getIntSetting(config, CONFIG_NOTES_SHARD_COUNT, DESK_NOTES_SHARD_COUNT, 1);
+    }
+
+    /*
+     * Partitioned notes extraction. The notes endpoint can only be paged (no since_id) up to the 30k page ceiling, so
+     * its page space is split across the workers first. If there are notes past the ceiling, the case ids are split
+     * across the workers and the remaining notes are read through the case notes endpoint. Every request goes
+     * through the shared Desk.com rate governor.
+     */
+    @Override
+    protected List<Future<Void>> startFetchers(BlockingQueue<List<D>> pages) throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(shardCount);
+        ExecutorService coordinator = Executors.newSingleThreadExecutor();
+
+        Future<Void> notes = coordinator.submit(() ->
+        {
+            try
+            {
+                fetchNotes(pool, pages);
+                return null;
+            }
+            finally
+            {
+                // also stops the workers when the coordinator is cancelled
+                pool.shutdownNow();
+            }
+        });
+        coordinator.shutdown();
+
+        return Collections.singletonList(notes);
+    }
+
+    private void fetchNotes(ExecutorService pool, BlockingQueue<List<D>> pages) throws Exception
+    {
+        // in a note migration the "start_id" param will be a page #, size the partitions from the reported total
+        long first = Math.max(1, lastRecordId);
+        long last = Math.max(first + 1, Math.min(DESK_NOTES_MAX_PAGE, getNotePageCount() + 1));
+        long span = Math.max(1, (last - first + shardCount - 1) / shardCount);
+
+        Utils.log(String.format("Partitioned notes extraction: [%d] partitions over pages [%d, %d)", shardCount,
+            first, last));
+
+        // the last note on the last accessible page, only set if there are notes past the ceiling
+        AtomicReference<Note> ceiling = new AtomicReference<>();
+
+        List<Future<Void>> partitions = new ArrayList<>();
+        for (long lo = first; lo < last; lo += span)
+        {
+            final long from = lo;
+            final long to = (lo + span >= last ? DESK_NOTES_MAX_PAGE : lo + span);
+            partitions.add(pool.submit(() -> fetchNotePages(from, to, pages, ceiling)));
+        }
+        waitFor(partitions);
+
+        if (ceiling.get() == null)
+        {
+            return;
+        }
+
+        // notes are listed oldest first, so everything past the ceiling is newer than the last note we have and its
+        // case has been updated since that note was created
+        long afterNoteId = ceiling.get().getId();
+        long since = getCreatedAt(ceiling.get());
+        long now = System.currentTimeMillis() / 1000;
+        long timeSpan = Math.max(1, (now - since + shardCount - 1) / shardCount);
+
+        Utils.log(String.format("Notes continue past page %d, reading the notes after [%d] of the cases updated "
+            + "since [%d]", DESK_NOTES_MAX_PAGE, afterNoteId, since));
+
+        // a case updated during the walk can move into a later partition, only read its notes once
+        Set<Long> visited = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        partitions.clear();
+        for (long lo = since; lo <= now; lo += timeSpan)
+        {
+            final long from = lo;
+            final long to = (lo + timeSpan > now ? Long.MAX_VALUE : lo + timeSpan);
+            partitions.add(pool.submit(() -> fetchCaseNotes(from, to, afterNoteId, visited, pages)));
+        }
+        waitFor(partitions);
+    }
+
+    /*
+     * Walks the notes pages [from, to), the partitions past the last note stop on their first (empty) page.
+     */
+    private Void fetchNotePages(long from, long to, BlockingQueue<List<D>> pages, AtomicReference<Note> ceiling)
+        throws Exception
+    {
+        for (long notesPage = from; notesPage < to; notesPage++)
+        {
+            final long p = notesPage;
+            ApiResponse<Note> resp = execute(() -> du.getDeskClient().notes().getNotes(p, DESK_PAGE_SIZE_NOTE),
+                "notes page [" + p + "]");
+
+            List<Note> notes = resp.getEntriesAsList();
+            put(pages, notes, 0);
+
+            if (notes.isEmpty() || !resp.hasNextPage())
+            {
+                break;
+            }
+
+            if (notesPage == DESK_NOTES_MAX_PAGE - 1)
+            {
+                ceiling.set(notes.get(notes.size() - 1));
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Walks the cases updated in [from, to) and reads the notes of each case which are newer than afterNoteId.
+     */
+    private Void fetchCaseNotes(long from, long to, long afterNoteId, Set<Long> visited,
+        BlockingQueue<List<D>> pages) throws Exception
+    {
+        long cursor = from;
+        int casePage = 1;
+
+        while (true)
+        {
+            final long c = cursor;
+            final int p = casePage;
+            ApiResponse<Case> resp = execute(() -> du.getDeskClient().cases().searchCasesByUpdatedDate(c,
+                DESK_PAGE_SIZE_CASE, p, "updated_at", SortDirection.ASC, null, "id,updated_at"),
+                "cases updated since [" + c + "]");
+
+            List<Case> cases = resp.getEntriesAsList();
+            for (Case deskCase : cases)
+            {
+                if (deskCase.getUpdatedAt().getTime() / 1000 >= to)
+                {
+                    return null;
+                }
+                if (visited.add(deskCase.getId()))
+                {
+                    fetchNotesOfCase(deskCase.getId(), afterNoteId, pages);
+                }
+            }
+
+            if (cases.isEmpty() || !resp.hasNextPage())
+            {
+                return null;
+            }
+
+            // move the cursor forward once we hit the max page depth, the cases of the boundary second are read again
+            // and skipped as visited
+            if (casePage >= DeskUtil.DESK_MAX_PAGES)
+            {
+                cursor = cases.get(cases.size() - 1).getUpdatedAt().getTime() / 1000;
+                casePage = 0;
+            }
+            casePage++;
+        }
+    }
+
+    private void fetchNotesOfCase(long caseId, long afterNoteId, BlockingQueue<List<D>> pages) throws Exception
+    {
+        for (int notePage = 1;; notePage++)
+        {
+            final int p = notePage;
+            ApiResponse<Note> resp = execute(() -> du.getDeskClient().cases().getNotes(caseId, DESK_PAGE_SIZE_NOTE, p),
+                "notes of case [" + caseId + "]");
+
+            put(pages, resp.getEntriesAsList(), afterNoteId);
+
+            if (!resp.hasNextPage())
+            {
+                return;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void put(BlockingQueue<List<D>> pages, List<Note> notes, long afterNoteId) throws InterruptedException
+    {
+        List<D> entries = new ArrayList<>();
+        for (Note n : notes)
+        {
+            if (n.getId() > afterNoteId)
+            {
+                entries.add((D) n);
+            }
+        }
+
+        if (!entries.isEmpty())
+        {
+            pages.put(entries);
+        }
+    }
+
+    /*
+     * Executes the request, retrying failures. Throttled requests are held by the shared rate governor, or back off when
+     * the response has no reset time.
+     */
+    private <T> ApiResponse<T> execute(Supplier<Call<ApiResponse<T>>> request, String description) throws Exception
+    {
+        int retries = 0;
+        int throttles = 0;
+        while (true)
+        {
+            String error;
+            try
+            {
+                Response<ApiResponse<T>> resp = request.get().execute();
+                if (resp.isSuccess())
+                {
+                    return resp.body();
+                }
+                if (resp.code() == 429)
+                {
+                    if (++throttles > MAX_THROTTLES)
+                    {
+                        throw new Exception(String.format("Unable to retrieve %s: still throttled", description));
+                    }
+                    if (resp.headers().get(DeskUtil.DESK_HEADER_LIMIT_RESET) == null)
+                    {
+                        Thread.sleep(getRetryAfterMillis(resp.headers(), throttles));
+                    }
+                    continue;
+                }
+                error = resp.message();
+            }
+            catch (InterruptedIOException e)
+            {
+                throw e;
+            }
+            catch (IOException e)
+            {
+                error = e.getMessage();
+            }
+
+            if (++retries > 5)
+            {
+                throw new Exception(String.format("Unable to retrieve %s: %s", description, error));
+            }
+            Utils.log(String.format("[EXCEPTION] Retry Attempt: %d (%s)", retries, description));
+        }
+    }
+
+    /*
+     * The number of notes pages as reported by the total entries of the first page.
+     */
+    private long getNotePageCount() throws Exception
+    {
+        ApiResponse<Note> resp = execute(() -> du.getDeskClient().notes().getNotes(1, DESK_PAGE_SIZE_NOTE),
+            "the notes count");
+        return (resp.getTotalEntries() + DESK_PAGE_SIZE_NOTE - 1) / DESK_PAGE_SIZE_NOTE;
+    }
+
+    /*
+     * The creation time of the note in seconds, the Desk.com API reports it either as epoch seconds or as ISO 8601.
+     */
+    private static long getCreatedAt(Note n) throws ParseException
+    {
+        try
+        {
+            return Long.parseLong(n.getCreatedAt());
+        }
+        catch (NumberFormatException e)
+        {
+            SimpleDateFormat format = new SimpleDateFormat(DeskUtil.DESK_DATE_FORMAT);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format.parse(n.getCreatedAt()).getTime() / 1000;
+        }
+    }
+
+    private static void waitFor(List<Future<Void>> partitions) throws Exception
+    {
+        try
+        {
+            for (Future<Void> partition : partitions)
+            {
+                partition.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            throw (e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+    }
+
     @Override
     protected String createJob(DeskUtil du) throws Exception
     {
@@ -126,6 +444,13 @@ public class DeskNoteMigration<D extends Serializable> extends DeskBase<D>
             OperationEnum.insert);
     }
 
+    @Override
+    protected String getBatchParentField()
+    {
+        // case comments lock their case
+        return CaseCommentFields.Parent;
+    }
+
     @Override
     protected Map<String, String> objectSpecificBulkProcessing(Map<String, String> config) throws Exception
     {
@@ -32,6 +32,7 @@ import com.salesforce.scmt.utils.SalesforceConstants.UserFields;
 import com.salesforce.scmt.utils.SalesforceConstants.DeskMigrationFields;
 import com.sforce.async.OperationEnum;
 
+import retrofit.Call;
 import retrofit.Response;
 
 public class DeskUserMigration<D extends Serializable> extends DeskBase<D> {
@@ -91,6 +92,22 @@ public class DeskUserMigration<D extends Serializable> extends DeskBase<D> {
 		
 	}
 
+	@Override
+	protected boolean supportsFetchById() {
+		return true;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	protected Call<D> createFetchCall(DeskUtil du, long id) {
+		return (Call) du.getDeskClient().users().getUser(id);
+	}
+
+	@Override
+	protected String getSalesforceObject() {
+		return SalesforceConstants.OBJ_USER;
+	}
+
 	@Override
 	protected String createJob(DeskUtil du) throws Exception {
 		return du.getSalesforceService().createBulkJob(SalesforceConstants.OBJ_USER, UserFields.DeskId,
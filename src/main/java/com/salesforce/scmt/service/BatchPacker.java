@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.service;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.salesforce.scmt.utils.BatchBuffer;
+import com.salesforce.scmt.utils.JsonUtil;
+import com.salesforce.scmt.utils.SalesforceConstants;
+import com.salesforce.scmt.utils.Utils;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+
+/**
+ * Packs records into bulk batches by their serialized size. Each record is serialized once, straight into the open
+ * batch, and the batch is sent as soon as the next record would take it past the Bulk API record or character limit,
+ * so batches are as full as the limits allow. The open batch is kept between calls, call flush() to send it and
+ * close() to release it when the packer is done with, whether or not it was flushed.
+ */
+public final class BatchPacker implements AutoCloseable
+{
+    // Bulk API batch limits: 10,000 records and 10,000,000 characters, the UTF-8 bytes of the JSON are never fewer
+    // than its characters, and the 10MB byte limit is above that
+    private static final int MAX_RECORDS = SalesforceConstants.BULK_MAX_SIZE;
+    private static final int MAX_BYTES = 10000000;
+
+    // offset of the first record in a batch, after the opening bracket
+    private static final int FIRST_RECORD = 1;
+
+    private final SalesforceService _sf;
+    private final Sender _sender;
+    private final String _jobId;
+    private final String _parentField;
+
+    // the open batch, null when there is none
+    private BatchBuffer _batch;
+    private Writer _writer;
+    private int _records;
+
+    // Desk ids of the records in the open batch, for the reconciliation of the results
+    private final long[] _keys = new long[MAX_RECORDS + 1];
+
+    // offset (before its comma) and number of records of the current parent in the open batch
+    private int _groupStart;
+    private int _groupRecords;
+    private Object _parent;
+
+    // records waiting for a Bulk API 2.0 ingest job, which does its own batching
+    private final List<Map<String, Object>> _ingestRecords = new ArrayList<>();
+
+    private int _submitted;
+    private int _batches;
+
+    /*
+     * Takes a closed batch, the buffer is released once it is sent (see SalesforceService.addBatchToJob()).
+     */
+    interface Sender
+    {
+        void send(String jobId, BatchBuffer batch, int records, long[] keys) throws AsyncApiException;
+    }
+
+    BatchPacker(SalesforceService sf, String jobId, String parentField)
+    {
+        this(sf, sf::addBatchToJob, jobId, parentField);
+    }
+
+    BatchPacker(SalesforceService sf, Sender sender, String jobId, String parentField)
+    {
+        _sf = sf;
+        _sender = sender;
+        _jobId = jobId;
+        _parentField = parentField;
+    }
+
+    /**
+     * Adds the records in order, sending every batch that fills up.
+     */
+    public void addAll(List<Map<String, Object>> records) throws AsyncApiException
+    {
+        for (Map<String, Object> record : records)
+        {
+            add(record);
+        }
+    }
+
+    /**
+     * Adds a record, sending the open batch first if the record does not fit it. With a parent field, the records of
+     * the parent at the end of the full batch move on to the next batch with the record, so the children of a parent
+     * stay together unless they fill a batch by themselves.
+     */
+    public void add(Map<String, Object> record) throws AsyncApiException
+    {
+        if (BulkV2Loader.isIngestJob(_jobId))
+        {
+            _ingestRecords.add(record);
+            if (_ingestRecords.size() >= MAX_RECORDS)
+            {
+                _sf.addBatchToJob(_jobId, _ingestRecords);
+                _submitted += _ingestRecords.size();
+                _ingestRecords.clear();
+            }
+            return;
+        }
+
+        if (_batch == null)
+        {
+            open(BatchBuffer.get());
+        }
+
+        Object parent = (_parentField == null ? null : record.get(_parentField));
+        if (_records == 0 || _parentField == null || !Objects.equals(parent, _parent))
+        {
+            _groupStart = _batch.size();
+            _groupRecords = 0;
+            _parent = parent;
+        }
+
+        int start = _batch.size();
+        try
+        {
+            if (_records > 0)
+            {
+                _writer.write(',');
+            }
+            JsonUtil.toJson(record, _writer);
+            _writer.flush();
+        }
+        catch (IOException e)
+        {
+            throw new AsyncApiException("Unable to serialize a record for job [" + _jobId + "]: " + e.getMessage(),
+                AsyncExceptionCode.ClientInputError);
+        }
+        _keys[_records++] = BulkReconciler.getKey(record);
+        _groupRecords++;
+
+        // the closing bracket has to fit as well
+        if (_records <= MAX_RECORDS && _batch.size() + 1 <= MAX_BYTES)
+        {
+            return;
+        }
+
+        if (_records == 1)
+        {
+            // a record too large for a batch of its own, send it alone and let the job report it
+            Utils.log("[BULK] Record of [" + _batch.size() + "] bytes exceeds the batch limit for job [" + _jobId + "]");
+            send(1);
+            return;
+        }
+
+        // move the parent's records on if they fit a batch of their own, otherwise just the record that overflowed
+        boolean moveGroup = _groupStart > FIRST_RECORD && _groupRecords <= MAX_RECORDS
+            && _batch.size() - _groupStart + 1 < MAX_BYTES;
+        int cut = (moveGroup ? _groupStart : start);
+        int moved = (moveGroup ? _groupRecords : 1);
+
+        // the bytes after the cut (past its comma) open the next batch
+        BatchBuffer next = BatchBuffer.get();
+        next.write('[');
+        _batch.copyTo(next, cut + 1);
+        _batch.truncate(cut);
+        int kept = _records - moved;
+        try
+        {
+            send(kept);
+        }
+        catch (AsyncApiException | RuntimeException e)
+        {
+            next.release();
+            throw e;
+        }
+
+        open(next);
+        System.arraycopy(_keys, kept, _keys, 0, moved);
+        _records = moved;
+        _groupStart = FIRST_RECORD;
+        _groupRecords = moved;
+    }
+
+    /**
+     * Sends the open batch, if it has any records.
+     */
+    public void flush() throws AsyncApiException
+    {
+        if (!_ingestRecords.isEmpty())
+        {
+            _sf.addBatchToJob(_jobId, _ingestRecords);
+            _submitted += _ingestRecords.size();
+            _ingestRecords.clear();
+        }
+
+        if (_records > 0)
+        {
+            send(_records);
+        }
+        else if (_batch != null)
+        {
+            _batch.release();
+            _batch = null;
+            _writer = null;
+        }
+    }
+
+    /**
+     * Releases the open batch without sending it, the records added since the last flush() are dropped.
+     */
+    @Override
+    public void close()
+    {
+        _ingestRecords.clear();
+        if (_batch != null)
+        {
+            _batch.release();
+            _batch = null;
+            _writer = null;
+            _records = 0;
+        }
+    }
+
+    /**
+     * @return The number of records sent so far.
+     */
+    public int getSubmitted()
+    {
+        return _submitted;
+    }
+
+    /**
+     * @return The number of batches sent so far.
+     */
+    public int getBatches()
+    {
+        return _batches;
+    }
+
+    private void open(BatchBuffer batch)
+    {
+        if (batch.size() == 0)
+        {
+            batch.write('[');
+        }
+        _batch = batch;
+        _writer = new OutputStreamWriter(batch, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Closes the open batch holding the given number of records and hands it to the upload.
+     */
+    private void send(int records) throws AsyncApiException
+    {
+        BatchBuffer batch = _batch;
+        _batch = null;
+        _writer = null;
+        _records = 0;
+
+        batch.write(']');
+        Utils.log(String.format("[BULK] Adding [%d] records, [%d] bytes to job [%s].", records, batch.size(), _jobId));
+        _sender.send(_jobId, batch, records, Arrays.copyOf(_keys, records));
+        _submitted += records;
+        _batches++;
+    }
+}
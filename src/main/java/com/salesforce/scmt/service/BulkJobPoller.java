@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.service;
+
+import static java.lang.System.getenv;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.salesforce.scmt.utils.Utils;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.JobInfo;
+
+/**
+ * Process wide poller of closed bulk jobs, on a fixed pool of scheduler threads. The jobs are tracked per Salesforce
+ * session and each session is polled by a single scheduled task, which checks all of its jobs over one connection
+ * and reschedules itself. The delay backs off while none of the jobs completes and drops back when one does. A
+ * completed job is handed to its listener on the pool.
+ */
+public final class BulkJobPoller
+{
+    // environment variable holding the number of poller threads
+    private static final String SALESFORCE_POLL_THREADS = "SALESFORCE_POLL_THREADS";
+    private static final int DEFAULT_THREADS = 2;
+
+    // poll delay, doubled after every poll where no job completed
+    private static final long MIN_DELAY_MILLIS = 5000L;
+    private static final long MAX_DELAY_MILLIS = 60000L;
+
+    // consecutive failed status calls after which a job is given up
+    private static final int MAX_ERRORS = 10;
+
+    private static final ScheduledExecutorService _scheduler = Executors.newScheduledThreadPool(getThreads(), r ->
+    {
+        Thread t = new Thread(r, "bulk-job-poller");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // sessions with jobs being polled, by server url and session id, guarded by itself
+    private static final Map<String, Session> _sessions = new HashMap<>();
+
+    /**
+     * Receives a completed job.
+     */
+    public interface Listener
+    {
+        /**
+         * Called once, on a poller thread, when all the batches of the job are completed or failed.
+         *
+         * @param sf
+         *            The service of the session the job was polled with.
+         * @param job
+         *            The job status, see SalesforceService.pollCompletion().
+         */
+        void onComplete(SalesforceService sf, JobInfo job);
+    }
+
+    private static final class Session
+    {
+        private final String key;
+        private final SalesforceService sf;
+        private final Map<String, Watch> jobs = new LinkedHashMap<>();
+        private long delay = MIN_DELAY_MILLIS;
+
+        private Session(String key, SalesforceService sf)
+        {
+            this.key = key;
+            this.sf = sf;
+        }
+    }
+
+    private static final class Watch
+    {
+        private final Listener listener;
+        private final long closedAt = System.currentTimeMillis();
+        private int errors;
+
+        private Watch(Listener listener)
+        {
+            this.listener = listener;
+        }
+    }
+
+    private BulkJobPoller()
+    {
+    }
+
+    /**
+     * Starts polling a closed job, a job already being polled is not added again.
+     *
+     * @param serverUrl
+     *            The Salesforce server url.
+     * @param sessionId
+     *            The Salesforce session id.
+     * @param jobId
+     *            The closed job.
+     * @param listener
+     *            Receives the job once it has completed.
+     */
+    public static void watch(String serverUrl, String sessionId, String jobId, Listener listener)
+    {
+        synchronized (_sessions)
+        {
+            String key = serverUrl + "|" + sessionId;
+            Session session = _sessions.get(key);
+            if (session == null)
+            {
+                session = new Session(key, new SalesforceService(serverUrl, sessionId));
+                _sessions.put(key, session);
+                schedule(session, MIN_DELAY_MILLIS);
+            }
+            session.jobs.putIfAbsent(jobId, new Watch(listener));
+            Utils.log(String.format("[BULK] Polling job [%s], [%d] jobs open for the session", jobId,
+                session.jobs.size()));
+        }
+    }
+
+    /**
+     * Runs a task on the poller threads after a delay, for follow-up work of a completed job.
+     */
+    public static void schedule(Runnable task, long delayMillis)
+    {
+        _scheduler.schedule(() -> run(task), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void schedule(Session session, long delayMillis)
+    {
+        _scheduler.schedule(() -> poll(session), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void poll(Session session)
+    {
+        List<Map.Entry<String, Watch>> jobs;
+        synchronized (_sessions)
+        {
+            jobs = new ArrayList<>(session.jobs.entrySet());
+        }
+
+        boolean completed = false;
+        try
+        {
+            for (Map.Entry<String, Watch> entry : jobs)
+            {
+                String jobId = entry.getKey();
+                Watch watch = entry.getValue();
+
+                JobInfo job;
+                try
+                {
+                    job = session.sf.pollCompletion(jobId);
+                    watch.errors = 0;
+                }
+                catch (AsyncApiException e)
+                {
+                    Utils.logException(e);
+                    if (++watch.errors >= MAX_ERRORS)
+                    {
+                        Utils.log("[BULK] Giving up on job [" + jobId + "] after " + MAX_ERRORS + " failed status calls");
+                        remove(session, jobId);
+                    }
+                    continue;
+                }
+
+                if (job == null)
+                {
+                    continue;
+                }
+
+                completed = true;
+                remove(session, jobId);
+
+                // same metrics for both bulk loaders, so they can be compared
+                Utils.log(String.format("[BULK] Job [%s] completed [%d] ms after close: processed [%d], failed [%d]",
+                    jobId, System.currentTimeMillis() - watch.closedAt, job.getNumberRecordsProcessed(),
+                    job.getNumberRecordsFailed()));
+                _scheduler.execute(() -> run(() -> watch.listener.onComplete(session.sf, job)));
+            }
+        }
+        catch (RuntimeException e)
+        {
+            Utils.logException(e);
+        }
+        finally
+        {
+            synchronized (_sessions)
+            {
+                if (session.jobs.isEmpty())
+                {
+                    _sessions.remove(session.key);
+                }
+                else
+                {
+                    session.delay = (completed ? MIN_DELAY_MILLIS : Math.min(MAX_DELAY_MILLIS, session.delay * 2));
+                    schedule(session, session.delay);
+                }
+            }
+        }
+    }
+
+    private static void remove(Session session, String jobId)
+    {
+        synchronized (_sessions)
+        {
+            session.jobs.remove(jobId);
+        }
+    }
+
+    /*
+     * Runs a task, keeping its failure from killing the scheduler thread.
+     */
+    private static void run(Runnable task)
+    {
+        try
+        {
+            task.run();
+        }
+        catch (RuntimeException e)
+        {
+            Utils.logException(e);
+        }
+    }
+
+    private static int getThreads()
+    {
+        try
+        {
+            return (getenv(SALESFORCE_POLL_THREADS) == null ? DEFAULT_THREADS
+                : Math.max(1, Integer.parseInt(getenv(SALESFORCE_POLL_THREADS))));
+        }
+        catch (NumberFormatException e)
+        {
+            Utils.log(String.format("Invalid value for [%s], defaulting to %d", SALESFORCE_POLL_THREADS,
+                DEFAULT_THREADS));
+            return DEFAULT_THREADS;
+        }
+    }
+}
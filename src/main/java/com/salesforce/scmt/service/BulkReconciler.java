@@ -0,0 +1,534 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.salesforce.scmt.model.DeployException;
+import com.salesforce.scmt.utils.DeskUtil;
+import com.salesforce.scmt.utils.SalesforceConstants;
+import com.salesforce.scmt.utils.SalesforceConstants.DeskMessageFields;
+import com.salesforce.scmt.utils.SalesforceConstants.Fields;
+import com.salesforce.scmt.utils.TextChunker;
+import com.salesforce.scmt.utils.Utils;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.JobInfo;
+import com.sforce.soap.partner.sobject.SObject;
+import com.sforce.ws.ConnectionException;
+
+/**
+ * Joins the results of a completed bulk job back to the Desk.com records that were submitted, and keeps the Desk ids
+ * of the failed rows as Desk_Message__c records ("Desk-Failed-{object}-{desk id}", status Failed, the error code and
+ * message in Error) so a retry can reload just those records.
+ *
+ * Bulk API 1.0 results come back in the order of the batch rows, so the Desk id of every row is kept per batch when
+ * the batch is created. Bulk API 2.0 failed results carry the submitted columns, the Desk id is read from them. The
+ * rows of a batch that could not be uploaded at all are kept with the upload error and recorded with the job results.
+ * The records reloaded by a retry are marked Converted once the results of their job are in, unless they failed again.
+ */
+public final class BulkReconciler
+{
+    // max length kept of a row error
+    private static final int ERROR_MAX = 255;
+
+    // Desk ids of the rows of every batch created by this process, by job id and batch id
+    private static final Map<String, Map<String, long[]>> _batches = new ConcurrentHashMap<>();
+
+    // rows of the batches that failed to upload, by job id and Desk id
+    private static final Map<String, Map<Long, String>> _rejected = new ConcurrentHashMap<>();
+
+    // records reloaded by a retry, by job id, the jobs a Bulk API 2.0 load is split into share one entry
+    private static final Map<String, Resubmitted> _resubmitted = new ConcurrentHashMap<>();
+
+    private static final class Resubmitted
+    {
+        private final String soType;
+        private final Collection<Long> deskIds;
+        private final Set<Long> failed = new HashSet<>();
+        private int pending = 1;
+
+        private Resubmitted(String soType, Collection<Long> deskIds)
+        {
+            this.soType = soType;
+            this.deskIds = deskIds;
+        }
+    }
+
+    private final SalesforceService _sf;
+
+    BulkReconciler(SalesforceService sf)
+    {
+        _sf = sf;
+    }
+
+    /**
+     * Returns the Desk ids of the records, 0 for the records that have none.
+     */
+    public static long[] getKeys(List<Map<String, Object>> records)
+    {
+        long[] keys = new long[records.size()];
+        for (int i = 0; i < keys.length; i++)
+        {
+            keys[i] = getKey(records.get(i));
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the Desk id of a record, or 0 if it has none (e.g. case comments and email messages).
+     */
+    public static long getKey(Map<String, Object> record)
+    {
+        Object key = record.get(Fields.DeskId);
+        if (key instanceof Number)
+        {
+            return ((Number) key).longValue();
+        }
+        try
+        {
+            return (key == null ? 0 : Long.parseLong(key.toString()));
+        }
+        catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+
+    /*
+     * Keeps the Desk ids of the rows of a batch that was created, in row order.
+     */
+    static void register(String jobId, String batchId, long[] keys)
+    {
+        if (keys == null)
+        {
+            return;
+        }
+        for (long key : keys)
+        {
+            if (key != 0)
+            {
+                _batches.computeIfAbsent(jobId, k -> new ConcurrentHashMap<>()).put(batchId, keys);
+                return;
+            }
+        }
+    }
+
+    /*
+     * Keeps the Desk ids of the rows of a batch that failed to upload, they are recorded as failed with the results of
+     * the job.
+     */
+    static void registerFailed(String jobId, long[] keys, String error)
+    {
+        if (keys == null)
+        {
+            return;
+        }
+        for (long key : keys)
+        {
+            if (key != 0)
+            {
+                _rejected.computeIfAbsent(jobId, k -> new ConcurrentHashMap<>()).put(key, String.valueOf(error));
+            }
+        }
+    }
+
+    /*
+     * Records the rows of a job that failed to upload right away, for a job which is never going to complete.
+     */
+    void recordRejected(String jobId, String soType)
+    {
+        Map<Long, String> rejected = _rejected.remove(jobId);
+        _resubmitted.remove(jobId);
+        if (rejected == null)
+        {
+            return;
+        }
+        try
+        {
+            recordFailures(soType, rejected);
+        }
+        catch (ConnectionException | DeployException | AsyncApiException e)
+        {
+            Utils.log("[BULK] Unable to record the [" + rejected.size() + "] rejected rows of job [" + jobId + "]");
+            Utils.logException(e);
+        }
+    }
+
+    /**
+     * Keeps the Desk ids of the failed records reloaded by a retry job, they are marked Converted once the job is
+     * reconciled, except for the ones that failed again. Call before the job is closed.
+     *
+     * @param jobId
+     *            The retry job.
+     * @param soType
+     *            The object the rows are loaded into.
+     * @param deskIds
+     *            The Desk ids of the rows.
+     */
+    public static void registerResubmitted(String jobId, String soType, Collection<Long> deskIds)
+    {
+        if (!deskIds.isEmpty())
+        {
+            _resubmitted.put(jobId, new Resubmitted(soType, new ArrayList<>(deskIds)));
+        }
+    }
+
+    /*
+     * Moves the records reloaded by a Bulk API 2.0 load on to its ingest jobs, they are marked once all of them are
+     * reconciled. Without ingest jobs nothing was uploaded and the records stay failed.
+     */
+    static void shareResubmitted(String loadId, List<String> jobIds)
+    {
+        Resubmitted resubmitted = _resubmitted.remove(loadId);
+        if (resubmitted == null || jobIds.isEmpty())
+        {
+            return;
+        }
+        resubmitted.pending = jobIds.size();
+        for (String jobId : jobIds)
+        {
+            _resubmitted.put(jobId, resubmitted);
+        }
+    }
+
+    /**
+     * Reconciles a completed job, the failed rows with a Desk id are recorded for a retry.
+     *
+     * @param job
+     *            The completed job, see SalesforceService.pollCompletion().
+     * @param ingest
+     *            True for a Bulk API 2.0 ingest job.
+     * @return The number of failed rows recorded.
+     */
+    public int reconcile(JobInfo job, boolean ingest)
+        throws AsyncApiException, ConnectionException, DeployException, IOException
+    {
+        Map<String, long[]> batches = _batches.remove(job.getId());
+        Map<Long, String> rejected = _rejected.remove(job.getId());
+        Resubmitted resubmitted = _resubmitted.remove(job.getId());
+        boolean resultsFailed = job.getNumberRecordsFailed() > 0
+            || (batches != null && hasFailedBatch(job.getId(), batches));
+        if (!resultsFailed && rejected == null)
+        {
+            markConverted(resubmitted, Collections.emptySet());
+            return 0;
+        }
+
+        // sorted by Desk id, so the retry fetches them in order
+        Map<Long, String> failures = new TreeMap<>();
+        if (rejected != null)
+        {
+            failures.putAll(rejected);
+        }
+
+        // without failed results only the rows that never reached Salesforce are recorded
+        if (resultsFailed && ingest)
+        {
+            _sf.getBulkV2Loader().readFailures(job.getId(), Fields.DeskId, (key, error) ->
+            {
+                try
+                {
+                    failures.put(Long.valueOf(key), error);
+                }
+                catch (NumberFormatException e)
+                {
+                    // a row without a Desk id can't be retried
+                }
+            });
+        }
+        else if (resultsFailed && batches != null)
+        {
+            for (BatchInfo batch : _sf.getBatchInfos(job.getId()))
+            {
+                long[] keys = batches.get(batch.getId());
+                if (keys == null)
+                {
+                    continue;
+                }
+
+                if (batch.getState() == BatchStateEnum.Failed)
+                {
+                    // the whole batch was rejected, there are no row results
+                    for (long key : keys)
+                    {
+                        addFailure(failures, key, batch.getStateMessage());
+                    }
+                }
+                else if (batch.getNumberRecordsFailed() > 0)
+                {
+                    try (InputStream in = _sf.getBatchResultStream(job.getId(), batch.getId()))
+                    {
+                        readResults(in, keys, failures);
+                    }
+                }
+            }
+        }
+        else if (resultsFailed)
+        {
+            Utils.log("[BULK] No row keys for job [" + job.getId() + "], its failed rows can't be recorded");
+        }
+
+        recordFailures(job.getObject(), failures);
+        Utils.log(String.format("[BULK] Job [%s]: recorded [%d] failed %s rows for retry", job.getId(),
+            failures.size(), job.getObject()));
+
+        // only after the failures are recorded, a job that can't be reconciled leaves its records failed
+        markConverted(resubmitted, failures.keySet());
+        return failures.size();
+    }
+
+    /**
+     * Records failed rows, or updates the error of rows that failed again.
+     *
+     * @param soType
+     *            The object the rows were loaded into.
+     * @param failures
+     *            The error of every failed row, by Desk id.
+     */
+    public void recordFailures(String soType, Map<Long, String> failures)
+        throws ConnectionException, DeployException, AsyncApiException
+    {
+        List<SObject> deskMessages = new ArrayList<>();
+        for (Map.Entry<Long, String> failure : failures.entrySet())
+        {
+            SObject deskMessage = newDeskMessage(soType, failure.getKey(), DeskMessageFields.StatusFailed);
+            deskMessage.setField(DeskMessageFields.Error,
+                (failure.getValue() == null ? null : TextChunker.truncate(failure.getValue(), ERROR_MAX)));
+            deskMessages.add(deskMessage);
+        }
+        upsert(deskMessages);
+    }
+
+    /*
+     * Marks the reloaded rows of a reconciled retry job as converted, except for the ones that failed again. The rows
+     * of a Bulk API 2.0 load are marked once the last of its ingest jobs is reconciled.
+     */
+    private void markConverted(Resubmitted resubmitted, Set<Long> failed)
+        throws ConnectionException, DeployException, AsyncApiException
+    {
+        if (resubmitted == null)
+        {
+            return;
+        }
+
+        List<SObject> deskMessages = new ArrayList<>();
+        synchronized (resubmitted)
+        {
+            resubmitted.failed.addAll(failed);
+            if (--resubmitted.pending > 0)
+            {
+                return;
+            }
+            for (Long deskId : resubmitted.deskIds)
+            {
+                if (!resubmitted.failed.contains(deskId))
+                {
+                    deskMessages.add(newDeskMessage(resubmitted.soType, deskId, DeskMessageFields.StatusConverted));
+                }
+            }
+        }
+        upsert(deskMessages);
+    }
+
+    /**
+     * Returns the Desk ids of the rows of an object that failed and were not retried yet, in order.
+     *
+     * @param soType
+     *            The object the rows were loaded into.
+     * @return The Desk ids.
+     */
+    public List<Long> getFailedIds(String soType) throws ConnectionException
+    {
+        String prefix = getPrefix(soType);
+        String query = String.format(
+            "SELECT %s FROM %s WHERE %s = '%s' AND %s LIKE '%s%%'",
+            DeskMessageFields.Name,
+            SalesforceConstants.OBJ_DESK_MESSAGE,
+            DeskMessageFields.Status, DeskMessageFields.StatusFailed,
+            DeskMessageFields.Name, prefix);
+
+        List<Long> deskIds = new ArrayList<>();
+        try (QueryCursor deskMessages = _sf.queryCursor(query, true))
+        {
+            while (deskMessages.hasNext())
+            {
+                String name = deskMessages.next().getField(DeskMessageFields.Name).toString();
+                try
+                {
+                    deskIds.add(Long.valueOf(name.substring(prefix.length())));
+                }
+                catch (NumberFormatException e)
+                {
+                    Utils.log("[BULK] Skipping Desk Message [" + name + "]");
+                }
+            }
+        }
+        catch (QueryCursor.QueryException e)
+        {
+            throw e.getCause();
+        }
+
+        deskIds.sort(null);
+        return deskIds;
+    }
+
+    private boolean hasFailedBatch(String jobId, Map<String, long[]> batches) throws AsyncApiException
+    {
+        for (BatchInfo batch : _sf.getBatchInfos(jobId))
+        {
+            if (batch.getState() == BatchStateEnum.Failed && batches.containsKey(batch.getId()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Streams a JSON batch result set, [{"success":false,"created":false,"id":null,"errors":[{"statusCode":...,
+     * "message":...,"fields":[...]}]}, ...], and joins the failed rows to their Desk ids by position.
+     */
+    static void readResults(InputStream in, long[] keys, Map<Long, String> failures) throws IOException
+    {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        reader.beginArray();
+        for (int row = 0; reader.hasNext(); row++)
+        {
+            boolean success = true;
+            String error = null;
+
+            reader.beginObject();
+            while (reader.hasNext())
+            {
+                String name = reader.nextName();
+                if ("success".equals(name) && reader.peek() == JsonToken.BOOLEAN)
+                {
+                    success = reader.nextBoolean();
+                }
+                else if ("errors".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY)
+                {
+                    error = readErrors(reader);
+                }
+                else
+                {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (!success && row < keys.length)
+            {
+                addFailure(failures, keys[row], error);
+            }
+        }
+        reader.endArray();
+    }
+
+    /*
+     * Reads the errors of a row as "STATUS_CODE: message", one per line.
+     */
+    private static String readErrors(JsonReader reader) throws IOException
+    {
+        StringBuilder errors = new StringBuilder();
+        reader.beginArray();
+        while (reader.hasNext())
+        {
+            if (errors.length() > 0)
+            {
+                errors.append('\n');
+            }
+
+            if (reader.peek() != JsonToken.BEGIN_OBJECT)
+            {
+                errors.append(reader.nextString());
+                continue;
+            }
+
+            String statusCode = null;
+            String message = null;
+            reader.beginObject();
+            while (reader.hasNext())
+            {
+                String name = reader.nextName();
+                if ("statusCode".equals(name) && reader.peek() == JsonToken.STRING)
+                {
+                    statusCode = reader.nextString();
+                }
+                else if ("message".equals(name) && reader.peek() == JsonToken.STRING)
+                {
+                    message = reader.nextString();
+                }
+                else
+                {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            errors.append(statusCode).append(": ").append(message);
+        }
+        reader.endArray();
+        return errors.toString();
+    }
+
+    private static void addFailure(Map<Long, String> failures, long key, String error)
+    {
+        if (key != 0)
+        {
+            failures.put(key, error);
+        }
+    }
+
+    private static SObject newDeskMessage(String soType, long deskId, String status)
+    {
+        SObject deskMessage = new SObject(SalesforceConstants.OBJ_DESK_MESSAGE);
+        deskMessage.setField(DeskMessageFields.Name, getPrefix(soType) + deskId);
+        deskMessage.setField(DeskMessageFields.Status, status);
+        return deskMessage;
+    }
+
+    private static String getPrefix(String soType)
+    {
+        return DeskUtil.DESK_MESSAGE_FAILURE_PREFIX + soType + "-";
+    }
+
+    /*
+     * Upserts the Desk Messages by name, in chunks the partner API accepts.
+     */
+    private void upsert(List<SObject> deskMessages) throws ConnectionException, DeployException, AsyncApiException
+    {
+        for (int i = 0; i < deskMessages.size(); i += SalesforceConstants.API_MAX_SIZE)
+        {
+            _sf.upsertData(DeskMessageFields.Name,
+                deskMessages.subList(i, Math.min(deskMessages.size(), i + SalesforceConstants.API_MAX_SIZE)));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.service;
+
+import static java.lang.System.getenv;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import com.salesforce.scmt.model.DeployResponse;
+import com.salesforce.scmt.utils.BatchBuffer;
+import com.salesforce.scmt.utils.Utils;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.JobInfo;
+
+/**
+ * Process wide stage that uploads serialized bulk batches on a fixed pool of threads, so extraction carries on while
+ * a batch is on the wire. The number of batches queued or in flight is bounded, a caller submitting past the bound
+ * waits for an upload to finish, which caps the memory held by serialized batches. The rows of a batch that fails to
+ * upload are recorded with the BulkReconciler and the failures of a job are returned by await().
+ */
+public final class BulkUploadStage
+{
+    // environment variable holding the number of uploader threads, 0 uploads inline on the caller's thread
+    private static final String SALESFORCE_UPLOAD_THREADS = "SALESFORCE_UPLOAD_THREADS";
+    private static final int DEFAULT_THREADS = 2;
+
+    // environment variable holding the number of serialized batches which may wait for an uploader
+    private static final String SALESFORCE_UPLOAD_QUEUE = "SALESFORCE_UPLOAD_QUEUE";
+    private static final int DEFAULT_QUEUE = 4;
+
+    private static final int _threads = getSetting(SALESFORCE_UPLOAD_THREADS, DEFAULT_THREADS, 0);
+
+    private static final ExecutorService _pool = (_threads == 0 ? null
+        : Executors.newFixedThreadPool(_threads, r ->
+        {
+            Thread t = new Thread(r, "bulk-batch-upload");
+            t.setDaemon(true);
+            return t;
+        }));
+
+    // one permit per batch queued or being uploaded
+    private static final Semaphore _slots = new Semaphore(_threads + getSetting(SALESFORCE_UPLOAD_QUEUE, DEFAULT_QUEUE, 1));
+
+    // uploads still running per job, and the ones that failed
+    private static final Map<String, Uploads> _uploads = new ConcurrentHashMap<>();
+
+    private static final class Uploads
+    {
+        private int pending;
+        private final DeployResponse failures = new DeployResponse();
+    }
+
+    private BulkUploadStage()
+    {
+    }
+
+    /**
+     * @return True if batches are uploaded by the stage, false if they are uploaded inline.
+     */
+    public static boolean isEnabled()
+    {
+        return _pool != null;
+    }
+
+    /**
+     * Queues a serialized batch for upload, waiting for room in the queue if it is full. The buffer is released once
+     * the batch is sent. A failed upload doesn't stop the batches after it, it is returned by await().
+     *
+     * @param conn
+     *            The bulk connection of the job.
+     * @param job
+     *            The job the batch is added to.
+     * @param buffer
+     *            The serialized batch.
+     * @param records
+     *            The number of records in the batch, for logging.
+     * @param keys
+     *            The Desk ids of the rows, see BulkReconciler.
+     */
+    public static void submit(BulkConnection conn, JobInfo job, BatchBuffer buffer, int records, long[] keys)
+        throws AsyncApiException
+    {
+        Uploads uploads = _uploads.computeIfAbsent(job.getId(), k -> new Uploads());
+        try
+        {
+            _slots.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            buffer.release();
+            BulkReconciler.registerFailed(job.getId(), keys, "Upload interrupted");
+            Thread.currentThread().interrupt();
+            throw new AsyncApiException("Interrupted waiting to upload a batch to job [" + job.getId() + "]",
+                AsyncExceptionCode.ClientInputError);
+        }
+
+        synchronized (uploads)
+        {
+            uploads.pending++;
+        }
+
+        _pool.execute(() ->
+        {
+            String failure = null;
+            try
+            {
+                BatchInfo batch = conn.createBatchFromStream(job, buffer.getInputStream());
+                BulkReconciler.register(job.getId(), batch.getId(), keys);
+            }
+            catch (AsyncApiException | RuntimeException e)
+            {
+                Utils.log("[BULK] Failed to upload a batch of [" + records + "] records to job [" + job.getId() + "]");
+                Utils.logException(e);
+                failure = String.valueOf(e.getMessage());
+
+                // the rows never reached Salesforce, they are recorded for a retry with the job results
+                BulkReconciler.registerFailed(job.getId(), keys, failure);
+            }
+            finally
+            {
+                buffer.release();
+                _slots.release();
+            }
+
+            synchronized (uploads)
+            {
+                uploads.pending--;
+                if (failure != null)
+                {
+                    uploads.failures.incrementErrorCount(records);
+                    uploads.failures.addError(String.format("[%d] records failed to upload to job [%s]: %s", records,
+                        job.getId(), failure));
+                }
+                uploads.notifyAll();
+            }
+        });
+    }
+
+    /**
+     * Waits for the uploads of a job to finish, call before closing the job.
+     *
+     * @param jobId
+     *            The job id.
+     * @return The failed uploads of the job, the number of records that were not uploaded and an error per batch, or
+     *         null if every batch was uploaded.
+     */
+    public static DeployResponse await(String jobId) throws AsyncApiException
+    {
+        Uploads uploads = _uploads.get(jobId);
+        if (uploads == null)
+        {
+            return null;
+        }
+
+        synchronized (uploads)
+        {
+            while (uploads.pending > 0)
+            {
+                try
+                {
+                    uploads.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new AsyncApiException("Interrupted waiting for the batches of job [" + jobId + "]",
+                        AsyncExceptionCode.ClientInputError);
+                }
+            }
+        }
+        _uploads.remove(jobId);
+        return (uploads.failures.getErrorCount() == 0 ? null : uploads.failures);
+    }
+
+    private static int getSetting(String name, int defaultValue, int minValue)
+    {
+        try
+        {
+            return (getenv(name) == null ? defaultValue : Math.max(minValue, Integer.parseInt(getenv(name))));
+        }
+        catch (NumberFormatException e)
+        {
+            Utils.log(String.format("Invalid value for [%s], defaulting to %d", name, defaultValue));
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,835 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.service;
+
+import static java.lang.System.getenv;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.salesforce.scmt.utils.JsonUtil;
+import com.salesforce.scmt.utils.SalesforceConstants;
+import com.salesforce.scmt.utils.SalesforceUtil;
+import com.salesforce.scmt.utils.Utils;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+import com.sforce.async.JobInfo;
+import com.sforce.async.JobStateEnum;
+import com.sforce.async.OperationEnum;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+
+import okio.BufferedSink;
+
+/**
+ * Loads records through Bulk API 2.0 ingest jobs, behind the createBulkJob / addBatchToJob / closeBulkJob surface of
+ * SalesforceService. The batches added to a job are spooled to a CSV file on disk, and the whole file is streamed up
+ * as the single upload of an ingest job when the job is closed, Salesforce splits it into chunks itself. A job that
+ * outgrows the upload limit rolls over to a further ingest job, all of them are closed together. The rows of a spool
+ * that can't be written or uploaded are recorded with the BulkReconciler and their ingest job is aborted.
+ */
+public final class BulkV2Loader
+{
+    // set to true to load through Bulk API 2.0 ingest jobs instead of Bulk API 1.0 batches
+    private static final String SALESFORCE_BULK_V2 = "SALESFORCE_BULK_V2";
+
+    // Bulk API 2.0 is available from v41.0
+    private static final String API_VERSION = "v41.0";
+
+    // an upload is limited to 150MB once base64 encoded, roll over to a new ingest job well before the CSV gets there
+    private static final long MAX_UPLOAD_BYTES = 90L * 1024 * 1024;
+
+    // time between job status checks while waiting for a job to complete
+    private static final long POLL_MILLIS = 10000L;
+
+    // number of failed records logged per job, the full results can be fetched with getResults()
+    private static final int LOGGED_FAILURES = 10;
+
+    // result sets of a completed job
+    public static final String SUCCESSFUL_RESULTS = "successfulResults";
+    public static final String FAILED_RESULTS = "failedResults";
+    public static final String UNPROCESSED_RECORDS = "unprocessedrecords";
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=UTF-8");
+    private static final MediaType CSV = MediaType.parse("text/csv");
+
+    // timeouts of the ingest requests, an upload of a full spool takes a while to be acknowledged
+    private static final long CONNECT_TIMEOUT_SECONDS = 15;
+    private static final long READ_TIMEOUT_SECONDS = 300;
+    private static final long WRITE_TIMEOUT_SECONDS = 300;
+
+    private static final OkHttpClient _client = createClient();
+
+    // open loads by the job id handed out by createJob(), removed when the load is closed, or dropped with their spool
+    // once they are well past the job life without being closed
+    private static final Map<String, Load> _loads = new ConcurrentHashMap<>();
+
+    // ingest jobs of this process still to be waited for, so the job ids can be told apart from Bulk API 1.0 job ids
+    private static final Set<String> _ingestJobs = ConcurrentHashMap.newKeySet();
+
+    private final SalesforceService _sf;
+
+    /*
+     * The records of one job, spooled as CSV rows. Columns are numbered in the order they are first seen, a row only
+     * holds the columns known when it was written and is padded to the full header on upload.
+     */
+    private static final class Load
+    {
+        private final String sobjectType;
+        private final String upsertField;
+        private final OperationEnum op;
+        private final long createdAt = System.currentTimeMillis();
+        private final List<String> jobIds = new ArrayList<>();
+        private final Map<String, Integer> columns = new LinkedHashMap<>();
+        private String jobId;
+        private File spool;
+        private Writer writer;
+        private int rows;
+
+        // Desk ids of the spooled rows, see BulkReconciler
+        private long[] keys = new long[1024];
+
+        private Load(String sobjectType, String upsertField, OperationEnum op)
+        {
+            this.sobjectType = sobjectType;
+            this.upsertField = upsertField;
+            this.op = op;
+        }
+    }
+
+    BulkV2Loader(SalesforceService sf)
+    {
+        _sf = sf;
+    }
+
+    /**
+     * @return True if jobs are loaded through Bulk API 2.0.
+     */
+    public static boolean isEnabled()
+    {
+        return "true".equalsIgnoreCase(getenv(SALESFORCE_BULK_V2)) || "1".equals(getenv(SALESFORCE_BULK_V2));
+    }
+
+    /**
+     * @return True if the job id is a Bulk API 2.0 ingest job created by this process.
+     */
+    public static boolean isIngestJob(String jobId)
+    {
+        return jobId != null && (_ingestJobs.contains(jobId) || _loads.containsKey(jobId));
+    }
+
+    /**
+     * Creates the first ingest job of a load, its id identifies the load to the other methods.
+     */
+    public String createJob(String sobjectType, String upsertField, OperationEnum op) throws AsyncApiException
+    {
+        dropAbandonedLoads();
+
+        Load load = new Load(sobjectType, upsertField, op);
+        openJob(load);
+        _loads.put(load.jobId, load);
+        return load.jobId;
+    }
+
+    /**
+     * Appends records to the load, rolling over to a new ingest job when the upload would grow too large.
+     */
+    public void addRecords(String jobId, List<Map<String, Object>> records) throws AsyncApiException
+    {
+        Load load = getLoad(jobId);
+        synchronized (load)
+        {
+            try
+            {
+                if (load.writer == null)
+                {
+                    load.spool = File.createTempFile("bulk-" + load.jobId + "-", ".csv");
+                    load.writer = new BufferedWriter(
+                        new OutputStreamWriter(new FileOutputStream(load.spool), StandardCharsets.UTF_8));
+                }
+
+                for (Map<String, Object> record : records)
+                {
+                    writeRow(load, record);
+                }
+                load.writer.flush();
+                Utils.log(String.format("[BULK] Spooled [%d] records for ingest job [%s], [%d] bytes.", records.size(),
+                    load.jobId, load.spool.length()));
+
+                if (load.spool.length() > MAX_UPLOAD_BYTES)
+                {
+                    uploadAndClose(load);
+                    openJob(load);
+                }
+            }
+            catch (IOException e)
+            {
+                // the spool may end in a partial row, it is dropped with the records that didn't make it into it
+                Utils.logException(e);
+                String error = "Unable to spool records for ingest job [" + load.jobId + "]: " + e.getMessage();
+                BulkReconciler.registerFailed(load.jobId, BulkReconciler.getKeys(records), error);
+                discard(load, error);
+                openJob(load);
+            }
+        }
+    }
+
+    /**
+     * @return True if the load is older than a Bulk API 1.0 job may get, so callers roll over the same way.
+     */
+    public boolean isExpired(String jobId) throws AsyncApiException
+    {
+        return (System.currentTimeMillis() - getLoad(jobId).createdAt) > SalesforceConstants.JOB_LIFE;
+    }
+
+    /**
+     * Uploads what is left of the load and closes it.
+     *
+     * @return The ids of the ingest jobs of the load that have records to wait for.
+     */
+    public List<String> close(String jobId) throws AsyncApiException
+    {
+        Load load = getLoad(jobId);
+        synchronized (load)
+        {
+            try
+            {
+                uploadAndClose(load);
+            }
+            finally
+            {
+                _loads.remove(jobId);
+            }
+            return load.jobIds;
+        }
+    }
+
+    /**
+     * Waits for an ingest job to complete, and logs its failed and unprocessed records.
+     *
+     * @return The job counters, in a Bulk API 1.0 JobInfo so callers can treat both the same.
+     */
+    public JobInfo awaitCompletion(String jobId) throws AsyncApiException
+    {
+        JobInfo job;
+        while ((job = pollCompletion(jobId)) == null)
+        {
+            try
+            {
+                Thread.sleep(POLL_MILLIS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw failure("Interrupted waiting for ingest job [" + jobId + "]", e);
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Checks once whether an ingest job has completed, and if so logs its failed and unprocessed records.
+     *
+     * @return The job counters as in awaitCompletion(), or null while the job is still running.
+     */
+    public JobInfo pollCompletion(String jobId) throws AsyncApiException
+    {
+        JsonObject status = request(new Request.Builder().url(getJobUrl(jobId)).get(), "get the status of");
+        String state = status.get("state").getAsString();
+        if (!"JobComplete".equals(state) && !"Failed".equals(state) && !"Aborted".equals(state))
+        {
+            Utils.log("Awaiting results ... [" + jobId + "] " + state);
+            return null;
+        }
+
+        JobInfo job = new JobInfo();
+        job.setId(jobId);
+        job.setState("JobComplete".equals(state) ? JobStateEnum.Closed : JobStateEnum.Failed);
+        job.setNumberRecordsProcessed(getInt(status, "numberRecordsProcessed"));
+        job.setNumberRecordsFailed(getInt(status, "numberRecordsFailed"));
+        if (status.has("object") && !status.get("object").isJsonNull())
+        {
+            job.setObject(status.get("object").getAsString());
+        }
+
+        Utils.log(String.format("[BULK] Ingest job [%s] %s: processed [%d], failed [%d]", jobId, state,
+            job.getNumberRecordsProcessed(), job.getNumberRecordsFailed()));
+        if (status.has("errorMessage") && !status.get("errorMessage").isJsonNull())
+        {
+            Utils.log("[BULK] Ingest job [" + jobId + "] error: " + status.get("errorMessage").getAsString());
+        }
+
+        logResults(jobId, FAILED_RESULTS);
+        logResults(jobId, UNPROCESSED_RECORDS);
+
+        _ingestJobs.remove(jobId);
+        return job;
+    }
+
+    /**
+     * Downloads one of the result sets of a completed ingest job.
+     *
+     * @param jobId
+     *            The ingest job id.
+     * @param resultType
+     *            SUCCESSFUL_RESULTS, FAILED_RESULTS or UNPROCESSED_RECORDS.
+     * @return A temporary CSV file holding the results, the caller deletes it.
+     */
+    public File getResults(String jobId, String resultType) throws AsyncApiException
+    {
+        Request request = authorize(new Request.Builder().url(getJobUrl(jobId) + "/" + resultType + "/").get())
+            .build();
+        try
+        {
+            Response response = _client.newCall(request).execute();
+            if (!response.isSuccessful())
+            {
+                throw failure(response, "fetch the " + resultType + " of", jobId);
+            }
+
+            File results = File.createTempFile("bulk-" + jobId + "-" + resultType + "-", ".csv");
+            try (InputStream in = response.body().byteStream())
+            {
+                Files.copy(in, results.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return results;
+        }
+        catch (IOException e)
+        {
+            throw failure("Unable to fetch the " + resultType + " of ingest job [" + jobId + "]", e);
+        }
+    }
+
+    /**
+     * Reads the failed results of a completed ingest job.
+     *
+     * @param jobId
+     *            The ingest job id.
+     * @param keyField
+     *            The submitted column which identifies a row.
+     * @param failure
+     *            Takes the key and the error of every failed row.
+     */
+    public void readFailures(String jobId, String keyField, BiConsumer<String, String> failure)
+        throws AsyncApiException, IOException
+    {
+        File results = getResults(jobId, FAILED_RESULTS);
+        try (BufferedReader in = Files.newBufferedReader(results.toPath(), StandardCharsets.UTF_8))
+        {
+            List<String> header = readRow(in);
+            int key = (header == null ? -1 : header.indexOf(keyField));
+            int error = (header == null ? -1 : header.indexOf("sf__Error"));
+            if (key < 0)
+            {
+                Utils.log("[BULK] Ingest job [" + jobId + "] failed results have no [" + keyField + "] column");
+                return;
+            }
+
+            List<String> row;
+            while ((row = readRow(in)) != null)
+            {
+                failure.accept((key < row.size() ? row.get(key) : ""),
+                    (error >= 0 && error < row.size() ? row.get(error) : null));
+            }
+        }
+        finally
+        {
+            results.delete();
+        }
+    }
+
+    /*
+     * Drops the loads which were never closed, e.g. by a migration that failed, and deletes their spools. Their ingest
+     * jobs were never uploaded, Salesforce deletes them.
+     */
+    private static void dropAbandonedLoads()
+    {
+        long now = System.currentTimeMillis();
+        for (Load load : _loads.values())
+        {
+            if (now - load.createdAt > 2 * SalesforceConstants.JOB_LIFE && _loads.values().remove(load))
+            {
+                synchronized (load)
+                {
+                    Utils.log("[BULK] Dropping ingest load [" + load.jobIds + "], it was never closed.");
+                    deleteSpool(load);
+                    _ingestJobs.removeAll(load.jobIds);
+                }
+            }
+        }
+    }
+
+    private Load getLoad(String jobId) throws AsyncApiException
+    {
+        Load load = _loads.get(jobId);
+        if (load == null)
+        {
+            throw new AsyncApiException("Unknown ingest job [" + jobId + "]", AsyncExceptionCode.InvalidJob);
+        }
+        return load;
+    }
+
+    private void openJob(Load load) throws AsyncApiException
+    {
+        Map<String, Object> job = new HashMap<>();
+        job.put("object", load.sobjectType);
+        job.put("operation", load.op.toString());
+        job.put("contentType", "CSV");
+        job.put("lineEnding", "LF");
+        if (load.upsertField != null)
+        {
+            job.put("externalIdFieldName", load.upsertField);
+        }
+
+        JsonObject created = request(new Request.Builder().url(getIngestUrl())
+            .post(RequestBody.create(JSON, JsonUtil.toJson(job))), "create");
+
+        load.jobId = created.get("id").getAsString();
+        load.jobIds.add(load.jobId);
+        _ingestJobs.add(load.jobId);
+        Utils.log("[BULK] Ingest job created: " + load.jobId + " [" + load.sobjectType + "]");
+    }
+
+    /*
+     * Streams the spool up as the upload of the current ingest job and marks the upload complete, a job that got no
+     * records is aborted instead. A failed upload doesn't stop the load, its rows are recorded as failed and the job
+     * is aborted.
+     */
+    private void uploadAndClose(Load load) throws AsyncApiException
+    {
+        String jobId = load.jobId;
+        try
+        {
+            if (load.writer != null)
+            {
+                load.writer.close();
+            }
+
+            if (load.rows == 0)
+            {
+                Utils.log("[BULK] No records for ingest job [" + jobId + "], aborting it.");
+                load.jobIds.remove(jobId);
+                _ingestJobs.remove(jobId);
+                setState(jobId, "Aborted");
+                return;
+            }
+
+            Utils.log(String.format("[BULK] Uploading [%d] records to ingest job [%s].", load.rows, jobId));
+            List<String> header = new ArrayList<>(load.columns.keySet());
+            File spool = load.spool;
+            RequestBody body = new RequestBody()
+            {
+                @Override
+                public MediaType contentType()
+                {
+                    return CSV;
+                }
+
+                @Override
+                public void writeTo(BufferedSink sink) throws IOException
+                {
+                    writeCsv(header, spool, sink);
+                }
+            };
+
+            Response response = _client.newCall(
+                authorize(new Request.Builder().url(getJobUrl(jobId) + "/batches").put(body)).build()).execute();
+            if (!response.isSuccessful())
+            {
+                throw failure(response, "upload to", jobId);
+            }
+            response.body().close();
+
+            setState(jobId, "UploadComplete");
+        }
+        catch (IOException | AsyncApiException e)
+        {
+            if (load.rows == 0)
+            {
+                throw (e instanceof AsyncApiException ? (AsyncApiException) e
+                    : failure("Unable to abort ingest job [" + jobId + "]", e));
+            }
+            Utils.logException(e);
+            discard(load, "Unable to upload to ingest job [" + jobId + "]: " + e.getMessage());
+        }
+        finally
+        {
+            deleteSpool(load);
+        }
+    }
+
+    /*
+     * Records the spooled rows of the current ingest job as failed and aborts the job, its completion reconciles
+     * them. A job that can't be aborted would never complete, its rows are recorded right away instead.
+     */
+    private void discard(Load load, String error) throws AsyncApiException
+    {
+        String jobId = load.jobId;
+        BulkReconciler.registerFailed(jobId, Arrays.copyOf(load.keys, load.rows), error);
+        deleteSpool(load);
+        try
+        {
+            setState(jobId, "Aborted");
+        }
+        catch (AsyncApiException e)
+        {
+            Utils.logException(e);
+            load.jobIds.remove(jobId);
+            _ingestJobs.remove(jobId);
+            _sf.getBulkReconciler().recordRejected(jobId, load.sobjectType);
+        }
+    }
+
+    private static void deleteSpool(Load load)
+    {
+        if (load.writer != null)
+        {
+            try
+            {
+                load.writer.close();
+            }
+            catch (IOException e)
+            {
+                // the spool is deleted anyway
+            }
+        }
+        if (load.spool != null && !load.spool.delete())
+        {
+            load.spool.deleteOnExit();
+        }
+        load.spool = null;
+        load.writer = null;
+        load.rows = 0;
+        load.columns.clear();
+    }
+
+    private void setState(String jobId, String state) throws AsyncApiException
+    {
+        request(new Request.Builder().url(getJobUrl(jobId))
+            .patch(RequestBody.create(JSON, JsonUtil.toJson(Collections.singletonMap("state", state)))),
+            "set the state " + state + " on");
+    }
+
+    /*
+     * Writes a record as a CSV row, relationship maps become RelationshipName.Field columns (prefixed with the object
+     * type for the polymorphic ones).
+     */
+    private static void writeRow(Load load, Map<String, Object> record) throws IOException
+    {
+        Map<Integer, String> cells = new HashMap<>();
+        for (Map.Entry<String, Object> field : record.entrySet())
+        {
+            if (field.getValue() instanceof Map)
+            {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> lookup = (Map<String, Object>) field.getValue();
+                Object attributes = lookup.get("attributes");
+                String prefix = (attributes instanceof Map && ((Map<?, ?>) attributes).get("type") != null
+                    ? ((Map<?, ?>) attributes).get("type") + ":" : "") + field.getKey() + ".";
+                for (Map.Entry<String, Object> lookupField : lookup.entrySet())
+                {
+                    if (!"attributes".equals(lookupField.getKey()))
+                    {
+                        cells.put(getColumn(load, prefix + lookupField.getKey()), toCell(lookupField.getValue()));
+                    }
+                }
+            }
+            else
+            {
+                cells.put(getColumn(load, field.getKey()), toCell(field.getValue()));
+            }
+        }
+
+        int width = load.columns.size();
+        for (int i = 0; i < width; i++)
+        {
+            if (i > 0)
+            {
+                load.writer.write(',');
+            }
+            writeCell(load.writer, cells.get(i));
+        }
+        load.writer.write('\n');
+
+        if (load.rows == load.keys.length)
+        {
+            load.keys = Arrays.copyOf(load.keys, load.keys.length * 2);
+        }
+        load.keys[load.rows++] = BulkReconciler.getKey(record);
+    }
+
+    private static int getColumn(Load load, String name)
+    {
+        Integer column = load.columns.get(name);
+        if (column == null)
+        {
+            column = load.columns.size();
+            load.columns.put(name, column);
+        }
+        return column;
+    }
+
+    private static String toCell(Object value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        if (value instanceof Date)
+        {
+            return SalesforceUtil.sfdcDateTimeFormat((Date) value);
+        }
+        if (value instanceof Calendar)
+        {
+            return SalesforceUtil.sfdcDateTimeFormat(((Calendar) value).getTime());
+        }
+        return String.valueOf(value);
+    }
+
+    private static void writeCell(Writer writer, String value) throws IOException
+    {
+        // empty cells leave the field unset
+        if (value == null || value.isEmpty())
+        {
+            return;
+        }
+
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    /*
+     * Writes the header and the spooled rows, padding the rows written before the later columns were seen. Every
+     * value is quoted, so a row ends at the first newline outside quotes.
+     */
+    private static void writeCsv(List<String> header, File spool, BufferedSink sink) throws IOException
+    {
+        Writer out = new BufferedWriter(new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8));
+        for (int i = 0; i < header.size(); i++)
+        {
+            if (i > 0)
+            {
+                out.write(',');
+            }
+            writeCell(out, header.get(i));
+        }
+        out.write('\n');
+
+        try (Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(spool), StandardCharsets.UTF_8)))
+        {
+            boolean quoted = false;
+            int cells = 1;
+            int c;
+            while ((c = in.read()) != -1)
+            {
+                if (c == '"')
+                {
+                    quoted = !quoted;
+                }
+                else if (!quoted && c == ',')
+                {
+                    cells++;
+                }
+                else if (!quoted && c == '\n')
+                {
+                    for (; cells < header.size(); cells++)
+                    {
+                        out.write(',');
+                    }
+                    cells = 1;
+                }
+                out.write(c);
+            }
+        }
+        out.flush();
+    }
+
+    /*
+     * Reads a CSV row, a quoted value may hold commas, newlines and doubled quotes. Returns null at the end of the
+     * file.
+     */
+    private static List<String> readRow(BufferedReader in) throws IOException
+    {
+        int c = in.read();
+        if (c == -1)
+        {
+            return null;
+        }
+
+        List<String> row = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (; c != -1; c = in.read())
+        {
+            if (quoted)
+            {
+                if (c != '"')
+                {
+                    cell.append((char) c);
+                    continue;
+                }
+
+                // a doubled quote is a quote, otherwise the value ends
+                in.mark(1);
+                if (in.read() == '"')
+                {
+                    cell.append('"');
+                }
+                else
+                {
+                    quoted = false;
+                    in.reset();
+                }
+            }
+            else if (c == '"')
+            {
+                quoted = true;
+            }
+            else if (c == ',')
+            {
+                row.add(cell.toString());
+                cell.setLength(0);
+            }
+            else if (c == '\n')
+            {
+                break;
+            }
+            else if (c != '\r')
+            {
+                cell.append((char) c);
+            }
+        }
+        row.add(cell.toString());
+        return row;
+    }
+
+    private void logResults(String jobId, String resultType)
+    {
+        try
+        {
+            File results = getResults(jobId, resultType);
+            try (BufferedReader in = Files.newBufferedReader(results.toPath(), StandardCharsets.UTF_8))
+            {
+                // skip the header, the logged lines are only a sample so a value with a newline may be cut short
+                in.readLine();
+                String line;
+                for (int i = 0; i < LOGGED_FAILURES && (line = in.readLine()) != null; i++)
+                {
+                    Utils.log("[BULK] Ingest job [" + jobId + "] " + resultType + ": " + line);
+                }
+            }
+            finally
+            {
+                results.delete();
+            }
+        }
+        catch (AsyncApiException | IOException e)
+        {
+            Utils.logException(e);
+        }
+    }
+
+    private static OkHttpClient createClient()
+    {
+        OkHttpClient client = new OkHttpClient();
+        client.setConnectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        client.setReadTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        client.setWriteTimeout(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return client;
+    }
+
+    private JsonObject request(Request.Builder builder, String action) throws AsyncApiException
+    {
+        Request request = authorize(builder).build();
+        try
+        {
+            Response response = _client.newCall(request).execute();
+            if (!response.isSuccessful())
+            {
+                throw failure(response, action, request.urlString());
+            }
+            String body = response.body().string();
+            return (body.isEmpty() ? new JsonObject() : new JsonParser().parse(body).getAsJsonObject());
+        }
+        catch (IOException e)
+        {
+            throw failure("Unable to " + action + " ingest job [" + request.urlString() + "]", e);
+        }
+    }
+
+    private Request.Builder authorize(Request.Builder builder)
+    {
+        return builder.header("Authorization", "Bearer " + _sf.getSessionId()).header("Accept", "application/json");
+    }
+
+    private String getIngestUrl()
+    {
+        return _sf.getRestEndpoint(API_VERSION) + "/jobs/ingest";
+    }
+
+    private String getJobUrl(String jobId)
+    {
+        return getIngestUrl() + "/" + jobId;
+    }
+
+    private static int getInt(JsonObject json, String name)
+    {
+        return (json.has(name) && !json.get(name).isJsonNull() ? json.get(name).getAsInt() : 0);
+    }
+
+    private static AsyncApiException failure(Response response, String action, String jobId) throws IOException
+    {
+        return new AsyncApiException(String.format("Unable to %s ingest job [%s]: (%d) %s", action, jobId,
+            response.code(), response.body().string()), AsyncExceptionCode.ClientInputError);
+    }
+
+    private static AsyncApiException failure(String message, Exception e)
+    {
+        Utils.logException(e);
+        return new AsyncApiException(message + ": " + e.getMessage(), AsyncExceptionCode.ClientInputError);
+    }
+}
@@ -23,13 +23,17 @@ import static com.salesforce.scmt.utils.Utils.getPostParamsFromRequest;
 import static java.lang.System.getenv;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.desk.java.apiclient.DeskClient;
 import com.desk.java.apiclient.DeskClientBuilder;
@@ -56,6 +60,26 @@ public class DeskService
     private static final String DESK_API_LOG_LEVEL_BODY = "BODY";
     private static final String DESK_API_MIGRATION_HEADER = "DESKCOM-SC-MIGRATION";
 
+    // process wide registry of Desk clients keyed by a hash of the host and credentials, so requeued jobs reuse the
+    // pooled connections and the service proxies of the previous run, clients unused for a while are dropped
+    private static final Map<String, RegisteredClient> _clientRegistry = new ConcurrentHashMap<>();
+    private static final long CLIENT_IDLE_MILLIS = 2 * 60 * 60 * 1000L;
+
+    // idle clients are looked for at most once a minute
+    private static final long SWEEP_MILLIS = 60000L;
+    private static volatile long _lastSweep = System.currentTimeMillis();
+
+    private static final class RegisteredClient
+    {
+        private final DeskClient client;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private RegisteredClient(DeskClient client)
+        {
+            this.client = client;
+        }
+    }
+
     private String _migrationId;
     private DeskClient _client;
     private Map<String, String> _clientSettings;
@@ -147,81 +171,120 @@ public class DeskService
     private DeskClient createDeskClient(String deskUrl, String consumerKey, String consumerSecret,
         String accessToken, String accessTokenSecret)
     {
-        // check if we need to create a desck client
-        if (_client == null || !_client.getHostname().equalsIgnoreCase(deskUrl))
+        // check that required parameters are not empty
+        if (deskUrl.isEmpty() || consumerKey.isEmpty() || consumerSecret.isEmpty() || accessToken.isEmpty()
+            || accessTokenSecret.isEmpty())
+        {
+            throw new InvalidParameterException("All of the parameters are required!");
+        }
+
+        // save the settings so I can re-queue jobs
+        _clientSettings = new HashMap<>();
+        _clientSettings.put("deskUrl", deskUrl);
+        _clientSettings.put("consumerKey", consumerKey);
+        _clientSettings.put("consumerSecret", consumerSecret);
+        _clientSettings.put("accessToken", accessToken);
+        _clientSettings.put("accessTokenSecret", accessTokenSecret);
+
+        // reuse the client built for the same site & credentials
+        long now = System.currentTimeMillis();
+        if (now - _lastSweep > SWEEP_MILLIS)
+        {
+            _lastSweep = now;
+            _clientRegistry.values().removeIf(c -> now - c.lastUsed > CLIENT_IDLE_MILLIS);
+        }
+
+        String key = getClientKey(deskUrl.toLowerCase(), consumerKey, consumerSecret, accessToken, accessTokenSecret);
+        RegisteredClient registered = _clientRegistry.computeIfAbsent(key, k -> new RegisteredClient(
+            buildDeskClient(deskUrl, consumerKey, consumerSecret, accessToken, accessTokenSecret)));
+        registered.lastUsed = now;
+        _client = registered.client;
+
+        return _client;
+    }
+
+    /*
+     * The registry key of a client, a hash so the credentials are not kept as map keys.
+     */
+    private static String getClientKey(String... parts)
+    {
+        try
         {
-            // DEBUG
-            if (_client != null)
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts)
             {
-                Utils.log("Static Desk Client Hostname: [" + _client.getHostname() + "], new Desk Hostname: [" + deskUrl + "]");
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
             }
 
-            // check that required parameters are not empty
-            if (deskUrl.isEmpty() || consumerKey.isEmpty() || consumerSecret.isEmpty() || accessToken.isEmpty()
-                || accessTokenSecret.isEmpty())
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest())
             {
-                throw new InvalidParameterException("All of the parameters are required!");
+                sb.append(String.format("%02x", b));
             }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every JRE is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static DeskClient buildDeskClient(String deskUrl, String consumerKey, String consumerSecret,
+        String accessToken, String accessTokenSecret)
+    {
+        Utils.log("Creating Desk Client for: [" + deskUrl + "]");
+
+        // create client builder
+        DeskClientBuilder clientBuilder = new DeskClientBuilder(deskUrl, consumerKey, consumerSecret, accessToken,
+            accessTokenSecret);
 
-            // save the settings so I can re-queue jobs
-            _clientSettings = new HashMap<>();
-            _clientSettings.put("deskUrl", deskUrl);
-            _clientSettings.put("consumerKey", consumerKey);
-            _clientSettings.put("consumerSecret", consumerSecret);
-            _clientSettings.put("accessToken", accessToken);
-            _clientSettings.put("accessTokenSecret", accessTokenSecret);
-
-            // create client builder
-            DeskClientBuilder clientBuilder = new DeskClientBuilder(deskUrl, consumerKey, consumerSecret, accessToken,
-                accessTokenSecret);
-
-            // set logging for desk client
-            HttpLoggingInterceptor logging = new HttpLoggingInterceptor();
-            logging.setLevel(Level.NONE); // default to NONE, which still produces a log, but very simple
-            String deskApiLogLevel = getenv(DESK_API_LOG_LEVEL);
-
-            // if a log level is specified in the environment config var, apply it
-            if (deskApiLogLevel != null && !deskApiLogLevel.equalsIgnoreCase(DESK_API_LOG_LEVEL_NONE))
+        // set logging for desk client
+        HttpLoggingInterceptor logging = new HttpLoggingInterceptor();
+        logging.setLevel(Level.NONE); // default to NONE, which still produces a log, but very simple
+        String deskApiLogLevel = getenv(DESK_API_LOG_LEVEL);
+
+        // if a log level is specified in the environment config var, apply it
+        if (deskApiLogLevel != null && !deskApiLogLevel.equalsIgnoreCase(DESK_API_LOG_LEVEL_NONE))
+        {
+            Utils.log("Setting logging level of Desk.com API to: [" + deskApiLogLevel + "]");
+            if (deskApiLogLevel.equalsIgnoreCase(DESK_API_LOG_LEVEL_BASIC))
             {
-                Utils.log("Setting logging level of Desk.com API to: [" + deskApiLogLevel + "]");
-                if (deskApiLogLevel.equalsIgnoreCase(DESK_API_LOG_LEVEL_BASIC))
-                {
-                    logging.setLevel(Level.BASIC);
-                }
-                else if (deskApiLogLevel.equalsIgnoreCase(DESK_API_LOG_LEVEL_HEADERS))
-                {
-                    logging.setLevel(Level.HEADERS);
-                }
-                else if (deskApiLogLevel.equalsIgnoreCase(DESK_API_LOG_LEVEL_BODY))
-                {
-                    logging.setLevel(Level.BODY);
-                }
+                logging.setLevel(Level.BASIC);
             }
-
-            Interceptor requestHeader = new Interceptor()
+            else if (deskApiLogLevel.equalsIgnoreCase(DESK_API_LOG_LEVEL_HEADERS))
+            {
+                logging.setLevel(Level.HEADERS);
+            }
+            else if (deskApiLogLevel.equalsIgnoreCase(DESK_API_LOG_LEVEL_BODY))
             {
-                @Override
-                public com.squareup.okhttp.Response intercept(Interceptor.Chain chain) throws IOException
-                {
-                    com.squareup.okhttp.Request original = chain.request();
-
-                    com.squareup.okhttp.Request request = original.newBuilder()                        
-                        .method(original.method(), original.body())
-                        .header(DESK_API_MIGRATION_HEADER, deskUrl)
-                        .build();
-
-                    return chain.proceed(request);
-                }
-            };
-
-            // add the interceptors
-            clientBuilder.applicationInterceptors(Arrays.asList(requestHeader, logging));
-            
-            // create the client and assign to private member variable
-            _client = DeskClient.create(clientBuilder);
+                logging.setLevel(Level.BODY);
+            }
         }
-        
-        return _client;
+
+        Interceptor requestHeader = new Interceptor()
+        {
+            @Override
+            public com.squareup.okhttp.Response intercept(Interceptor.Chain chain) throws IOException
+            {
+                com.squareup.okhttp.Request original = chain.request();
+
+                com.squareup.okhttp.Request request = original.newBuilder()                        
+                    .method(original.method(), original.body())
+                    .header(DESK_API_MIGRATION_HEADER, deskUrl)
+                    .build();
+
+                return chain.proceed(request);
+            }
+        };
+
+        // add the interceptors, the rate governor is shared by every client of this Desk.com site
+        clientBuilder.applicationInterceptors(Arrays.asList(DeskRateGovernor.forHost(deskUrl), requestHeader,
+            logging));
+
+        // create the client
+        return DeskClient.create(clientBuilder);
     }
 
     public DeskClient getClient()
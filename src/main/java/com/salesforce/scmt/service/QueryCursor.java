@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.service;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.sobject.SObject;
+import com.sforce.ws.ConnectionException;
+
+/**
+ * Lazy cursor over the records of a SOQL query, see SalesforceService.queryCursor(). The first page is fetched when
+ * the cursor is opened and the following pages are fetched with queryMore() as the records are consumed, so only the
+ * current page is held. With prefetch the next page is requested in the background while the current one is being
+ * consumed, never more than one page ahead. Close a cursor that is not read to the end so its prefetch is cancelled.
+ */
+public final class QueryCursor implements Iterator<SObject>, AutoCloseable
+{
+    private static final ExecutorService _prefetcher = Executors.newCachedThreadPool(r ->
+    {
+        Thread t = new Thread(r, "soql-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final SalesforceService _sf;
+    private final boolean _prefetch;
+    private final int _size;
+
+    // the current page and the position in it
+    private SObject[] _records;
+    private int _index;
+
+    // locator of the next page, null once it has been requested or when the current page is the last one
+    private String _locator;
+
+    // next page being prefetched
+    private Future<QueryResult> _next;
+
+    QueryCursor(SalesforceService sf, QueryResult first, boolean prefetch)
+    {
+        _sf = sf;
+        _prefetch = prefetch;
+        _size = first.getSize();
+        setPage(first);
+    }
+
+    /**
+     * Thrown by the iterator methods when fetching the next page failed, the cause is the ConnectionException of the
+     * queryMore() call.
+     */
+    public static final class QueryException extends RuntimeException
+    {
+        private static final long serialVersionUID = -3894526193315208125L;
+
+        private QueryException(ConnectionException cause)
+        {
+            super(cause.getMessage(), cause);
+        }
+
+        @Override
+        public synchronized ConnectionException getCause()
+        {
+            return (ConnectionException) super.getCause();
+        }
+    }
+
+    /**
+     * Returns the number of records matched by the query, as reported with the first page.
+     */
+    public int getSize()
+    {
+        return _size;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        while (_index >= _records.length)
+        {
+            if (_locator == null && _next == null)
+            {
+                return false;
+            }
+            setPage(fetchNext());
+        }
+        return true;
+    }
+
+    @Override
+    public SObject next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+
+        // drop the reference so a consumed record can be collected before the page is done
+        SObject record = _records[_index];
+        _records[_index++] = null;
+        return record;
+    }
+
+    /**
+     * Returns the remaining records as a sequential stream, a failed page fetch is thrown as a QueryException.
+     */
+    public Stream<SObject> stream()
+    {
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Stops the cursor, a page being prefetched is cancelled and the remaining records are dropped.
+     */
+    @Override
+    public void close()
+    {
+        if (_next != null)
+        {
+            _next.cancel(true);
+            _next = null;
+        }
+        _locator = null;
+        _records = new SObject[0];
+        _index = 0;
+    }
+
+    private void setPage(QueryResult qr)
+    {
+        _records = (qr.getRecords() == null ? new SObject[0] : qr.getRecords());
+        _index = 0;
+        _next = null;
+        _locator = (qr.isDone() ? null : qr.getQueryLocator());
+
+        if (_prefetch && _locator != null)
+        {
+            String locator = _locator;
+            _locator = null;
+            _next = _prefetcher.submit(() -> _sf.queryMore(locator));
+        }
+    }
+
+    private QueryResult fetchNext()
+    {
+        try
+        {
+            if (_next == null)
+            {
+                String locator = _locator;
+                _locator = null;
+                return _sf.queryMore(locator);
+            }
+            return _next.get();
+        }
+        catch (ConnectionException e)
+        {
+            throw new QueryException(e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new QueryException(e.getCause() instanceof ConnectionException ? (ConnectionException) e.getCause()
+                : new ConnectionException(e.getCause().getMessage(), e.getCause()));
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new QueryException(new ConnectionException("Interrupted waiting for the next page of the query"));
+        }
+    }
+}
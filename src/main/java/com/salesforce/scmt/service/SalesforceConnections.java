@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.service;
+
+import static java.lang.System.getenv;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.salesforce.scmt.utils.Utils;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+import com.sforce.async.BulkConnection;
+import com.sforce.soap.metadata.MetadataConnection;
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.fault.ApiFault;
+import com.sforce.soap.partner.fault.ExceptionCode;
+import com.sforce.ws.ConnectionException;
+
+/**
+ * Process wide cache of the Salesforce API connections, one set per server url and session id. The connections are
+ * created once with their headers configured and are shared by every SalesforceService of the session, so a job
+ * message doesn't pay the connection setup again. The WSC connections are safe to share between threads as long as
+ * their headers are not changed after creation, so the all or none partner connection is kept apart from the default
+ * one. A session is evicted when Salesforce rejects it with INVALID_SESSION_ID, or once it has been idle for
+ * SALESFORCE_CONNECTION_IDLE_MINUTES.
+ */
+public final class SalesforceConnections
+{
+    // environment variable holding the minutes an unused session is kept
+    private static final String SALESFORCE_CONNECTION_IDLE_MINUTES = "SALESFORCE_CONNECTION_IDLE_MINUTES";
+    private static final int DEFAULT_IDLE_MINUTES = 120;
+
+    private static final long IDLE_MILLIS = getIdleMinutes() * 60000L;
+
+    // idle sessions are looked for at most once a minute
+    private static final long SWEEP_MILLIS = 60000L;
+
+    private static final Map<String, SalesforceConnections> _sessions = new ConcurrentHashMap<>();
+
+    private static volatile long _lastSweep = System.currentTimeMillis();
+
+    private volatile long _lastUsed = System.currentTimeMillis();
+
+    // connections of the session, guarded by this
+    private PartnerConnection _partner;
+    private PartnerConnection _partnerAllOrNone;
+    private BulkConnection _bulk;
+    private MetadataConnection _metadata;
+
+    /**
+     * Creates a connection when the session doesn't hold one yet.
+     */
+    interface Factory<T, E extends Exception>
+    {
+        T create() throws E;
+    }
+
+    private SalesforceConnections()
+    {
+    }
+
+    /**
+     * Returns the connections of a session, an empty set is created the first time the session is seen.
+     *
+     * @param serverUrl
+     *            The Salesforce server url.
+     * @param sessionId
+     *            The Salesforce session id.
+     * @return The connections of the session.
+     */
+    static SalesforceConnections forSession(String serverUrl, String sessionId)
+    {
+        long now = System.currentTimeMillis();
+        if (now - _lastSweep > SWEEP_MILLIS)
+        {
+            _lastSweep = now;
+            _sessions.values().removeIf(c -> now - c._lastUsed > IDLE_MILLIS);
+        }
+
+        SalesforceConnections connections = _sessions.computeIfAbsent(key(serverUrl, sessionId),
+            k -> new SalesforceConnections());
+        connections._lastUsed = now;
+        return connections;
+    }
+
+    /**
+     * Drops the connections of a session, the next lookup of the session creates new ones.
+     *
+     * @param serverUrl
+     *            The Salesforce server url.
+     * @param sessionId
+     *            The Salesforce session id.
+     */
+    public static void invalidate(String serverUrl, String sessionId)
+    {
+        if (_sessions.remove(key(serverUrl, sessionId)) != null)
+        {
+            Utils.log("[SALESFORCE] Dropped the cached connections of an invalid session for [" + serverUrl + "]");
+        }
+    }
+
+    /**
+     * Returns true if Salesforce rejected the session of a call, from a partner fault, a bulk error or the message of
+     * a metadata SOAP fault.
+     */
+    public static boolean isInvalidSession(Exception e)
+    {
+        if (e instanceof ApiFault)
+        {
+            return ((ApiFault) e).getExceptionCode() == ExceptionCode.INVALID_SESSION_ID;
+        }
+        if (e instanceof AsyncApiException
+            && ((AsyncApiException) e).getExceptionCode() == AsyncExceptionCode.InvalidSessionId)
+        {
+            return true;
+        }
+        return e.getMessage() != null && e.getMessage().contains("INVALID_SESSION_ID");
+    }
+
+    synchronized PartnerConnection getPartner(boolean allOrNone, Factory<PartnerConnection, ConnectionException> factory)
+        throws ConnectionException
+    {
+        if (allOrNone)
+        {
+            if (_partnerAllOrNone == null)
+            {
+                _partnerAllOrNone = factory.create();
+            }
+            return _partnerAllOrNone;
+        }
+        if (_partner == null)
+        {
+            _partner = factory.create();
+        }
+        return _partner;
+    }
+
+    synchronized BulkConnection getBulk(Factory<BulkConnection, AsyncApiException> factory) throws AsyncApiException
+    {
+        if (_bulk == null)
+        {
+            _bulk = factory.create();
+        }
+        return _bulk;
+    }
+
+    synchronized MetadataConnection getMetadata(Factory<MetadataConnection, ConnectionException> factory)
+        throws ConnectionException
+    {
+        if (_metadata == null)
+        {
+            _metadata = factory.create();
+        }
+        return _metadata;
+    }
+
+    private static String key(String serverUrl, String sessionId)
+    {
+        return serverUrl + "|" + sessionId;
+    }
+
+    private static int getIdleMinutes()
+    {
+        try
+        {
+            return (getenv(SALESFORCE_CONNECTION_IDLE_MINUTES) == null ? DEFAULT_IDLE_MINUTES
+                : Math.max(1, Integer.parseInt(getenv(SALESFORCE_CONNECTION_IDLE_MINUTES))));
+        }
+        catch (NumberFormatException e)
+        {
+            Utils.log(String.format("Invalid value for [%s], defaulting to %d", SALESFORCE_CONNECTION_IDLE_MINUTES,
+                DEFAULT_IDLE_MINUTES));
+            return DEFAULT_IDLE_MINUTES;
+        }
+    }
+}
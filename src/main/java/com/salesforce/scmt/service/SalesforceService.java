@@ -17,33 +17,43 @@ package com.salesforce.scmt.service;
 
 import static java.lang.System.getenv;
 
-import java.io.ByteArrayInputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParser;
 import com.salesforce.scmt.model.FieldLevelJson;
 import com.salesforce.scmt.model.DataCategoryGroupJson;
 import com.salesforce.scmt.model.DataCategoryJson;
 import com.salesforce.scmt.model.DeployException;
 import com.salesforce.scmt.model.DeployResponse;
 import com.salesforce.scmt.model.RemoteSite;
+import com.salesforce.scmt.utils.BatchBuffer;
+import com.salesforce.scmt.utils.DeskMigrationStatus;
 import com.salesforce.scmt.utils.JsonUtil;
 import com.salesforce.scmt.utils.SalesforceConstants;
 import com.salesforce.scmt.utils.SalesforceUtil;
 import com.salesforce.scmt.utils.Utils;
 import com.salesforce.scmt.worker.ClosedWorker;
 import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
 import com.sforce.async.BatchInfo;
-import com.sforce.async.BatchInfoList;
-import com.sforce.async.BatchStateEnum;
 import com.sforce.async.BulkConnection;
 import com.sforce.async.ConcurrencyMode;
 import com.sforce.async.ContentType;
@@ -65,6 +75,7 @@ import com.sforce.soap.partner.PartnerConnection;
 import com.sforce.soap.partner.QueryResult;
 import com.sforce.soap.partner.SaveResult;
 import com.sforce.soap.partner.UpsertResult;
+import com.sforce.soap.partner.fault.ExceptionCode;
 import com.sforce.soap.partner.fault.UnexpectedErrorFault;
 import com.sforce.soap.partner.sobject.SObject;
 import com.sforce.ws.ConnectionException;
@@ -75,9 +86,8 @@ import spark.Response;
 
 public final class SalesforceService
 {
-    private MetadataConnection _mConn;
-    private PartnerConnection _pConn;
-    private BulkConnection _bConn;
+    private BulkV2Loader _bulkV2;
+    private BulkReconciler _reconciler;
     private List<Metadata> _metadata;
     private String _serverUrl;
     private String _sessionId;
@@ -86,6 +96,15 @@ public final class SalesforceService
     private static String SALESFORCE_TRACE_PARTNER = "SALESFORCE_TRACE_PARTNER";
     private static String SALESFORCE_TRACE_BULK = "SALESFORCE_TRACE_BULK";
 
+    // set to true to create bulk jobs in parallel concurrency mode
+    private static final String SALESFORCE_BULK_PARALLEL = "SALESFORCE_BULK_PARALLEL";
+
+    // objects that stay serial in parallel mode, their records can't be grouped by a parent
+    private static final Set<String> SERIAL_OBJECTS = new HashSet<>(Arrays.asList(SalesforceConstants.OBJ_GROUP_MEMBER));
+
+    // copy buffer of the streamed ContentVersion uploads
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
     private boolean _auditFieldsEnabled = false;	
 
     /**
@@ -144,6 +163,41 @@ public final class SalesforceService
         return _serverUrl.substring(0, _serverUrl.indexOf("Soap/")) + "async/36.0";
     }
 
+    public String getRestEndpoint()
+    {
+        return getRestEndpoint("v36.0");
+    }
+
+    public String getRestEndpoint(String version)
+    {
+        // Change serverURL to the REST api
+        return _serverUrl.substring(0, _serverUrl.indexOf("Soap/")) + "data/" + version;
+    }
+
+    /**
+     * Returns the Bulk API 2.0 loader, used for the JSON jobs when SALESFORCE_BULK_V2 is set.
+     */
+    public BulkV2Loader getBulkV2Loader()
+    {
+        if (_bulkV2 == null)
+        {
+            _bulkV2 = new BulkV2Loader(this);
+        }
+        return _bulkV2;
+    }
+
+    /**
+     * Returns the reconciler of the bulk job results with the submitted Desk.com records.
+     */
+    public BulkReconciler getBulkReconciler()
+    {
+        if (_reconciler == null)
+        {
+            _reconciler = new BulkReconciler(this);
+        }
+        return _reconciler;
+    }
+
     public void setSessionId(String sessionId)
     {
         _sessionId = sessionId;
@@ -156,8 +210,6 @@ public final class SalesforceService
 
     public void createRemoteSite(RemoteSite rs)
       throws ConnectionException, DeployException, AsyncApiException, Exception {
-        createMetadataConnection();
-
         RemoteSiteSetting rss = new RemoteSiteSetting();
         rss.setFullName(rs.fullName);
         rss.setUrl(rs.url);
@@ -182,8 +234,6 @@ public final class SalesforceService
 
     public void deleteRemoteSite(RemoteSite rs)
       throws ConnectionException, DeployException, AsyncApiException, Exception {
-        createMetadataConnection();
-        
         com.sforce.soap.metadata.DeleteResult[] results = getMetadataConnection().deleteMetadata("RemoteSiteSetting", new String[] { rs.fullName });
         
         for (com.sforce.soap.metadata.DeleteResult r : results) {
@@ -197,8 +247,6 @@ public final class SalesforceService
 
     public void updateCustomLabel(String fullName, String value)
         throws ConnectionException, DeployException, AsyncApiException {
-          createMetadataConnection();
-          
           CustomLabel cl = new CustomLabel();
           cl.setFullName(fullName);
           cl.setValue(value);
@@ -219,8 +267,6 @@ public final class SalesforceService
                 
     public void updateFieldPermissions(String profileFullName, List<String> fields)
             throws ConnectionException, DeployException, AsyncApiException, Exception {
-        createMetadataConnection();
-
         ProfileFieldLevelSecurity[] subList1 = new ProfileFieldLevelSecurity[fields.size()];
         List<ProfileFieldLevelSecurity> subList = new ArrayList<ProfileFieldLevelSecurity>();
 
@@ -253,8 +299,6 @@ public final class SalesforceService
 
     public void createDataCategoryGroup(DataCategoryGroupJson dg)
       throws ConnectionException, DeployException, AsyncApiException, Exception {
-        createMetadataConnection();
-
         //Instantiate the new group and set values
         DataCategoryGroup dcg = new DataCategoryGroup();
         dcg.setFullName(dg.fullName);
@@ -326,46 +370,45 @@ public final class SalesforceService
         return config;
     }
 
-    private MetadataConnection getMetadataConnection()
+    private MetadataConnection getMetadataConnection() throws ConnectionException
     {
-        return _mConn;
+        return SalesforceConnections.forSession(getServerUrl(), getSessionId())
+            .getMetadata(this::createMetadataConnection);
     }
 
-    private void setMetadataConnection(MetadataConnection mConn)
+    private BulkConnection getBulkConnection() throws AsyncApiException
     {
-        this._mConn = mConn;
+        return SalesforceConnections.forSession(getServerUrl(), getSessionId()).getBulk(this::createBulkConnection);
     }
 
-    private BulkConnection getBulkConnection()
+    private PartnerConnection getPartnerConnection() throws ConnectionException
     {
-        return _bConn;
+        return getPartnerConnection(false);
     }
 
-    private void setBulkConnection(BulkConnection bConn)
+    private PartnerConnection getPartnerConnection(boolean allOrNone) throws ConnectionException
     {
-        this._bConn = bConn;
+        return SalesforceConnections.forSession(getServerUrl(), getSessionId()).getPartner(allOrNone,
+            () -> createPartnerConnection(allOrNone));
     }
 
-    private PartnerConnection getPartnerConnection()
-    {
-        return _pConn;
-    }
-
-    private void setPartnerConnection(PartnerConnection pConn)
+    /**
+     * Drops the cached connections of the session when Salesforce rejected it, the exception is returned so it can be
+     * rethrown.
+     */
+    private <E extends Exception> E evictOnInvalidSession(E e)
     {
-        this._pConn = pConn;
+        if (SalesforceConnections.isInvalidSession(e))
+        {
+            SalesforceConnections.invalidate(getServerUrl(), getSessionId());
+        }
+        return e;
     }
 
-    private void createMetadataConnection()
-        throws ConnectionException, AsyncApiException
+    private MetadataConnection createMetadataConnection()
+        throws ConnectionException
     {
         Utils.log("SalesforceService::createMetadataConnection() entered");
-        // check if connection has already been created
-        if (getMetadataConnection() != null)
-        {
-            // connection already created
-            return;
-        }
 
         ConnectorConfig config = getConnectorConfig(getServerUrl(), getSessionId());
         config.setServiceEndpoint(getMetadataUrl());
@@ -381,28 +424,22 @@ public final class SalesforceService
             config.setCompression(false);
         }
 
-        setMetadataConnection(new MetadataConnection(config));
+        MetadataConnection mConn = new MetadataConnection(config);
 
         // allow partial success
-        getMetadataConnection().setAllOrNoneHeader(false);
+        mConn.setAllOrNoneHeader(false);
 
         // print the endpoint
         Utils.log(
             "\n\tSession ID:            " + Utils.getEnvOrThrow("JAVA_ENV") == "development" ? getSessionId() : "redacted" +
             "\n\tEndpoint:              " + getServerUrl() +
-            "\n\tConnection Session ID: " + Utils.getEnvOrThrow("JAVA_ENV") == "development" ? _mConn.getConfig().getSessionId() : "redacted" +
-            "\n\tAuth Endpoint:         " + _mConn.getConfig().getAuthEndpoint());
+            "\n\tConnection Session ID: " + Utils.getEnvOrThrow("JAVA_ENV") == "development" ? mConn.getConfig().getSessionId() : "redacted" +
+            "\n\tAuth Endpoint:         " + mConn.getConfig().getAuthEndpoint());
+        return mConn;
     }
 
-    private void createPartnerConnection() throws ConnectionException
+    private PartnerConnection createPartnerConnection(boolean allOrNone) throws ConnectionException
     {
-        // check if connection has already been created
-        if (getPartnerConnection() != null)
-        {
-            // connection already created
-            return;
-        }
-
         // print the info we will use to build the connection
         Utils.log("SalesforceService::createPartnerConnection() entered" + "\n\tSession ID:       "
             + Utils.getEnvOrThrow("JAVA_ENV") == "development" ? getSessionId() : "redacted" + "\n\tPartner Endpoint: " + getServerUrl());
@@ -421,24 +458,18 @@ public final class SalesforceService
             partnerConfig.setCompression(false);
         }
 
-        setPartnerConnection(new PartnerConnection(partnerConfig));
+        PartnerConnection pConn = new PartnerConnection(partnerConfig);
 
-        // allow partial success
-        getPartnerConnection().setAllOrNoneHeader(false);
+        // the connection is shared, so the header is fixed when it is created rather than toggled per call
+        pConn.setAllOrNoneHeader(allOrNone);
 
         // truncate fields that are too long
-        getPartnerConnection().setAllowFieldTruncationHeader(true);
+        pConn.setAllowFieldTruncationHeader(true);
+        return pConn;
     }
 
-    private void createBulkConnection() throws AsyncApiException
+    private BulkConnection createBulkConnection() throws AsyncApiException
     {
-        // check if connection has already been created
-        if (getBulkConnection() != null)
-        {
-            // connection already created
-            return;
-        }
-
         // print the info we will use to build the connection
         Utils.log("SalesforceService::createBulkConnection() entered" + "\n\tSession ID:    " +
             Utils.getEnvOrThrow("JAVA_ENV") == "development" ? getSessionId() : "redacted" +
@@ -461,12 +492,11 @@ public final class SalesforceService
             bulkConfig.setCompression(false);
         }
 
-        setBulkConnection(new BulkConnection(bulkConfig));
+        return new BulkConnection(bulkConfig);
     }
 
     public PermissionSet getPermissionSet(String name) throws Exception
     {
-        createMetadataConnection();
         ReadResult readResult = getMetadataConnection().readMetadata("PermissionSet", new String[] { name });
         Metadata[] mdInfo = readResult.getRecords();
         return (PermissionSet) mdInfo[0];
@@ -549,9 +579,6 @@ public final class SalesforceService
         // check if the metadata queue is empty
         if (_metadata != null && !_metadata.isEmpty())
         {
-            // ensure a metadata connection has been initialized
-            createMetadataConnection();
-
             // declare the variable that will hold each batch of metadata
             List<Metadata> batch = new ArrayList<>();
 
@@ -692,9 +719,6 @@ public final class SalesforceService
     {
         DeployResponse dr = new DeployResponse();
 
-        // ensure the partner connection has been initialized
-        createPartnerConnection();
-
         // check if the SObject queue is empty
         if (sobjects == null || sobjects.isEmpty())
         {
@@ -704,19 +728,15 @@ public final class SalesforceService
         {
             Utils.log(String.format("Inserting %d records.", sobjects.size()));
 
-            // check if we want AllOrNone header
-            if (allOrNone)
+            // insert the records, on the connection with the AllOrNone header if we want it
+            com.sforce.soap.partner.SaveResult[] SRs;
+            try
             {
-                _pConn.setAllOrNoneHeader(true);
+                SRs = getPartnerConnection(allOrNone).create(sobjects.toArray(new SObject[] {}));
             }
-
-            // insert the records
-            com.sforce.soap.partner.SaveResult[] SRs = _pConn.create(sobjects.toArray(new SObject[] {}));
-
-            // reset AllOrNone header
-            if (allOrNone)
+            catch (ConnectionException e)
             {
-                _pConn.setAllOrNoneHeader(false);
+                throw evictOnInvalidSession(e);
             }
 
             // check if we want to return the save results
@@ -742,9 +762,6 @@ public final class SalesforceService
     {
         DeployResponse dr = new DeployResponse();
 
-        // ensure the partner connection has been initialized
-        createPartnerConnection();
-
         // check if the SObject queue is empty
         if (sobjects == null || sobjects.isEmpty())
         {
@@ -755,8 +772,15 @@ public final class SalesforceService
             Utils.log(String.format("Upserting %d records with Id field [%s].", +sobjects.size(), IdField));
 
             // upsert the records
-            com.sforce.soap.partner.UpsertResult[] URs = _pConn.upsert(IdField,
-                sobjects.toArray(new SObject[] {}));
+            com.sforce.soap.partner.UpsertResult[] URs;
+            try
+            {
+                URs = getPartnerConnection().upsert(IdField, sobjects.toArray(new SObject[] {}));
+            }
+            catch (ConnectionException e)
+            {
+                throw evictOnInvalidSession(e);
+            }
 
             // process the results and log errors
             dr = SalesforceService.handleUpsertResponse(dr, URs);
@@ -767,48 +791,249 @@ public final class SalesforceService
     // Bulk API example code:
     // https://developer.salesforce.com/docs/atlas.en-us.api_asynch.meta/api_asynch/asynch_api_code_walkthrough.htm
 
+    /**
+     * Returns true if bulk jobs are created in parallel concurrency mode, the batchers then group child records by
+     * their parent so batches that run at the same time don't lock the same parent rows.
+     */
+    public static boolean isBulkParallel()
+    {
+        return "true".equalsIgnoreCase(getenv(SALESFORCE_BULK_PARALLEL)) || "1".equals(getenv(SALESFORCE_BULK_PARALLEL));
+    }
+
     public String createBulkJob(String sobjectType, String upsertField,
         OperationEnum op) throws AsyncApiException
     {
-        Utils.log("[BULK] Creating Bulk Job:" + "\n\tObject:       [" + sobjectType + "]" + "\n\tUnique Field: ["
-            + upsertField + "]" + "\n\tOperation:    [" + op + "]");
+        return createBulkJob(sobjectType, upsertField, op, ContentType.JSON);
+    }
 
-        // create a connection
-        createBulkConnection();
+    public String createBulkJob(String sobjectType, String upsertField,
+        OperationEnum op, ContentType contentType) throws AsyncApiException
+    {
+        // record batches go to a Bulk API 2.0 ingest job instead when enabled, binary (zip) batches need Bulk API 1.0
+        if (contentType == ContentType.JSON && BulkV2Loader.isEnabled())
+        {
+            Utils.log("[BULK] Creating Bulk API 2.0 Job:" + "\n\tObject:       [" + sobjectType + "]"
+                + "\n\tUnique Field: [" + upsertField + "]" + "\n\tOperation:    [" + op + "]");
+            return getBulkV2Loader().createJob(sobjectType, upsertField, op);
+        }
+
+        ConcurrencyMode concurrencyMode = (isBulkParallel() && !SERIAL_OBJECTS.contains(sobjectType)
+            ? ConcurrencyMode.Parallel : ConcurrencyMode.Serial);
+
+        Utils.log("[BULK] Creating Bulk Job:" + "\n\tObject:       [" + sobjectType + "]" + "\n\tUnique Field: ["
+            + upsertField + "]" + "\n\tOperation:    [" + op + "]" + "\n\tConcurrency:  [" + concurrencyMode + "]");
 
         // create batch job
         JobInfo job = new JobInfo();
         job.setObject(sobjectType);
         job.setOperation(op);
-        job.setConcurrencyMode(ConcurrencyMode.Serial);
+        job.setConcurrencyMode(concurrencyMode);
         // JSON available in Spring '16
-        job.setContentType(ContentType.JSON);
+        job.setContentType(contentType);
         if (upsertField != null)
         {
             job.setExternalIdFieldName(upsertField);
         }
 
         // create the job
-        job = _bConn.createJob(job);
+        try
+        {
+            job = getBulkConnection().createJob(job);
+        }
+        catch (AsyncApiException e)
+        {
+            throw evictOnInvalidSession(e);
+        }
 
         Utils.log("Job created: " + job.getId());
         return job.getId();
     }
 
-    public void addBatchToJob(String jobId, List<Map<String, Object>> records)
-        throws UnsupportedEncodingException, AsyncApiException
+    public void addBatchToJob(String jobId, List<Map<String, Object>> records) throws AsyncApiException
     {
         Utils.log("[BULK] Adding [" + records.size() + "] records to job [" + jobId + "].");
 
-        // convert the records into a byte stream
-        ByteArrayInputStream jsonStream = new ByteArrayInputStream(JsonUtil.toJson(records).getBytes("UTF-8"));
+        if (BulkV2Loader.isIngestJob(jobId))
+        {
+            getBulkV2Loader().addRecords(jobId, records);
+            return;
+        }
+
+        // serialize the records straight into a reusable buffer and submit the batch from it
+        BatchBuffer buffer = BatchBuffer.get();
+        try
+        {
+            JsonUtil.toJson(records, buffer);
+        }
+        catch (RuntimeException e)
+        {
+            buffer.release();
+            throw e;
+        }
+        addBatchToJob(jobId, buffer, records.size(), BulkReconciler.getKeys(records));
+    }
 
+    /**
+     * Returns a packer that adds records to the job in batches filled up to the Bulk API limits.
+     *
+     * @param jobId
+     *            The job id.
+     * @param parentField
+     *            The relationship field whose records are kept in the same batch (see SalesforceUtil.groupByParent()),
+     *            or null.
+     * @return The packer, flush() it before closing the job.
+     */
+    public BatchPacker newBatchPacker(String jobId, String parentField)
+    {
+        return new BatchPacker(this, jobId, parentField);
+    }
+
+    /*
+     * Submits a serialized JSON batch, the buffer is released once it is sent. The Desk ids of the rows are kept for
+     * the reconciliation of the job results.
+     */
+    void addBatchToJob(String jobId, BatchBuffer buffer, int records, long[] keys) throws AsyncApiException
+    {
         JobInfo job = new JobInfo();
         job.setId(jobId);
         job.setContentType(ContentType.JSON);
 
-        // submit a batch to the job
-        _bConn.createBatchFromStream(job, jsonStream);
+        // the records are serialized, the caller is free to reuse its list while the upload stage sends the batch
+        if (BulkUploadStage.isEnabled())
+        {
+            BulkUploadStage.submit(getBulkConnection(), job, buffer, records, keys);
+            return;
+        }
+
+        try
+        {
+            BatchInfo batch = getBulkConnection().createBatchFromStream(job, buffer.getInputStream());
+            BulkReconciler.register(jobId, batch.getId(), keys);
+        }
+        catch (AsyncApiException e)
+        {
+            // the rows never reached Salesforce, they are recorded for a retry with the job results
+            BulkReconciler.registerFailed(jobId, keys, e.getMessage());
+            throw evictOnInvalidSession(e);
+        }
+        finally
+        {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Adds a binary attachment batch to a ZIP_JSON job, the zip is streamed from disk.
+     */
+    public void addZipBatchToJob(String jobId, File zip) throws IOException, AsyncApiException
+    {
+        Utils.log("[BULK] Adding [" + zip.length() + "] byte zip batch to job [" + jobId + "].");
+
+        JobInfo job = new JobInfo();
+        job.setId(jobId);
+        job.setContentType(ContentType.ZIP_JSON);
+
+        try (InputStream zipStream = new BufferedInputStream(new FileInputStream(zip)))
+        {
+            getBulkConnection().createBatchFromZipStream(job, zipStream);
+        }
+        catch (AsyncApiException e)
+        {
+            throw evictOnInvalidSession(e);
+        }
+    }
+
+    /**
+     * Inserts a ContentVersion through a multipart REST request. The file is copied from the input stream through a
+     * fixed size buffer, so its size is not limited by the heap.
+     *
+     * @param entity
+     *            The ContentVersion fields.
+     * @param fileName
+     *            The file name.
+     * @param body
+     *            The file contents.
+     * @param length
+     *            The length of the file, -1 if unknown.
+     * @return The ContentVersion id.
+     * @throws UnexpectedErrorFault
+     *             With INVALID_SESSION_ID when Salesforce rejected the session, its cached connections are dropped.
+     */
+    public String uploadContentVersion(Map<String, Object> entity, String fileName, InputStream body, long length)
+        throws IOException, UnexpectedErrorFault
+    {
+        String boundary = "scmt-" + UUID.randomUUID();
+        byte[] head = ("--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"entity_content\"\r\n"
+            + "Content-Type: application/json\r\n\r\n"
+            + JsonUtil.toJson(entity) + "\r\n"
+            + "--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"VersionData\"; filename=\""
+            + (fileName == null ? "file" : fileName.replaceAll("[\"\r\n]", "_")) + "\"\r\n"
+            + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(getRestEndpoint() + "/sobjects/ContentVersion")
+            .openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setRequestProperty("Authorization", "Bearer " + getSessionId());
+        conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+
+        // never let the connection buffer the request body
+        if (length >= 0)
+        {
+            conn.setFixedLengthStreamingMode(head.length + length + tail.length);
+        }
+        else
+        {
+            conn.setChunkedStreamingMode(STREAM_BUFFER_SIZE);
+        }
+
+        try (OutputStream out = conn.getOutputStream())
+        {
+            out.write(head);
+            byte[] buf = new byte[STREAM_BUFFER_SIZE];
+            int size;
+            while ((size = body.read(buf)) != -1)
+            {
+                out.write(buf, 0, size);
+            }
+            out.write(tail);
+        }
+
+        int code = conn.getResponseCode();
+        String response;
+        try (InputStream in = (code < 300 ? conn.getInputStream() : conn.getErrorStream()))
+        {
+            response = (in == null ? "" : new String(readAll(in), StandardCharsets.UTF_8));
+        }
+
+        if (code == HttpURLConnection.HTTP_UNAUTHORIZED || response.contains("INVALID_SESSION_ID"))
+        {
+            // surface it like the SOAP calls do, so the callers that stop on an invalid session stop here as well
+            UnexpectedErrorFault fault = new UnexpectedErrorFault();
+            fault.setExceptionCode(ExceptionCode.INVALID_SESSION_ID);
+            fault.setExceptionMessage(String.format("ContentVersion upload failed (%d): %s", code, response));
+            throw evictOnInvalidSession(fault);
+        }
+        if (code != HttpURLConnection.HTTP_CREATED)
+        {
+            throw new IOException(String.format("ContentVersion upload failed (%d): %s", code, response));
+        }
+        return new JsonParser().parse(response).getAsJsonObject().get("id").getAsString();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int size;
+        while ((size = in.read(buf)) != -1)
+        {
+            out.write(buf, 0, size);
+        }
+        return out.toByteArray();
     }
 
     public void closeBulkJob(String jobId, String migrationId) throws AsyncApiException
@@ -820,6 +1045,32 @@ public final class SalesforceService
     {
         Utils.log("[BULK] Closing Bulk Job: [" + jobId + "]");
 
+        if (BulkV2Loader.isIngestJob(jobId))
+        {
+            // the ingest jobs of the load are processed and counted separately
+            List<String> ingestJobIds = getBulkV2Loader().close(jobId);
+            BulkReconciler.shareResubmitted(jobId, ingestJobIds);
+            for (String ingestJobId : ingestJobIds)
+            {
+                createClosedWorker(ingestJobId, migrationId, soType);
+            }
+            return;
+        }
+
+        // the batches still being uploaded have to be in before the job is closed, the job is closed with the batches
+        // that made it and the rows of the failed ones are counted as failed on the migration
+        DeployResponse failedUploads = BulkUploadStage.await(jobId);
+        if (failedUploads != null)
+        {
+            Utils.log("[BULK] Closing job [" + jobId + "] after [" + failedUploads.getErrorCount()
+                + "] records failed to upload");
+            DeskMigrationStatus status = DeskMigrationStatus.forMigration(migrationId);
+            if (status != null)
+            {
+                status.addDeployResponse(this, failedUploads);
+            }
+        }
+
         JobInfo job = new JobInfo();
         job.setId(jobId);
         job.setState(JobStateEnum.Closed);
@@ -827,61 +1078,93 @@ public final class SalesforceService
         // _bConn.updateJob(job, ContentType.JSON);
 
         // unclear if I can use this
-        _bConn.closeJob(jobId);
+        try
+        {
+            getBulkConnection().closeJob(jobId);
+        }
+        catch (AsyncApiException e)
+        {
+            throw evictOnInvalidSession(e);
+        }
         createClosedWorker(jobId, migrationId, soType);
     }
 
     /**
-     * 
+     * Hands a closed job to the process wide completion poller, the ClosedWorker updates the migration once the job
+     * has completed.
      */
     public void createClosedWorker(String jobId, String migrationId, String soType)
     {
-        Thread t = new Thread(new ClosedWorker(jobId, migrationId, getServerUrl(), getSessionId(), soType));
-        t.start();
+        BulkJobPoller.watch(getServerUrl(), getSessionId(), jobId, new ClosedWorker(jobId, migrationId, soType));
     }
 
     public JobInfo awaitCompletion(String jobId) throws AsyncApiException {
-        createBulkConnection();
-        BatchInfoList batchList = getBulkConnection().getBatchInfoList(jobId, ContentType.JSON);
-
-        long sleepTime = 0L;
-        Set<String> incomplete = new HashSet<String>();
-
-        for (BatchInfo bi : batchList.getBatchInfo()) {
-            incomplete.add(bi.getId());
-        }
-
-        while (!incomplete.isEmpty()) {
+        JobInfo job;
+        while ((job = pollCompletion(jobId)) == null) {
             try {
-                Thread.sleep(sleepTime);
-            } catch(InterruptedException e) {}
-            Utils.log("Awaiting results ... [" + incomplete.size() + "]");
-            sleepTime = 10000L;
-            BatchInfo[] statusList = getBulkConnection().getBatchInfoList(jobId, ContentType.JSON).getBatchInfo();
-            for (BatchInfo b : statusList) {
-                if (b.getState() == BatchStateEnum.Completed || b.getState() == BatchStateEnum.Failed) {
-                    if (incomplete.remove(b.getId())) {
-                        Utils.log("BATCH STATUS: " + b);
-                    }
-                }
+                Thread.sleep(10000L);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AsyncApiException("Interrupted waiting for job [" + jobId + "]",
+                    AsyncExceptionCode.ClientInputError);
             }
         }
+        return job;
+    }
 
-        return getBulkConnection().getJobStatus(jobId, ContentType.JSON);
+    /**
+     * Checks once whether a closed job has completed, from the job counters rather than its batch list.
+     *
+     * @return The job status once all its batches are completed or failed, null while batches are still queued or in
+     *         progress.
+     */
+    public JobInfo pollCompletion(String jobId) throws AsyncApiException {
+        if (BulkV2Loader.isIngestJob(jobId)) {
+            return getBulkV2Loader().pollCompletion(jobId);
+        }
+
+        JobInfo job;
+        try {
+            job = getBulkConnection().getJobStatus(jobId, ContentType.JSON);
+        } catch(AsyncApiException e) {
+            throw evictOnInvalidSession(e);
+        }
+        int pending = job.getNumberBatchesQueued() + job.getNumberBatchesInProgress();
+        if (pending > 0) {
+            Utils.log("Awaiting results ... [" + jobId + "] [" + pending + "]");
+            return null;
+        }
+        return job;
     }
 
-    public void updateMigration(String migrationId, int failed, int processed)
-        throws ConnectionException, DeployException, AsyncApiException {
-        createPartnerConnection();
+    /**
+     * Returns the batches of a Bulk API 1.0 job.
+     */
+    public BatchInfo[] getBatchInfos(String jobId) throws AsyncApiException
+    {
+        try
+        {
+            return getBulkConnection().getBatchInfoList(jobId, ContentType.JSON).getBatchInfo();
+        }
+        catch (AsyncApiException e)
+        {
+            throw evictOnInvalidSession(e);
+        }
+    }
 
-        SObject migration = new SObject(SalesforceConstants.OBJ_DESK_MIGRATION);
-        migration.setId(migrationId);
-        migration.setField(SalesforceConstants.DeskMigrationFields.RecordsFailed, failed);
-        migration.setField(SalesforceConstants.DeskMigrationFields.RecordsTotal, processed);
-        migration.setField(SalesforceConstants.DeskMigrationFields.RecordsMigrated, processed - failed);
-        
-        @SuppressWarnings("unused")
-        DeployResponse dr = upsertData(SalesforceConstants.DeskMigrationFields.ID, Collections.singletonList(migration));
+    /**
+     * Returns the result set of a Bulk API 1.0 batch, one result per row in the order of the batch rows.
+     */
+    public InputStream getBatchResultStream(String jobId, String batchId) throws AsyncApiException
+    {
+        try
+        {
+            return getBulkConnection().getBatchResultStream(jobId, batchId);
+        }
+        catch (AsyncApiException e)
+        {
+            throw evictOnInvalidSession(e);
+        }
     }
 
     /*
@@ -889,7 +1172,20 @@ public final class SalesforceService
      */
     public boolean createNewJob(String jobId) throws AsyncApiException
     {
-        JobInfo job = _bConn.getJobStatus(jobId, ContentType.JSON);
+        if (BulkV2Loader.isIngestJob(jobId))
+        {
+            return getBulkV2Loader().isExpired(jobId);
+        }
+
+        JobInfo job;
+        try
+        {
+            job = getBulkConnection().getJobStatus(jobId, ContentType.JSON);
+        }
+        catch (AsyncApiException e)
+        {
+            throw evictOnInvalidSession(e);
+        }
         Utils.log("[BULK] Getting Bulk Job Status: [" + jobId + "]");
         Calendar cal = job.getCreatedDate();
 
@@ -907,17 +1203,12 @@ public final class SalesforceService
         throws ConnectionException, UnexpectedErrorFault
     {
         Utils.log("[QUERY] " + query);
-        // create connection
-        createPartnerConnection();
-
-        // initialize results list
-        List<SObject> results = new ArrayList<SObject>();
 
         // run the query
-        QueryResult qr = _pConn.query(query);
+        QueryResult qr = queryFirst(query);
 
-        // put the results into my return list
-        results = Arrays.asList(qr.getRecords());
+        // put the results into my return list, copied since queryMore() appends to it
+        List<SObject> results = new ArrayList<SObject>(Arrays.asList(qr.getRecords()));
 
         // check if the query is done
         while (queryMore && !qr.isDone())
@@ -925,7 +1216,7 @@ public final class SalesforceService
             Utils.log("[QUERY] Calling 'queryMore()' to retrieve more results...");
 
             // call 'queryMore' to retrieve more results
-            qr = _pConn.queryMore(qr.getQueryLocator());
+            qr = queryMore(qr.getQueryLocator());
 
             // add results to list
             results.addAll(Arrays.asList(qr.getRecords()));
@@ -937,16 +1228,62 @@ public final class SalesforceService
         return results;
     }
 
+    /**
+     * Runs a query and returns a cursor over its records, the pages after the first are fetched as the cursor is
+     * consumed so the caller holds one page at a time instead of the whole result.
+     *
+     * @param query
+     *            The SOQL query.
+     * @param prefetch
+     *            True to request the next page in the background while the current one is being consumed.
+     * @return The cursor over the records of the query.
+     */
+    public QueryCursor queryCursor(String query, boolean prefetch) throws ConnectionException
+    {
+        Utils.log("[QUERY] " + query);
+        QueryCursor cursor = new QueryCursor(this, queryFirst(query), prefetch);
+        Utils.log(String.format("[QUERY] Query matched [%d] records.", cursor.getSize()));
+        return cursor;
+    }
+
+    /*
+     * Returns the next page of a query, the session is evicted from the connection cache when it was rejected.
+     */
+    QueryResult queryMore(String locator) throws ConnectionException
+    {
+        try
+        {
+            return getPartnerConnection().queryMore(locator);
+        }
+        catch (ConnectionException e)
+        {
+            throw evictOnInvalidSession(e);
+        }
+    }
+
+    private QueryResult queryFirst(String query) throws ConnectionException
+    {
+        try
+        {
+            return getPartnerConnection().query(query);
+        }
+        catch (ConnectionException e)
+        {
+            throw evictOnInvalidSession(e);
+        }
+    }
+
     public static String createRemoteSite(Request req, Response res) throws Exception {
         String salesforceUrl = req.headers("Salesforce-Url");
         String salesforceSessionId = req.headers("Salesforce-Session-Id");
+        SalesforceService sf = new SalesforceService(salesforceUrl, salesforceSessionId);
         
         try {
             RemoteSite rs = new Gson().fromJson(req.body(), RemoteSite.class);
-            SalesforceService sf = new SalesforceService(salesforceUrl, salesforceSessionId);
             sf.createRemoteSite(rs);
         } catch(com.sforce.ws.SoapFaultException e) {
             if (e.getMessage().contains("INVALID_SESSION_ID")) {
+                sf.evictOnInvalidSession(e);
                 res.status(401);
                 return "Unauthorized";
             }
@@ -967,12 +1304,13 @@ public final class SalesforceService
         String salesforceUrl = req.headers("Salesforce-Url");
         String salesforceSessionId = req.headers("Salesforce-Session-Id");
         Utils.log("inside deleteRemoteSite");
+        SalesforceService sf = new SalesforceService(salesforceUrl, salesforceSessionId);
         try {
             RemoteSite rs = new Gson().fromJson(req.body(), RemoteSite.class);
-            SalesforceService sf = new SalesforceService(salesforceUrl, salesforceSessionId);
             sf.deleteRemoteSite(rs);
         } catch(com.sforce.ws.SoapFaultException e) {
             if (e.getMessage().contains("INVALID_SESSION_ID")) {
+                sf.evictOnInvalidSession(e);
                 res.status(401);
                 return "Unauthorized";
             }
@@ -990,9 +1328,9 @@ public final class SalesforceService
     public static String updateFieldPermissions(Request req, Response res) throws Exception {
         String salesforceUrl = req.headers("Salesforce-Url");
         String salesforceSessionId = req.headers("Salesforce-Session-Id");
+        SalesforceService sf = new SalesforceService(salesforceUrl, salesforceSessionId);
 
         try {
-            SalesforceService sf = new SalesforceService(salesforceUrl, salesforceSessionId);
             if (req.body().startsWith("[")) {
                 List<String> fields = new Gson().fromJson(req.body(), ArrayList.class);
                 sf.updateFieldPermissions("Admin", fields);
@@ -1002,6 +1340,7 @@ public final class SalesforceService
             }
         } catch(com.sforce.ws.SoapFaultException e) {
             if (e.getMessage().contains("INVALID_SESSION_ID")) {
+                sf.evictOnInvalidSession(e);
                 res.status(401);
                 return "Unauthorized";
             }
@@ -1013,13 +1352,14 @@ public final class SalesforceService
     public static String createDataCategoryGroup(Request req, Response res) throws Exception {
         String salesforceUrl = req.headers("Salesforce-Url");
         String salesforceSessionId = req.headers("Salesforce-Session-Id");
+        SalesforceService sf = new SalesforceService(salesforceUrl, salesforceSessionId);
 
         try {
             DataCategoryGroupJson dcg = new Gson().fromJson(req.body(), DataCategoryGroupJson.class);
-            SalesforceService sf = new SalesforceService(salesforceUrl, salesforceSessionId);
             sf.createDataCategoryGroup(dcg);
         } catch(com.sforce.ws.SoapFaultException e) {
             if (e.getMessage().contains("INVALID_SESSION_ID")) {
+                sf.evictOnInvalidSession(e);
                 res.status(401);
                 return "Unauthorized";
             }
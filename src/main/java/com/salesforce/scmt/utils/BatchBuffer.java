@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Growable byte buffer a bulk batch is serialized into. Released buffers are kept for the next batch, so a batch is
+ * written once as UTF-8 and handed to the Bulk API straight from the buffer, without a String or a byte array copy.
+ */
+public final class BatchBuffer extends ByteArrayOutputStream
+{
+    // initial capacity, grows as needed
+    private static final int INITIAL_SIZE = 1024 * 1024;
+
+    // buffers that grew past this are dropped after use instead of being kept, the Bulk API limits a batch to 10MB so
+    // this is only exceeded by a batch that is going to be rejected anyway
+    private static final int MAX_RETAINED_SIZE = 16 * 1024 * 1024;
+
+    // total capacity of the released buffers kept, enough for the batches being serialized and uploaded at once
+    // without pinning a full sized buffer per batch the process has ever had in flight
+    private static final long MAX_POOLED_BYTES = 32L * 1024 * 1024;
+
+    private static final Queue<BatchBuffer> _pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicLong _pooledBytes = new AtomicLong();
+
+    private BatchBuffer()
+    {
+        super(INITIAL_SIZE);
+    }
+
+    /**
+     * Returns an empty buffer, call release() when the batch has been sent.
+     *
+     * @return The buffer.
+     */
+    public static BatchBuffer get()
+    {
+        BatchBuffer buffer = _pool.poll();
+        if (buffer == null)
+        {
+            return new BatchBuffer();
+        }
+        _pooledBytes.addAndGet(-buffer.buf.length);
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * Returns a stream over the bytes written so far, the bytes are not copied.
+     *
+     * @return The stream.
+     */
+    public InputStream getInputStream()
+    {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    /**
+     * Drops the bytes written after the given size.
+     *
+     * @param size
+     *            The number of bytes to keep.
+     */
+    public void truncate(int size)
+    {
+        count = Math.min(count, Math.max(0, size));
+    }
+
+    /**
+     * Appends the bytes written from the offset on to another buffer.
+     *
+     * @param target
+     *            The buffer to append to.
+     * @param offset
+     *            The offset of the first byte to copy.
+     */
+    public void copyTo(ByteArrayOutputStream target, int offset)
+    {
+        target.write(buf, offset, count - offset);
+    }
+
+    /**
+     * Empties the buffer and keeps it for the next batch, unless it grew too large to keep around.
+     */
+    public void release()
+    {
+        reset();
+        if (buf.length > MAX_RETAINED_SIZE)
+        {
+            return;
+        }
+
+        // reserve the capacity first, so concurrent releases can't take the pool past its cap
+        long pooled = _pooledBytes.addAndGet(buf.length);
+        if (pooled > MAX_POOLED_BYTES)
+        {
+            _pooledBytes.addAndGet(-buf.length);
+            return;
+        }
+        _pool.offer(this);
+    }
+}
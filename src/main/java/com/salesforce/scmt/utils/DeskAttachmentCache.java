@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.utils;
+
+import static java.lang.System.getenv;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content addressed, local disk cache of downloaded attachment bodies. Bodies are stored once per content key (size
+ * plus the SHA-256 computed while the body is streamed), and the S3 ETag of every download is remembered, so when the
+ * same payload is attached to another case its S3 response is recognised from the headers and the body is served from
+ * disk instead of being downloaded again. The least recently used bodies are evicted once the cache is over its size.
+ *
+ * The cache is enabled by setting DESK_ATTACHMENT_CACHE_DIR to a writable directory, the bodies are kept in a
+ * subdirectory the cache owns. Its size in bytes is set with DESK_ATTACHMENT_CACHE_SIZE.
+ */
+public final class DeskAttachmentCache
+{
+    private static final String DESK_ATTACHMENT_CACHE_DIR = "DESK_ATTACHMENT_CACHE_DIR";
+    private static final String DESK_ATTACHMENT_CACHE_SIZE = "DESK_ATTACHMENT_CACHE_SIZE";
+    private static final long DEFAULT_SIZE = 1024L * 1024 * 1024;
+    private static final String CACHE_SUBDIR = "scmt-attachment-cache";
+
+    private static DeskAttachmentCache _instance;
+    private static boolean _initialized = false;
+
+    private final File _dir;
+    private final long _maxBytes;
+    private long _bytes = 0;
+
+    // body size by content key, in access order for the LRU eviction
+    private final LinkedHashMap<String, Long> _entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // content key by "size:etag", and the "size:etag" of every content key so an evicted body drops its etags
+    private final Map<String, String> _etags = new HashMap<>();
+    private final Map<String, Set<String>> _keyEtags = new HashMap<>();
+
+    private DeskAttachmentCache(File dir, long maxBytes) throws IOException
+    {
+        _dir = new File(dir, CACHE_SUBDIR);
+        _maxBytes = maxBytes;
+
+        // the etags are only known in memory, so bodies left by an earlier process can't be found again
+        if (_dir.isDirectory())
+        {
+            for (File f : _dir.listFiles())
+            {
+                if (f.isFile())
+                {
+                    f.delete();
+                }
+            }
+        }
+        else if (!_dir.mkdirs())
+        {
+            throw new IOException("Unable to create attachment cache directory: " + _dir.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Returns the process wide cache.
+     *
+     * @return The cache, or null if it is not enabled.
+     */
+    public static synchronized DeskAttachmentCache getInstance()
+    {
+        if (!_initialized)
+        {
+            _initialized = true;
+            String dir = getenv(DESK_ATTACHMENT_CACHE_DIR);
+            if (dir != null && !dir.isEmpty())
+            {
+                try
+                {
+                    _instance = new DeskAttachmentCache(new File(dir), getSize());
+                    Utils.log(String.format("[CACHE] Attachment cache at [%s], max [%d] bytes",
+                        _instance._dir.getAbsolutePath(), _instance._maxBytes));
+                }
+                catch (IOException e)
+                {
+                    Utils.logException(e);
+                }
+            }
+        }
+        return _instance;
+    }
+
+    /**
+     * Returns a digest for computing the content key while the body is streamed.
+     */
+    public static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every JRE is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the cached body of an S3 object.
+     *
+     * @param size
+     *            The Content-Length of the S3 response.
+     * @param etag
+     *            The ETag of the S3 response.
+     * @return The body, or null if it is not cached.
+     */
+    public byte[] get(long size, String etag)
+    {
+        if (etag == null || size < 0)
+        {
+            return null;
+        }
+
+        String key;
+        synchronized (this)
+        {
+            key = _etags.get(size + ":" + etag);
+            if (key == null || _entries.get(key) == null)
+            {
+                return null;
+            }
+        }
+
+        // read outside the lock, a body evicted in the meantime is just a miss
+        try
+        {
+            return Files.readAllBytes(file(key).toPath());
+        }
+        catch (IOException e)
+        {
+            Utils.logException(e);
+            delete(remove(key));
+            return null;
+        }
+    }
+
+    /**
+     * Stores a downloaded body.
+     *
+     * @param etag
+     *            The ETag of the S3 response, may be null.
+     * @param digest
+     *            The digest the body was streamed through.
+     * @param body
+     *            The body.
+     */
+    public void put(String etag, MessageDigest digest, byte[] body)
+    {
+        String key = body.length + "-" + toHex(digest.digest());
+
+        synchronized (this)
+        {
+            // larger than the whole cache, not worth evicting everything for
+            if (!_entries.containsKey(key) && body.length > _maxBytes)
+            {
+                return;
+            }
+        }
+
+        if (!contains(key))
+        {
+            // write outside the lock, concurrent writers of the same body each use their own temp file
+            try
+            {
+                File tmp = File.createTempFile(key, ".tmp", _dir);
+                Files.write(tmp.toPath(), body);
+                Files.move(tmp.toPath(), file(key).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e)
+            {
+                Utils.logException(e);
+                return;
+            }
+        }
+
+        List<String> evicted;
+        synchronized (this)
+        {
+            if (!_entries.containsKey(key))
+            {
+                _entries.put(key, (long) body.length);
+                _bytes += body.length;
+            }
+            if (etag != null)
+            {
+                putEtag(body.length + ":" + etag, key);
+            }
+            evicted = evict();
+        }
+        delete(evicted);
+    }
+
+    private synchronized boolean contains(String key)
+    {
+        return _entries.containsKey(key);
+    }
+
+    /*
+     * Drops the least recently used entries until the cache is within its size, returns their keys so the files can
+     * be deleted outside the lock.
+     */
+    private List<String> evict()
+    {
+        List<String> evicted = new ArrayList<>();
+
+        // iterate the entries, a get() on an access ordered map would change the order under the iterator
+        Iterator<Map.Entry<String, Long>> it = _entries.entrySet().iterator();
+        while (_bytes > _maxBytes && it.hasNext())
+        {
+            Map.Entry<String, Long> entry = it.next();
+            String key = entry.getKey();
+            _bytes -= entry.getValue();
+            it.remove();
+            removeEtags(key);
+            evicted.add(key);
+        }
+        return evicted;
+    }
+
+    private synchronized List<String> remove(String key)
+    {
+        Long size = _entries.remove(key);
+        if (size == null)
+        {
+            return Collections.emptyList();
+        }
+        _bytes -= size;
+        removeEtags(key);
+        return Collections.singletonList(key);
+    }
+
+    private void putEtag(String etag, String key)
+    {
+        String prev = _etags.put(etag, key);
+        if (prev != null && !prev.equals(key))
+        {
+            // the etag now names another body
+            Set<String> prevEtags = _keyEtags.get(prev);
+            prevEtags.remove(etag);
+            if (prevEtags.isEmpty())
+            {
+                _keyEtags.remove(prev);
+            }
+        }
+        _keyEtags.computeIfAbsent(key, k -> new HashSet<>()).add(etag);
+    }
+
+    private void removeEtags(String key)
+    {
+        Set<String> etags = _keyEtags.remove(key);
+        if (etags != null)
+        {
+            for (String etag : etags)
+            {
+                _etags.remove(etag);
+            }
+        }
+    }
+
+    private void delete(List<String> keys)
+    {
+        for (String key : keys)
+        {
+            // a body stored again after it was evicted is lost here, which is only a later cache miss
+            if (!contains(key))
+            {
+                file(key).delete();
+            }
+        }
+    }
+
+    private File file(String key)
+    {
+        return new File(_dir, key);
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+        {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static long getSize()
+    {
+        try
+        {
+            return (getenv(DESK_ATTACHMENT_CACHE_SIZE) == null ? DEFAULT_SIZE
+                : Long.parseLong(getenv(DESK_ATTACHMENT_CACHE_SIZE)));
+        }
+        catch (NumberFormatException e)
+        {
+            Utils.log(String.format("Invalid value for [%s], defaulting to %d", DESK_ATTACHMENT_CACHE_SIZE,
+                DEFAULT_SIZE));
+            return DEFAULT_SIZE;
+        }
+    }
+}
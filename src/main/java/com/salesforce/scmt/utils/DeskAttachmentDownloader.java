@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.utils;
+
+import static java.lang.System.getenv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.desk.java.apiclient.model.Attachment;
+
+/**
+ * Process wide pipeline for downloading Desk.com attachments. A configurable number of downloads (the 302 resolution
+ * on Desk.com and the GET on S3) run concurrently, and the memory held by downloaded attachments is bounded by a byte
+ * budget rather than a file count.
+ */
+public final class DeskAttachmentDownloader
+{
+    // environment variable holding the number of concurrent attachment downloads
+    private static final String DESK_ATTACHMENT_DOWNLOADS = "DESK_ATTACHMENT_DOWNLOADS";
+    private static final int DEFAULT_DOWNLOADS = 4;
+
+    // environment variable holding the number of attachment bytes which may be held in memory at once
+    private static final String DESK_ATTACHMENT_MEMORY = "DESK_ATTACHMENT_MEMORY";
+    private static final long DEFAULT_MEMORY = 128L * 1024 * 1024;
+
+    private static final ExecutorService _pool = Executors.newFixedThreadPool(getDownloads(), r ->
+    {
+        Thread t = new Thread(r, "desk-attachment-download");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // the budget always fits the attachments of one case (the request size limit), guarded by the class
+    private static final long _budget = Math.max(getMemory(), SalesforceConstants.MAX_SIZE_REQUEST);
+    private static long _reserved = 0;
+
+    private DeskAttachmentDownloader()
+    {
+    }
+
+    /**
+     * Downloads the attachments concurrently. The size of all of them is reserved against the memory budget before the
+     * first download starts (waiting for other callers to release theirs). The size of each attachment stays reserved
+     * until the returned downloads are closed and its download has finished or was cancelled before it started.
+     *
+     * @param du
+     *            The Desk util used to sign and send the requests.
+     * @param attachments
+     *            The attachments to download.
+     * @return The downloads, in the order of the attachments.
+     * @throws InterruptedException
+     *             If interrupted while waiting for the memory budget.
+     */
+    public static Downloads download(DeskUtil du, List<Attachment> attachments) throws InterruptedException
+    {
+        long bytes = 0;
+        for (Attachment a : attachments)
+        {
+            bytes += Math.max(0, a.getSize());
+        }
+
+        reserve(bytes);
+        Downloads downloads = new Downloads();
+        for (Attachment a : attachments)
+        {
+            Download download = new Download(Math.max(0, a.getSize()));
+            download.body = _pool.submit(() ->
+            {
+                // a download cancelled before it started has already been released
+                if (download.started.getAndSet(true))
+                {
+                    return null;
+                }
+                try
+                {
+                    return du.getDeskAttachment(a.getCaseId(), a.getUrl());
+                }
+                finally
+                {
+                    download.release();
+                }
+            });
+            downloads.downloads.add(download);
+        }
+        return downloads;
+    }
+
+    /*
+     * Takes the bytes from the budget all at once, so callers never hold part of the budget while waiting for more. A
+     * reservation larger than the whole budget is admitted when nothing else is reserved.
+     */
+    private static synchronized void reserve(long bytes) throws InterruptedException
+    {
+        while (_reserved > 0 && _reserved + bytes > _budget)
+        {
+            DeskAttachmentDownloader.class.wait();
+        }
+        _reserved += bytes;
+    }
+
+    private static synchronized void release(long bytes)
+    {
+        _reserved = Math.max(0, _reserved - bytes);
+        DeskAttachmentDownloader.class.notifyAll();
+    }
+
+    private static int getDownloads()
+    {
+        try
+        {
+            return (getenv(DESK_ATTACHMENT_DOWNLOADS) == null ? DEFAULT_DOWNLOADS
+                : Math.max(1, Integer.parseInt(getenv(DESK_ATTACHMENT_DOWNLOADS))));
+        }
+        catch (NumberFormatException e)
+        {
+            Utils.log(String.format("Invalid value for [%s], defaulting to %d", DESK_ATTACHMENT_DOWNLOADS,
+                DEFAULT_DOWNLOADS));
+            return DEFAULT_DOWNLOADS;
+        }
+    }
+
+    private static long getMemory()
+    {
+        try
+        {
+            return (getenv(DESK_ATTACHMENT_MEMORY) == null ? DEFAULT_MEMORY
+                : Long.parseLong(getenv(DESK_ATTACHMENT_MEMORY)));
+        }
+        catch (NumberFormatException e)
+        {
+            Utils.log(String.format("Invalid value for [%s], defaulting to %d", DESK_ATTACHMENT_MEMORY, DEFAULT_MEMORY));
+            return DEFAULT_MEMORY;
+        }
+    }
+
+    /*
+     * The download of one attachment, its bytes go back to the budget once both the download and the caller are done
+     * with it.
+     */
+    private static final class Download
+    {
+        private final long bytes;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final AtomicInteger holds = new AtomicInteger(2);
+        private Future<byte[]> body;
+
+        private Download(long bytes)
+        {
+            this.bytes = bytes;
+        }
+
+        private void release()
+        {
+            if (holds.decrementAndGet() == 0)
+            {
+                DeskAttachmentDownloader.release(bytes);
+            }
+        }
+    }
+
+    /**
+     * The in-flight downloads of one set of attachments. Closing it cancels the downloads that have not finished, the
+     * reserved bytes of each one go back to the budget once it has stopped, so it should be closed once the attachment
+     * bodies are released.
+     */
+    public static final class Downloads implements AutoCloseable
+    {
+        private final List<Download> downloads = new ArrayList<>();
+        private boolean closed = false;
+
+        private Downloads()
+        {
+        }
+
+        /**
+         * Waits for the body of an attachment.
+         *
+         * @param index
+         *            The index of the attachment in the list passed to download().
+         * @return The attachment body, or null if Desk.com kept throttling the request.
+         * @throws Exception
+         *             The failure of the download.
+         */
+        public byte[] get(int index) throws Exception
+        {
+            try
+            {
+                return downloads.get(index).body.get();
+            }
+            catch (ExecutionException e)
+            {
+                throw (e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            if (!closed)
+            {
+                closed = true;
+                for (Download download : downloads)
+                {
+                    download.body.cancel(true);
+
+                    // one that never started won't release itself
+                    if (!download.started.getAndSet(true))
+                    {
+                        download.release();
+                    }
+                    download.release();
+                }
+            }
+        }
+    }
+}
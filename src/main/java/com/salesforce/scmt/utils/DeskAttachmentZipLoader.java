@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.utils;
+
+import static com.salesforce.scmt.utils.DeskJsonMapUtil.deskAttachmentToSalesforceJsonMap;
+import static java.lang.System.getenv;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.desk.java.apiclient.model.Attachment;
+import com.salesforce.scmt.model.DeployResponse;
+import com.sforce.async.ContentType;
+import com.sforce.async.OperationEnum;
+import com.sforce.soap.partner.fault.ExceptionCode;
+import com.sforce.soap.partner.fault.UnexpectedErrorFault;
+
+/**
+ * Loads case attachments through Bulk API binary attachment batches instead of synchronous SOAP inserts. The raw files
+ * are streamed into a zip on local disk next to a request.txt manifest which references them ("#path"), and every zip
+ * which reaches the batch limits is submitted to a ZIP_JSON bulk job. The bodies are neither base64 encoded nor held
+ * in memory once written. A file which can't fit a zip batch by itself goes into a ContentVersion instead.
+ *
+ * The loader is enabled by setting DESK_ATTACHMENT_BULK to true.
+ */
+public final class DeskAttachmentZipLoader implements AutoCloseable
+{
+    private static final String DESK_ATTACHMENT_BULK = "DESK_ATTACHMENT_BULK";
+
+    // Bulk API limits of a binary attachment batch, the zip size keeps room for the manifest
+    private static final long MAX_ZIP_BYTES = 10L * 1024 * 1024;
+    private static final long MAX_UNZIPPED_BYTES = 20L * 1024 * 1024;
+    private static final long MANIFEST_RESERVE_BYTES = 512L * 1024;
+    private static final int MAX_FILES = 1000;
+
+    // the largest file a batch takes, deflate never grows a file by much
+    private static final long MAX_FILE_BYTES = Math.min(MAX_ZIP_BYTES, MAX_UNZIPPED_BYTES) - MANIFEST_RESERVE_BYTES;
+
+    private static final String MANIFEST = "request.txt";
+
+    private final DeskUtil _du;
+    private String _jobId;
+
+    // the batch being written
+    private File _zip;
+    private FileOutputStream _fileOut;
+    private ZipOutputStream _out;
+    private List<Map<String, Object>> _manifest = new ArrayList<>();
+    private long _unzippedBytes = 0;
+
+    public DeskAttachmentZipLoader(DeskUtil du) throws Exception
+    {
+        _du = du;
+        _jobId = createJob();
+    }
+
+    public static boolean isEnabled()
+    {
+        return Boolean.parseBoolean(getenv(DESK_ATTACHMENT_BULK));
+    }
+
+    /**
+     * Downloads the attachments of a case and adds them to the batch being written, submitting it whenever it is full.
+     *
+     * @param attachments
+     *            The attachments of a case.
+     * @param dr
+     *            The deploy response.
+     * @return The error messages of the attachments which could not be added.
+     */
+    public List<String> add(List<Attachment> attachments, DeployResponse dr) throws Exception
+    {
+        List<String> errMessages = new ArrayList<>();
+
+        // large files, and the ones too large for a batch, go straight from S3 into ContentVersions
+        attachments = _du.streamLargeAttachments(attachments, dr, errMessages, MAX_FILE_BYTES);
+
+        // the bodies count against the download memory budget until they are written to the zip
+        try (DeskAttachmentDownloader.Downloads downloads = DeskAttachmentDownloader.download(_du, attachments))
+        {
+            for (int i = 0; i < attachments.size(); i++)
+            {
+                Attachment a = attachments.get(i);
+
+                byte[] body;
+                try
+                {
+                    body = downloads.get(i);
+                }
+                catch (Exception e)
+                {
+                    body = null;
+                    Utils.logException(e);
+                    errMessages.add(String.format("%s: %s", e.getClass().getName(), e.getMessage()));
+                }
+                if (body == null)
+                {
+                    dr.addError(String.format("[Case Id: %d] Unable to download attachment [%s]", a.getCaseId(),
+                        a.getFileName()));
+                    continue;
+                }
+
+                if (body.length > MAX_FILE_BYTES)
+                {
+                    // its listed size was smaller than the download
+                    uploadContentVersion(a, body, dr, errMessages);
+                    continue;
+                }
+
+                // submit the batch when this file might not fit
+                if (_out != null && (_manifest.size() + 1 >= MAX_FILES
+                    || _unzippedBytes + body.length > MAX_UNZIPPED_BYTES - MANIFEST_RESERVE_BYTES
+                    || _fileOut.getChannel().position() + body.length > MAX_ZIP_BYTES - MANIFEST_RESERVE_BYTES))
+                {
+                    submit();
+                }
+
+                write(a, body);
+            }
+        }
+
+        return errMessages;
+    }
+
+    /**
+     * Submits the last batch and closes the bulk job, the job is closed and the temporary zip deleted even if the
+     * batch can't be submitted.
+     */
+    @Override
+    public void close() throws Exception
+    {
+        try
+        {
+            if (_out != null)
+            {
+                submit();
+            }
+        }
+        finally
+        {
+            _du.getSalesforceService().closeBulkJob(_jobId, _du.getDeskService().getMigrationId(),
+                SalesforceConstants.OBJ_ATTACHMENT);
+        }
+    }
+
+    private void uploadContentVersion(Attachment a, byte[] body, DeployResponse dr, List<String> errMessages)
+        throws UnexpectedErrorFault
+    {
+        try
+        {
+            _du.uploadAttachmentToContentVersion(a, body);
+            dr.incrementSuccessCount();
+        }
+        catch (UnexpectedErrorFault e)
+        {
+            if (e.getExceptionCode() == ExceptionCode.INVALID_SESSION_ID)
+            {
+                throw e;
+            }
+            errMessages.add(String.format("[%d] (%s) %s", a.getCaseId(), e.getExceptionCode().name(),
+                e.getExceptionMessage()));
+        }
+        catch (Exception e)
+        {
+            String errMessage = String.format("%s: %s", e.getClass().getName(), e.getMessage());
+            errMessages.add(errMessage);
+            Utils.logException(e);
+            dr.addError(String.format("[Case Id: %d] %s", a.getCaseId(), errMessage));
+        }
+    }
+
+    private void write(Attachment a, byte[] body) throws IOException
+    {
+        if (_out == null)
+        {
+            _zip = File.createTempFile("desk-attachments-", ".zip");
+            try
+            {
+                _fileOut = new FileOutputStream(_zip);
+            }
+            catch (IOException e)
+            {
+                _zip.delete();
+                _zip = null;
+                throw e;
+            }
+            _out = new ZipOutputStream(_fileOut);
+        }
+
+        // unique within the zip, the file names of a case are not
+        String path = String.format("%d/%d_%s", a.getCaseId(), _manifest.size(),
+            (a.getFileName() == null ? "attachment" : a.getFileName().replaceAll("[^a-zA-Z0-9._-]", "_")));
+
+        _out.putNextEntry(new ZipEntry(path));
+        _out.write(body);
+        _out.closeEntry();
+
+        _manifest.add(deskAttachmentToSalesforceJsonMap(a, "#" + path));
+        _unzippedBytes += body.length;
+    }
+
+    private void submit() throws Exception
+    {
+        try
+        {
+            _out.putNextEntry(new ZipEntry(MANIFEST));
+            _out.write(JsonUtil.toJson(_manifest).getBytes(StandardCharsets.UTF_8));
+            _out.closeEntry();
+            _out.close();
+
+            // roll over to a fresh job once the current one is past its life
+            if (_du.getSalesforceService().createNewJob(_jobId))
+            {
+                _du.getSalesforceService().closeBulkJob(_jobId, _du.getDeskService().getMigrationId(),
+                    SalesforceConstants.OBJ_ATTACHMENT);
+                _jobId = createJob();
+            }
+
+            _du.getSalesforceService().addZipBatchToJob(_jobId, _zip);
+        }
+        finally
+        {
+            // the stream is already closed unless writing the manifest failed
+            try
+            {
+                _out.close();
+            }
+            catch (IOException e)
+            {
+                // the zip is deleted anyway
+            }
+            _zip.delete();
+            _zip = null;
+            _fileOut = null;
+            _out = null;
+            _manifest = new ArrayList<>();
+            _unzippedBytes = 0;
+        }
+    }
+
+    private String createJob() throws Exception
+    {
+        return _du.getSalesforceService().createBulkJob(SalesforceConstants.OBJ_ATTACHMENT, null, OperationEnum.insert,
+            ContentType.ZIP_JSON);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.desk.java.apiclient.model.CustomField;
+import com.desk.java.apiclient.model.CustomFieldDataType;
+import com.desk.java.apiclient.model.CustomFieldType;
+
+/**
+ * The Desk.com custom fields of one Salesforce object compiled into an array indexed plan. The field lookup, the
+ * Salesforce field name and the value conversion are resolved once per migration, so mapping a record is a single
+ * pass over the plan with no string building or custom field list scans.
+ */
+public final class DeskCustomFieldPlan
+{
+    // value conversions, resolved from the Desk.com data type
+    private static final byte CONVERT_STRING = 0;
+    private static final byte CONVERT_BOOLEAN = 1;
+    private static final byte CONVERT_INTEGER = 2;
+
+    // parallel arrays, one slot per custom field in the order Desk.com returned them
+    private final String[] _names;
+    private final String[] _sfNames;
+    private final byte[] _conversions;
+    private final CustomField[] _fields;
+
+    // field name to slot
+    private final Map<String, Integer> _index;
+
+    private DeskCustomFieldPlan(List<CustomField> fields)
+    {
+        int size = fields.size();
+        _names = new String[size];
+        _sfNames = new String[size];
+        _conversions = new byte[size];
+        _fields = new CustomField[size];
+        _index = new HashMap<>(size * 4 / 3 + 1);
+
+        for (int i = 0; i < size; i++)
+        {
+            CustomField cf = fields.get(i);
+            _names[i] = cf.getName();
+            _sfNames[i] = "Desk_" + cf.getName() + SalesforceConstants.CF_SUFFIX;
+            _conversions[i] = (cf.getData().getType() == CustomFieldDataType.BOOLEAN ? CONVERT_BOOLEAN
+                : (cf.getData().getType() == CustomFieldDataType.INTEGER ? CONVERT_INTEGER : CONVERT_STRING));
+            _fields[i] = cf;
+            _index.putIfAbsent(cf.getName(), i);
+        }
+    }
+
+    /**
+     * Compiles the plan for the custom fields of one Salesforce object.
+     *
+     * @param fields
+     *            All the Desk.com custom fields.
+     * @param sfObjectName
+     *            The Salesforce object name, see getSalesforceObjectName().
+     * @return The compiled plan.
+     */
+    public static DeskCustomFieldPlan compile(List<CustomField> fields, String sfObjectName)
+    {
+        List<CustomField> objectFields = new ArrayList<>();
+        for (CustomField cf : fields)
+        {
+            if (sfObjectName.equals(getSalesforceObjectName(cf)))
+            {
+                objectFields.add(cf);
+            }
+        }
+        return new DeskCustomFieldPlan(objectFields);
+    }
+
+    /**
+     * Returns the Salesforce object name by the Desk.com field 'type' (not data type, but object type).
+     *
+     * @param cf
+     *            The Desk.com custom field.
+     * @return The Salesforce object name.
+     */
+    public static String getSalesforceObjectName(CustomField cf)
+    {
+        return (cf.getType() == CustomFieldType.COMPANY ? "Account"
+            : (cf.getType() == CustomFieldType.CUSTOMER ? "Contact" : "Case"));
+    }
+
+    /**
+     * @return The number of custom fields in the plan, used to size the record maps.
+     */
+    public int size()
+    {
+        return _names.length;
+    }
+
+    /**
+     * Looks up a custom field of the plan by name.
+     *
+     * @param name
+     *            The Desk.com custom field name.
+     * @return The custom field, or null if the object has no such field.
+     */
+    public CustomField get(String name)
+    {
+        Integer i = _index.get(name);
+        return (i == null ? null : _fields[i]);
+    }
+
+    /**
+     * Puts the converted Desk.com custom field values of a record into its Salesforce map. Null and empty values are
+     * skipped, as are values of fields that are not part of the plan (they have no Salesforce field to go to).
+     *
+     * @param deskCFs
+     *            The custom field values of the Desk.com record, may be null.
+     * @param mapObj
+     *            The Salesforce record map.
+     */
+    public void apply(Map<String, String> deskCFs, Map<String, Object> mapObj)
+    {
+        if (deskCFs == null || deskCFs.isEmpty())
+        {
+            return;
+        }
+
+        for (int i = 0; i < _names.length; i++)
+        {
+            String value = deskCFs.get(_names[i]);
+            if (value == null || value.isEmpty())
+            {
+                continue;
+            }
+
+            switch (_conversions[i])
+            {
+                case CONVERT_BOOLEAN:
+                    mapObj.put(_sfNames[i], Boolean.valueOf(value));
+                    break;
+                case CONVERT_INTEGER:
+                    mapObj.put(_sfNames[i], Integer.valueOf(value));
+                    break;
+                default:
+                    mapObj.put(_sfNames[i], value);
+                    break;
+            }
+        }
+    }
+}
@@ -16,7 +16,6 @@
 package com.salesforce.scmt.utils;
 
 import java.util.*;
-import java.util.function.Predicate;
 import java.util.regex.Matcher;
 
 import com.desk.java.apiclient.model.*;
@@ -24,6 +23,7 @@ import com.desk.java.apiclient.model.Interaction.InteractionType;
 import com.salesforce.scmt.model.DeployResponse;
 import com.salesforce.scmt.utils.SalesforceConstants;
 import com.salesforce.scmt.utils.SalesforceConstants.AccountFields;
+import com.salesforce.scmt.utils.SalesforceConstants.AttachmentFields;
 import com.salesforce.scmt.utils.SalesforceConstants.CaseCommentFields;
 import com.salesforce.scmt.utils.SalesforceConstants.CaseFields;
 import com.salesforce.scmt.utils.SalesforceConstants.ChatFields;
@@ -35,41 +35,61 @@ import com.salesforce.scmt.utils.SalesforceConstants.UserFields;
 
 public final class DeskJsonMapUtil
 {
+    /*
+     * Sparse field projections, the Desk.com attributes read by the mappers below. Requesting only these trims the
+     * pages on the wire and in memory, the _links are always returned. DeskJsonMapUtilFieldsTest maps a record with
+     * every attribute and with only these, a mapper reading an attribute left out of its projection fails it.
+     */
+
+    // deskCaseToSalesforceJsonMap, plus the status (skip deleted) and attachment count read by the case migration
+    public static final String CASE_FIELDS = "id,external_id,subject,description,priority,status,type,language,"
+        + "labels,custom_fields,created_at,updated_at,changed_at,active_at,received_at,first_opened_at,opened_at,"
+        + "first_resolved_at,resolved_at,active_attachments_count";
+
+    // deskCustomerToSalesforceJsonMap
+    public static final String CUSTOMER_FIELDS = "id,external_id,first_name,last_name,title,background,emails,"
+        + "phone_numbers,addresses,custom_fields,created_at,updated_at";
+
+    // deskInteractionToSalesforceJsonMaps and the email, chat & comment mappers it calls
+    public static final String INTERACTION_FIELDS = "id,body,body_html,created_at,updated_at,sent_at,direction,"
+        + "to,from,cc,bcc,status,subject,type,twitter_status_id,facebook_id,from_facebook_name,liked,public_url,"
+        + "agent_answer_count,customer_answer_count,rating,rating_count,rating_score,is_best_answer";
+
     /**
      * Private constructor for utility class.
      */
     private DeskJsonMapUtil() {}
 
-    private static Map<String, Object> deskCustomFieldsToSalesforceJsonMap(Map<String, String> deskCFs, DeskUtil deskUtil) throws Exception
-    {
-        // declare the Salesforce custom fields map
-        Map<String, Object> sfCFs = new HashMap<>();
-
-        // migrate custom fields
-        if (deskCFs != null && !deskCFs.isEmpty())
-        {
-            // key is the field name
-            for (String key : deskCFs.keySet())
-            {
-                String sfCFkey = "Desk_" + key + SalesforceConstants.CF_SUFFIX;
-                CustomField cf = deskUtil.getDeskCustomField(key);
+    // initial capacity of the record maps, the fixed fields of the mapper plus room for the custom fields
+    private static final int CASE_MAP_CAPACITY = 40;
+    private static final int CUSTOMER_MAP_CAPACITY = 48;
+    private static final int COMPANY_MAP_CAPACITY = 16;
 
-                if (deskCFs.get(key) == null) continue;
+    // Desk.com stores priority as a numeric value between 1-10, Salesforce provides High, Medium, and Low by
+    // default. Desk.com will be mapped to Salesforce as follows:
+    // 1-3 = Low, 4-6 = Medium, 7-10 = High
+    private static final String[] CASE_PRIORITIES = new String[] {
+        CaseFields.PriorityLow, CaseFields.PriorityLow, CaseFields.PriorityLow, CaseFields.PriorityLow,
+        CaseFields.PriorityMedium, CaseFields.PriorityMedium, CaseFields.PriorityMedium };
 
-                if (cf.getData().getType() == CustomFieldDataType.BOOLEAN)
-                    sfCFs.put(sfCFkey, Boolean.valueOf(deskCFs.get(key)));
-                else if (cf.getData().getType() == CustomFieldDataType.INTEGER && deskCFs.get(key) != null) {
-                    sfCFs.put(sfCFkey, Integer.valueOf(deskCFs.get(key)));
-                } else
-                    sfCFs.put(sfCFkey, String.valueOf(deskCFs.get(key)));
-            }
-        }
+    // Desk.com case status to Salesforce status, anything not listed is resolved
+    private static final Map<CaseStatus, String> CASE_STATUSES = new EnumMap<>(CaseStatus.class);
 
-        sfCFs.values().removeIf(Objects::isNull);
-        Predicate<Object> removePredicate = (Object o) -> String.valueOf(o).isEmpty();
-        sfCFs.values().removeIf(removePredicate);
+    // Desk.com case type to Salesforce case origin, anything not listed is facebook
+    private static final Map<CaseType, String> CASE_ORIGINS = new EnumMap<>(CaseType.class);
 
-        return sfCFs;
+    static
+    {
+        CASE_STATUSES.put(CaseStatus.NEW, CaseFields.StatusNew);
+        CASE_STATUSES.put(CaseStatus.CLOSED, CaseFields.StatusClosed);
+        CASE_STATUSES.put(CaseStatus.OPEN, CaseFields.StatusOpen);
+        CASE_STATUSES.put(CaseStatus.PENDING, CaseFields.StatusPending);
+
+        CASE_ORIGINS.put(CaseType.EMAIL, CaseFields.OriginEmail);
+        CASE_ORIGINS.put(CaseType.PHONE, CaseFields.OriginPhone);
+        CASE_ORIGINS.put(CaseType.QNA, CaseFields.OriginWeb);
+        CASE_ORIGINS.put(CaseType.CHAT, CaseFields.OriginChat);
+        CASE_ORIGINS.put(CaseType.TWITTER, CaseFields.OriginTwitter);
     }
 
     public static Map<String, Object> deskUserToSalesforceJsonMap(User u)
@@ -114,7 +134,9 @@ public final class DeskJsonMapUtil
 
     public static Map<String, Object> deskCompanyToSalesforceJsonMap(DeskUtil deskUtil, Company company, Map<String, String> config) throws Exception
     {
-        Map<String, Object> mapObj = new HashMap<>();
+        DeskCustomFieldPlan cfPlan = deskUtil.getCustomFieldPlan("Account");
+
+        Map<String, Object> mapObj = new HashMap<>(COMPANY_MAP_CAPACITY + cfPlan.size() * 4 / 3);
         mapObj.put(AccountFields.DeskId, company.getId());
         mapObj.put(AccountFields.Name, company.getName());
         // TODO: Bug in Desk.com API that if I specify I want this field, it only returns companies
@@ -134,7 +156,7 @@ public final class DeskJsonMapUtil
 
         mapObj.put(AccountFields.RecordTypeId, config.get("account_record_type_id"));
         // add the desk custom fields
-        mapObj.putAll(deskCustomFieldsToSalesforceJsonMap(company.getCustomFields(), deskUtil));
+        cfPlan.apply(company.getCustomFields(), mapObj);
 
         return mapObj;
     }
@@ -153,33 +175,29 @@ public final class DeskJsonMapUtil
 
     public static Map<String, Object> deskCaseToSalesforceJsonMap(DeskUtil deskUtil, Case deskCase, Map<String, String> config) throws Exception
     {
+        DeskCustomFieldPlan cfPlan = deskUtil.getCustomFieldPlan("Case");
+
         // create the map
-        Map<String, Object> mapObj = new HashMap<>();
+        Map<String, Object> mapObj = new HashMap<>(CASE_MAP_CAPACITY + cfPlan.size() * 4 / 3);
 
         mapObj.put(CaseFields.DeskId, deskCase.getId());
         mapObj.put(CaseFields.DeskExternalId, deskCase.getExternalId());
         mapObj.put(CaseFields.Subject, deskCase.getSubject().length() > 99 ? deskCase.getSubject().substring(0, 98) : deskCase.getSubject());
         mapObj.put(CaseFields.Description, deskCase.getDescription());
         mapObj.put(CaseFields.RecordTypeId, config.get("case_record_type_id"));
-        // Desk.com stores priority as a numeric value between 1-10, Salesforce provides High, Medium, and Low by
-        // default. Desk.com will be mapped to Salesforce as follows:
-        // 1-3 = Low, 4-6 = Medium, 7-10 = High
-        mapObj.put(CaseFields.Priority, (Integer.valueOf(deskCase.getPriority()) < 4 ? CaseFields.PriorityLow :
-            (Integer.valueOf(deskCase.getPriority()) < 7 ? CaseFields.PriorityMedium : CaseFields.PriorityHigh)));
+        // map the priority, see CASE_PRIORITIES
+        int priority = Integer.parseInt(deskCase.getPriority());
+        mapObj.put(CaseFields.Priority, (priority < CASE_PRIORITIES.length ? CASE_PRIORITIES[Math.max(priority, 0)]
+            : CaseFields.PriorityHigh));
 
         // Map status values from Desk.com to Salesforce
-        mapObj.put(CaseFields.Status, (deskCase.getStatus() == CaseStatus.NEW ? CaseFields.StatusNew :
-            (deskCase.getStatus() == CaseStatus.CLOSED ? CaseFields.StatusClosed :
-            (deskCase.getStatus() == CaseStatus.OPEN ? CaseFields.StatusOpen :
-            (deskCase.getStatus() == CaseStatus.PENDING ? CaseFields.StatusPending : CaseFields.StatusResolved)))));
+        String status = CASE_STATUSES.get(deskCase.getStatus());
+        mapObj.put(CaseFields.Status, (status == null ? CaseFields.StatusResolved : status));
 
         // map Desk.com case type to Salesforce case origin
         //ERROR: Json Deserialization failed on token 'Origin' and has left off in the middle of parsing a row. Will go to end of row to begin parsing the next row
-        mapObj.put(CaseFields.Origin, (deskCase.getType() == CaseType.EMAIL ? CaseFields.OriginEmail :
-            (deskCase.getType() == CaseType.PHONE ? CaseFields.OriginPhone :
-            (deskCase.getType() == CaseType.QNA ? CaseFields.OriginWeb :
-            (deskCase.getType() == CaseType.CHAT ? CaseFields.OriginChat :
-            (deskCase.getType() == CaseType.TWITTER ? CaseFields.OriginTwitter : CaseFields.OriginFacebook))))));
+        String origin = CASE_ORIGINS.get(deskCase.getType());
+        mapObj.put(CaseFields.Origin, (origin == null ? CaseFields.OriginFacebook : origin));
 
         // set the case owner
         // Desk.com can have both a user and group assigned to a case.
@@ -248,7 +266,7 @@ public final class DeskJsonMapUtil
         }
 
         // add the desk custom fields
-        mapObj.putAll(deskCustomFieldsToSalesforceJsonMap(deskCase.getCustomFields(), deskUtil));
+        cfPlan.apply(deskCase.getCustomFields(), mapObj);
 
         // put the labels into the long text area custom field, separated by newline
         mapObj.put(CaseFields.DeskLabels, String.join("\n", deskCase.getLabels()));
@@ -263,8 +281,10 @@ public final class DeskJsonMapUtil
 
     public static Map<String, Object> deskCustomerToSalesforceJsonMap(DeskUtil deskUtil, Customer customer, DeployResponse deployResponse, Map<String, String> config) throws Exception
     {
+        DeskCustomFieldPlan cfPlan = deskUtil.getCustomFieldPlan("Contact");
+
         // create the map
-        Map<String, Object> mapObj = new HashMap<>();
+        Map<String, Object> mapObj = new HashMap<>(CUSTOMER_MAP_CAPACITY + cfPlan.size() * 4 / 3);
 
         mapObj.put(ContactFields.DeskId, customer.getId());
         mapObj.put(ContactFields.DeskCreatedAt, customer.getCreatedAt());
@@ -411,7 +431,7 @@ public final class DeskJsonMapUtil
         }
 
         // add the desk custom fields
-        mapObj.putAll(deskCustomFieldsToSalesforceJsonMap(customer.getCustomFields(), deskUtil));
+        cfPlan.apply(customer.getCustomFields(), mapObj);
 
         return mapObj;
     }
@@ -435,80 +455,38 @@ public final class DeskJsonMapUtil
             // create the list
             List<Map<String, Object>> mapObjs = new ArrayList<>();
 
-            // create the map
-            Map<String, Object> mapObj = new HashMap<>();
-
-            // flag which indicates the note body was truncated
-            boolean bTruncated = false;
-
-            // audit fields
-            if (deskUtil.getAuditFieldsEnabled())
-            {
-                mapObj.put(CaseCommentFields.CreatedDate, note.getCreatedAt());
-                mapObj.put(CaseCommentFields.LastModifiedDate, note.getUpdatedAt());
-            }
-
-            // check the body for max length
+            // split the body into pieces that fit the comment body once JSON encoded, each piece becomes a
+            // CaseComment record
             String body = note.getBody();
-            if (body == null)
+            List<String> pieces = (body == null ? Collections.singletonList(null)
+                : TextChunker.splitJson(body, SalesforceConstants.MED_TEXT_MAX));
+            if (pieces.size() > 1)
             {
-                // do nothing
+                String msg = String.format("Body for note [%d] is too long and will be split across [%d] comments! Length: [%d], Max Length: [%d]",
+                    note.getId(), pieces.size(), body.length(), SalesforceConstants.MED_TEXT_MAX);
+                Utils.log(msg);
+                deployResponse.addError(msg);
             }
-            else
-            {
-                // trim the body if it is longer than max
-                if (body.length() > SalesforceConstants.MED_TEXT_MAX)
-                {
-                    String msg = String.format("Body for note [%d] is too long and will be truncated! Length: [%d], Max Length: [%d]",
-                        note.getId(), body.length(), SalesforceConstants.MED_TEXT_MAX);
-                    Utils.log(msg);
-                    deployResponse.addError(msg);
-
-                    // trim the un-encoded body to the max
-                    body = body.substring(0, SalesforceConstants.MED_TEXT_MAX);
-
-                    // flip the flag indicated we truncated data
-                    bTruncated = true;
-                }
 
-                // convert the JSON so I can check length
-                String bodyJson = JsonUtil.toJson(body);
-
-                // loop until the encoded length is <= the max
-                while (bodyJson.length() > SalesforceConstants.MED_TEXT_MAX)
-                {
-                    // trim 1 character from the body
-                    body = body.substring(0, body.length() - 1);
-
-                    // JSON encode the shortened body so I can check the length
-                    bodyJson = JsonUtil.toJson(body);
-                    // Utils.log("Body Length: " + bodyJson.length());
-
-                    // flip the flag indicated we truncated data
-                    bTruncated = true;
-                }
+            for (String piece : pieces)
+            {
+                // create the map
+                Map<String, Object> mapObj = new HashMap<>();
 
-                // check if I truncated and need to adjust the body on the note for splitting it across multiple
-                // CaseComment records
-                if (bTruncated)
+                // audit fields
+                if (deskUtil.getAuditFieldsEnabled())
                 {
-                    // encoded length should now be good, left-trim the body
-                    note.setBody(note.getBody().substring(body.length() - 1));
+                    mapObj.put(CaseCommentFields.CreatedDate, note.getCreatedAt());
+                    mapObj.put(CaseCommentFields.LastModifiedDate, note.getUpdatedAt());
                 }
-            }
-            mapObj.put(CaseCommentFields.CommentBody, body);
-            mapObj.put(CaseCommentFields.IsPublished, false);
 
-            // assign the case id
-            mapObj.put(CaseCommentFields.Parent, getCaseMap(note.getCaseId()));
+                mapObj.put(CaseCommentFields.CommentBody, piece);
+                mapObj.put(CaseCommentFields.IsPublished, false);
 
-            mapObjs.add(mapObj);
+                // assign the case id
+                mapObj.put(CaseCommentFields.Parent, getCaseMap(note.getCaseId()));
 
-            // check if I truncated the body
-            if (bTruncated)
-            {
-                // recursively call this method to add another case comment with the rest of the note
-                mapObjs.addAll(deskNoteToSalesforceJsonMap(deskUtil, note, deployResponse));
+                mapObjs.add(mapObj);
             }
 
             return mapObjs;
@@ -525,50 +503,69 @@ public final class DeskJsonMapUtil
     public static void deskInteractionToSalesforceJsonMaps(DeskUtil deskUtil,
         Map<String, List<Map<String, Object>>> jsonMaps, Interaction[] interactions, DeployResponse deployResponse)
     {
-
-        // local variable for holding JSON map temporarily
-        Map<String, Object> jsonMap = null;
-
         // define a map for holding chat interactions for a case
         Map<Long, List<Interaction>> chatInteractionsByCase = new HashMap<>();
 
         // loop through the interactions and convert them
         for (Interaction interaction : interactions)
         {
-            // check if the interaction has a case id
-            if (interaction.getCaseId() == 0)
-            {
-                // no case id, this is an error, log it and report it back to Desk.com
-                String msg = String.format(
-                    "[ERROR] Interaction does not have a case id associated to it! Interaction Id: [%d]",
-                    interaction.getId());
-                deployResponse.addError(msg);
-                Utils.log(msg);
+            deskInteractionToSalesforceJsonMaps(deskUtil, jsonMaps, interaction, chatInteractionsByCase, deployResponse);
+        }
 
-                // do nothing
-            }
-            else
+        // convert the chat transcripts
+        deskChatInteractionsToSalesforceJsonMaps(deskUtil, jsonMaps, chatInteractionsByCase, deployResponse);
+    }
+
+    /**
+     * Converts a single interaction record into Map's that can be JSON encoded. Chat messages are only collected, as
+     * the messages of a case are combined into one transcript by deskChatInteractionsToSalesforceJsonMaps().
+     * @param jsonMaps The Map where the key is the object type, and the value is a list of Map's that will be JSON
+     * encoded later.
+     * @param interaction The interaction record.
+     * @param chatInteractionsByCase The chat messages collected so far, by case id.
+     * @param deployResponse The deploy response for logging messages.
+     */
+    public static void deskInteractionToSalesforceJsonMaps(DeskUtil deskUtil,
+        Map<String, List<Map<String, Object>>> jsonMaps, Interaction interaction,
+        Map<Long, List<Interaction>> chatInteractionsByCase, DeployResponse deployResponse)
+    {
+        // local variable for holding JSON map temporarily
+        Map<String, Object> jsonMap = null;
+
+        // check if the interaction has a case id
+        if (interaction.getCaseId() == 0)
+        {
+            // no case id, this is an error, log it and report it back to Desk.com
+            String msg = String.format(
+                "[ERROR] Interaction does not have a case id associated to it! Interaction Id: [%d]",
+                interaction.getId());
+            deployResponse.addError(msg);
+            Utils.log(msg);
+
+            // do nothing
+        }
+        else
+        {
+            // Utils.log("Interaction Type: " + interaction.getInteractionType());
+            switch(interaction.getInteractionType())
             {
-                // Utils.log("Interaction Type: " + interaction.getInteractionType());
-                switch(interaction.getInteractionType())
-                {
-                    case EMAIL:
-                        // convert the interaction
-                        jsonMap = deskInteractionToSalesforceEmail(interaction, deployResponse);
-
-                        // ensure object is not null
-                        if (jsonMap != null)
-                        {
-                            jsonMaps.get(SalesforceConstants.OBJ_EMAIL_MESSAGE).add(jsonMap);
-                        }
-                        break;
-                    case TWEET:
-                    case FACEBOOK_POST:
-                    case FACEBOOK_COMMENT:
-                    case FACEBOOK_MESSAGE:
-                        // TODO: Check if SocialPost is available in the Salesforce organization and use it
-
-                        // I can't get this working right now, create case comments for the time being.
+                case EMAIL:
+                    // convert the interaction
+                    jsonMap = deskInteractionToSalesforceEmail(interaction, deployResponse);
+
+                    // ensure object is not null
+                    if (jsonMap != null)
+                    {
+                        jsonMaps.get(SalesforceConstants.OBJ_EMAIL_MESSAGE).add(jsonMap);
+                    }
+                    break;
+                case TWEET:
+                case FACEBOOK_POST:
+                case FACEBOOK_COMMENT:
+                case FACEBOOK_MESSAGE:
+                    // TODO: Check if SocialPost is available in the Salesforce organization and use it
+
+                    // I can't get this working right now, create case comments for the time being.
 //                        // convert the interaction
 //                        jsonMap = deskInteractionToSalesforceFeedItem(interaction,
 //                            (interaction.getInteractionType() == InteractionType.TWEET), deployResponse);
@@ -578,39 +575,50 @@ public final class DeskJsonMapUtil
 //                        {
 //                            jsonMaps.get(SalesforceConstants.OBJ_FEED_ITEM).add(jsonMap);
 //                        }
-                        // convert the interaction
-                        jsonMaps.get(SalesforceConstants.OBJ_CASE_COMMENT).addAll(
-                            deskInteractionToSalesforceComment(deskUtil, interaction, deployResponse));
-                        break;
-                    case PHONE_CALL:
-                        // convert the interaction
-                        jsonMaps.get(SalesforceConstants.OBJ_CASE_COMMENT).addAll(
-                            deskInteractionToSalesforceComment(deskUtil, interaction, deployResponse));
-                        break;
-                    case CHAT_MESSAGE:
-                        // check if this is a new case id
-                        if (!chatInteractionsByCase.containsKey(interaction.getCaseId()))
-                        {
-                            chatInteractionsByCase.put(interaction.getCaseId(), new ArrayList<>());
-                        }
-
-                        // add the interaction
-                        chatInteractionsByCase.get(interaction.getCaseId()).add(interaction);
-                        break;
-                    case COMMUNITY_ANSWER:
-                    case COMMUNITY_QUESTION:
-                        // convert the interaction
-                        jsonMaps.get(SalesforceConstants.OBJ_CASE_COMMENT).addAll(
-                            deskInteractionToSalesforceComment(deskUtil, interaction, deployResponse));
-                        break;
-                    case UNKNOWN:
-                    default:
-                        Utils.log(String.format("[WARN] '%s' is not implemented yet!", interaction.getInteractionType()));
-                        break;
-                }
+                    // convert the interaction
+                    jsonMaps.get(SalesforceConstants.OBJ_CASE_COMMENT).addAll(
+                        deskInteractionToSalesforceComment(deskUtil, interaction, deployResponse));
+                    break;
+                case PHONE_CALL:
+                    // convert the interaction
+                    jsonMaps.get(SalesforceConstants.OBJ_CASE_COMMENT).addAll(
+                        deskInteractionToSalesforceComment(deskUtil, interaction, deployResponse));
+                    break;
+                case CHAT_MESSAGE:
+                    // check if this is a new case id
+                    if (!chatInteractionsByCase.containsKey(interaction.getCaseId()))
+                    {
+                        chatInteractionsByCase.put(interaction.getCaseId(), new ArrayList<>());
+                    }
+
+                    // add the interaction
+                    chatInteractionsByCase.get(interaction.getCaseId()).add(interaction);
+                    break;
+                case COMMUNITY_ANSWER:
+                case COMMUNITY_QUESTION:
+                    // convert the interaction
+                    jsonMaps.get(SalesforceConstants.OBJ_CASE_COMMENT).addAll(
+                        deskInteractionToSalesforceComment(deskUtil, interaction, deployResponse));
+                    break;
+                case UNKNOWN:
+                default:
+                    Utils.log(String.format("[WARN] '%s' is not implemented yet!", interaction.getInteractionType()));
+                    break;
             }
         }
+    }
 
+    /**
+     * Converts the collected chat messages into one transcript per case.
+     * @param jsonMaps The Map where the key is the object type, and the value is a list of Map's that will be JSON
+     * encoded later.
+     * @param chatInteractionsByCase The chat messages by case id.
+     * @param deployResponse The deploy response for logging messages.
+     */
+    public static void deskChatInteractionsToSalesforceJsonMaps(DeskUtil deskUtil,
+        Map<String, List<Map<String, Object>>> jsonMaps, Map<Long, List<Interaction>> chatInteractionsByCase,
+        DeployResponse deployResponse)
+    {
         // check if there are chat records to process
         if (!chatInteractionsByCase.isEmpty())
         {
@@ -622,7 +630,6 @@ public final class DeskJsonMapUtil
                     deskInteractionToSalesforceChat(deskUtil, chatInteractionsByCase.get(caseId), deployResponse));
             }
         }
-
     }
 
     public static Map<String, Object> deskInteractionToSalesforceEmail(Interaction interaction, DeployResponse deployResponse)
@@ -685,7 +692,7 @@ public final class DeskJsonMapUtil
                 "Interaction body exceeds max length and will be truncted! ");
             Utils.log(msg);
             deployResponse.addErrorWithId(msg, interaction.getId());
-            interaction.setBody(interaction.getBody().substring(0, SalesforceConstants.EMAIL_BODY_LENGTH));
+            interaction.setBody(TextChunker.truncate(interaction.getBody(), SalesforceConstants.EMAIL_BODY_LENGTH));
         }
 
         if (interaction.getHtmlBody() != null && interaction.getHtmlBody().length() > SalesforceConstants.EMAIL_BODY_LENGTH)
@@ -694,7 +701,7 @@ public final class DeskJsonMapUtil
                     "Interaction body exceeds max length and will be truncted! ");
             Utils.log(msg);
             deployResponse.addErrorWithId(msg, interaction.getId());
-            interaction.setHtmlBody(interaction.getHtmlBody().substring(0, SalesforceConstants.EMAIL_BODY_LENGTH));
+            interaction.setHtmlBody(TextChunker.truncate(interaction.getHtmlBody(), SalesforceConstants.EMAIL_BODY_LENGTH));
         }
 
         if (interaction.getHtmlBody() !=null && !interaction.getHtmlBody().isEmpty()) {
@@ -861,36 +868,46 @@ public final class DeskJsonMapUtil
         // check if there are chat lines
         if (!chatLines.isEmpty())
         {
-            // create a string builder to hold the chat body
+            // create a string builder to hold the chat body, and track its JSON encoded length (with the quotes) as
+            // lines are added so the body is never re-encoded
             StringBuilder chatBody = new StringBuilder();
+            int chatBodyJsonLength = TextChunker.jsonLength("");
 
-            // loop through the chat lines
+            // loop through the chat lines, a line too long for a comment on its own is split into pieces
             for (String chatLine : chatLines)
             {
-                // check if the JSON encoded length is too long
-                if (JsonUtil.toJson(chatBody.toString() + "\n" + chatLine).length() > SalesforceConstants.MED_TEXT_MAX)
+                for (String chatPiece : TextChunker.splitJson(chatLine, SalesforceConstants.MED_TEXT_MAX - 2))
                 {
-                    // log a message
-                    String msg = String.format(
-                        "Chat body for Case is too long and will be truncated!");
-                    Utils.log(msg);
-                    deployResponse.addErrorWithId(msg, caseId);
-
-                    // assign the body to the comment
-                    mapObj.put(CaseCommentFields.CommentBody, chatBody.toString());
-
-                    // add the map object to the list
-                    mapObjs.add(mapObj);
-
-                    // create a new mapObj
-                    mapObj = getChatComment(deskUtil, startTime, endTime, caseId, userId);
-
-                    // clear the chat body
-                    chatBody = new StringBuilder();
+                    // the piece plus its newline
+                    int chatPieceJsonLength = TextChunker.jsonLength(chatPiece) - 2 + TextChunker.jsonLength('\n');
+
+                    // check if the JSON encoded length is too long
+                    if (chatBody.length() > 0 && chatBodyJsonLength + chatPieceJsonLength > SalesforceConstants.MED_TEXT_MAX)
+                    {
+                        // log a message
+                        String msg = String.format(
+                            "Chat body for Case is too long and will be truncated!");
+                        Utils.log(msg);
+                        deployResponse.addErrorWithId(msg, caseId);
+
+                        // assign the body to the comment
+                        mapObj.put(CaseCommentFields.CommentBody, chatBody.toString());
+
+                        // add the map object to the list
+                        mapObjs.add(mapObj);
+
+                        // create a new mapObj
+                        mapObj = getChatComment(deskUtil, startTime, endTime, caseId, userId);
+
+                        // clear the chat body
+                        chatBody = new StringBuilder();
+                        chatBodyJsonLength = TextChunker.jsonLength("");
+                    }
+
+                    // append the line to the body
+                    chatBody.append(chatPiece).append('\n');
+                    chatBodyJsonLength += chatPieceJsonLength;
                 }
-
-                // append the line to the body
-                chatBody.append(chatLine + "\n");
             }
 
             // assign the body to the comment
@@ -940,9 +957,6 @@ public final class DeskJsonMapUtil
         // create the map
         Map<String, Object> mapObj = new HashMap<>();
 
-        // flag which indicates the note body was truncated
-        boolean bTruncated = false;
-
         // audit fields
         if (deskUtil.getAuditFieldsEnabled())
         {
@@ -1009,67 +1023,29 @@ public final class DeskJsonMapUtil
             }
         }
 
-        // check the body for max length
+        // split the body into pieces that fit the comment body once JSON encoded, each piece becomes a CaseComment
+        // record with the same fields
         String body = typeInfo + interaction.getBody();
-        if (body == null || body.isEmpty())
-        {
-            // do nothing
-        }
-        else
+        List<String> pieces = TextChunker.splitJson(body, SalesforceConstants.MED_TEXT_MAX);
+        if (pieces.size() > 1)
         {
-            // trim the body if it is longer than max
-            if (body.length() > SalesforceConstants.MED_TEXT_MAX)
-            {
-                String msg = String.format("Body for interaction is too long and will be truncated!");
+            String msg = String.format("Body for interaction is too long and will be split across [%d] comments!",
+                pieces.size());
 
-                Utils.log(msg);
-                deployResponse.addErrorWithId(msg, interaction.getId());
-
-                // trim the un-encoded body to the max
-                body = body.substring(0, SalesforceConstants.MED_TEXT_MAX);
-
-                // flip the flag indicated we truncated data
-                bTruncated = true;
-            }
-
-            // convert the JSON so I can check length
-            String bodyJson = JsonUtil.toJson(body);
-
-            // loop until the encoded length is <= the max
-            while (bodyJson.length() > SalesforceConstants.MED_TEXT_MAX)
-            {
-                // trim 1 character from the body
-                body = body.substring(0, body.length() - 1);
-
-                // JSON encode the shortened body so I can check the length
-                bodyJson = JsonUtil.toJson(body);
-                // Utils.log("Body Length: " + bodyJson.length());
-
-                // flip the flag indicated we truncated data
-                bTruncated = true;
-            }
-
-            // check if I truncated and need to adjust the body on the interaction for splitting it across multiple
-            // CaseComment records
-            if (bTruncated)
-            {
-                // encoded length should now be good, left-trim the body
-                interaction.setBody(body.substring(body.length() - 1));
-            }
+            Utils.log(msg);
+            deployResponse.addErrorWithId(msg, interaction.getId());
         }
-        mapObj.put(CaseCommentFields.CommentBody, body);
+
         mapObj.put(CaseCommentFields.IsPublished, false);
 
         // assign the case id
         mapObj.put(CaseCommentFields.Parent, getCaseMap(interaction.getCaseId()));
 
-        mapObjs.add(mapObj);
-
-        // check if I truncated the body
-        if (bTruncated)
+        for (String piece : pieces)
         {
-            // recursively call this method to add another case comment with the rest of the interaction
-            mapObjs.addAll(deskInteractionToSalesforceComment(deskUtil, interaction, deployResponse));
+            Map<String, Object> pieceMapObj = new HashMap<>(mapObj);
+            pieceMapObj.put(CaseCommentFields.CommentBody, piece);
+            mapObjs.add(pieceMapObj);
         }
 
         return mapObjs;
@@ -1124,6 +1100,40 @@ Below is json string which was correctly inserted using Rest API POST (notice "a
         return userMap;
     }
 
+    /**
+     * Converts a Desk.com attachment into a Map that can be JSON encoded in the request manifest of a Bulk API binary
+     * attachment batch.
+     * @param a The attachment.
+     * @param bodyRef The path of the file in the batch zip, prefixed with '#'.
+     * @return The attachment map.
+     */
+    public static Map<String, Object> deskAttachmentToSalesforceJsonMap(Attachment a, String bodyRef)
+    {
+        // create the map
+        Map<String, Object> mapObj = new HashMap<>();
+
+        mapObj.put(AttachmentFields.Name, a.getFileName());
+        mapObj.put(AttachmentFields.IsPrivate, false);
+        mapObj.put(AttachmentFields.ContentType, a.getContentType());
+        mapObj.put(AttachmentFields.Body, bodyRef);
+
+        // the parent and owner are polymorphic, so the lookups have to name their type
+        if (a.getCaseId() != Attachment.NO_ID)
+        {
+            Map<String, Object> caseMap = getCaseMap(a.getCaseId());
+            Map<String, Object> caseAttributesMap = new HashMap<String, Object>();
+            caseAttributesMap.put("type", SalesforceConstants.OBJ_CASE);
+            caseMap.put("attributes", caseAttributesMap);
+            mapObj.put(AttachmentFields.Parent, caseMap);
+        }
+        if (a.getUserId() != Attachment.NO_ID)
+        {
+            mapObj.put(AttachmentFields.Owner, getUserMap(a.getUserId(), true));
+        }
+
+        return mapObj;
+    }
+
     public static Map<String, Object> deskArticleToSalesforceJsonMap(Article article, DeployResponse deployResponse, Integer counter) throws Exception
     {
         // create the map
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.utils;
+
+import static java.lang.System.getenv;
+
+import java.security.InvalidParameterException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.salesforce.scmt.model.DeployResponse;
+import com.salesforce.scmt.service.SalesforceService;
+import com.salesforce.scmt.utils.SalesforceConstants.DeskMigrationFields;
+import com.sforce.async.AsyncApiException;
+import com.sforce.soap.partner.fault.UnexpectedErrorFault;
+import com.sforce.soap.partner.sobject.SObject;
+
+/**
+ * Write-behind status of a Desk_Migration__c record, one instance per migration in the process. Updates only change
+ * the local copy, the record is written with a single upsert when the status or stage changes, and otherwise at most
+ * once per flush interval, so the extraction loops no longer query and upsert the record on every status update.
+ *
+ * Several processes update the same record (the web process queues it, tractor and formula1 workers add to it), so
+ * the counters and the log are kept as the changes made since the last write. They are applied to the values read
+ * back from the record when it is written, and only the fields changed by this process are sent. A migration is
+ * dropped from the process once its final status is written, or when it has been idle for a while.
+ *
+ * The interval is DESK_STATUS_FLUSH_SECONDS (default 30).
+ */
+public final class DeskMigrationStatus
+{
+    private static final String DESK_STATUS_FLUSH_SECONDS = "DESK_STATUS_FLUSH_SECONDS";
+    private static final long DEFAULT_FLUSH_MILLIS = 30000L;
+
+    private static final long _flushMillis = getFlushMillis();
+
+    // a migration without pending changes is dropped after this long without updates
+    private static final long IDLE_MILLIS = 3600000L;
+
+    private static final Map<String, DeskMigrationStatus> _statuses = new ConcurrentHashMap<>();
+
+    // flushes the pending updates nobody else writes out
+    private static final ScheduledExecutorService _flusher = Executors.newSingleThreadScheduledExecutor(r ->
+    {
+        Thread t = new Thread(r, "desk-migration-status");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static
+    {
+        // the flusher is a daemon, the pending changes are written before the process exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+        {
+            for (DeskMigrationStatus status : _statuses.values())
+            {
+                status.flush();
+            }
+        }, "desk-migration-status-shutdown"));
+    }
+
+    private static final SimpleDateFormat _dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT);
+
+    private final String _migrationId;
+
+    // local state, guarded by this
+    private SalesforceService _sf;
+    private int _migrated;
+    private int _failed;
+    private StringBuilder _log = new StringBuilder();
+    private String _status;
+    private String _stage;
+    private String _jobId;
+    private boolean _statusDirty;
+    private boolean _stageDirty;
+    private boolean _jobIdDirty;
+    private boolean _scheduled;
+    private long _lastFlush;
+    private long _lastUpdate = System.currentTimeMillis();
+
+    private DeskMigrationStatus(String migrationId)
+    {
+        _migrationId = migrationId;
+    }
+
+    /**
+     * Returns the status of a migration, shared by everything in the process that updates it.
+     *
+     * @param migrationId
+     *            The Desk_Migration__c id.
+     * @return The status, or null if there is no migration id.
+     */
+    public static DeskMigrationStatus forMigration(String migrationId)
+    {
+        if (migrationId == null)
+        {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        _statuses.values().removeIf(s -> s.isIdle(now));
+        return _statuses.computeIfAbsent(migrationId, DeskMigrationStatus::new);
+    }
+
+    /**
+     * Adds the counts and errors of a deploy response and sets the status. A new status or stage is written right
+     * away, anything else within the flush interval.
+     *
+     * @param sf
+     *            The service used to write the record.
+     * @param status
+     *            The migration status.
+     * @param stage
+     *            The migration stage, or null to keep it.
+     * @param dr
+     *            The counts and errors to add, or null.
+     * @param jobId
+     *            The current bulk job, or null to keep it.
+     */
+    public synchronized void update(SalesforceService sf, String status, String stage, DeployResponse dr,
+        String jobId)
+    {
+        _sf = sf;
+        _lastUpdate = System.currentTimeMillis();
+
+        if (dr != null)
+        {
+            add(dr.getSuccessCount(), dr.getErrorCount(), dr.getErrors());
+        }
+
+        boolean transition = false;
+        if (!Objects.equals(status, _status))
+        {
+            _status = status;
+            _statusDirty = true;
+            transition = true;
+        }
+        if (stage != null && !stage.equals(_stage))
+        {
+            _stage = stage;
+            _stageDirty = true;
+            transition = true;
+        }
+        if (jobId != null && !jobId.equals(_jobId))
+        {
+            _jobId = jobId;
+            _jobIdDirty = true;
+        }
+
+        if (transition || System.currentTimeMillis() - _lastFlush >= _flushMillis)
+        {
+            flush();
+        }
+        else
+        {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Adds the counts and errors of a deploy response without changing the status, they are written within the flush
+     * interval.
+     *
+     * @param sf
+     *            The service used to write the record.
+     * @param dr
+     *            The counts and errors to add.
+     */
+    public synchronized void addDeployResponse(SalesforceService sf, DeployResponse dr)
+    {
+        _sf = sf;
+        add(dr.getSuccessCount(), dr.getErrorCount(), dr.getErrors());
+        scheduleFlush();
+    }
+
+    /**
+     * Adds the counts of a completed bulk job, they are written within the flush interval.
+     *
+     * @param sf
+     *            The service used to write the record.
+     * @param processed
+     *            The number of records processed by the job.
+     * @param failed
+     *            The number of records that failed.
+     */
+    public synchronized void addJobCounts(SalesforceService sf, int processed, int failed)
+    {
+        _sf = sf;
+        add(processed - failed, failed, null);
+        scheduleFlush();
+    }
+
+    /**
+     * Writes the pending changes, if there are any.
+     */
+    public synchronized void flush()
+    {
+        _scheduled = false;
+        if (!isPending())
+        {
+            return;
+        }
+
+        try
+        {
+            SObject deskMigration = new SObject(SalesforceConstants.OBJ_DESK_MIGRATION);
+            deskMigration.setId(_migrationId);
+
+            boolean counters = (_migrated != 0 || _failed != 0);
+            boolean log = (_log.length() > 0);
+            if (counters || log)
+            {
+                // apply the changes to the values written by the other processes
+                SObject prev = read();
+                if (counters)
+                {
+                    int migrated = getInt(prev, DeskMigrationFields.RecordsMigrated) + _migrated;
+                    int failed = getInt(prev, DeskMigrationFields.RecordsFailed) + _failed;
+                    deskMigration.setField(DeskMigrationFields.RecordsMigrated, migrated);
+                    deskMigration.setField(DeskMigrationFields.RecordsFailed, failed);
+                    deskMigration.setField(DeskMigrationFields.RecordsTotal, migrated + failed);
+                }
+                if (log)
+                {
+                    StringBuilder sbLog = new StringBuilder(_log);
+                    if (prev.getField(DeskMigrationFields.Log) != null)
+                    {
+                        sbLog.append(prev.getField(DeskMigrationFields.Log));
+                    }
+                    trimLog(sbLog);
+                    deskMigration.setField(DeskMigrationFields.Log, sbLog.toString());
+                }
+            }
+            if (_statusDirty)
+            {
+                deskMigration.setField(DeskMigrationFields.Status, _status);
+
+                // TODO: Set this with a workflow rule
+                if (DeskMigrationFields.StatusComplete.equals(_status))
+                {
+                    deskMigration.setField(DeskMigrationFields.EndDate, Calendar.getInstance());
+                }
+            }
+            if (_stageDirty)
+            {
+                deskMigration.setField(DeskMigrationFields.Stage, _stage);
+            }
+            if (_jobIdDirty)
+            {
+                deskMigration.setField(DeskMigrationFields.JobId, _jobId);
+            }
+
+            _sf.upsertData(DeskMigrationFields.ID, Collections.singletonList(deskMigration));
+
+            _migrated = 0;
+            _failed = 0;
+            _log.setLength(0);
+            _statusDirty = false;
+            _stageDirty = false;
+            _jobIdDirty = false;
+
+            // nothing more is expected once the final status is written
+            if (isFinal())
+            {
+                _statuses.remove(_migrationId, this);
+            }
+        }
+        catch (UnexpectedErrorFault e)
+        {
+            Utils.log(String.format("[%s] %s", e.getExceptionCode().name(), e.getExceptionMessage()));
+        }
+        catch (AsyncApiException e)
+        {
+            Utils.log(String.format("[%s] %s", e.getExceptionCode().name(), e.getExceptionMessage()));
+        }
+        catch (Exception e)
+        {
+            Utils.log(String.format("[EXCEPTION] %s", e.getMessage()));
+        }
+        finally
+        {
+            _lastFlush = System.currentTimeMillis();
+
+            // a failed write is retried with the next flush
+            if (isPending())
+            {
+                scheduleFlush();
+            }
+        }
+    }
+
+    /*
+     * Adds counts and prepends the errors to the log, newest first.
+     */
+    private void add(int migrated, int failed, List<String> errors)
+    {
+        _lastUpdate = System.currentTimeMillis();
+        _migrated += migrated;
+        _failed += failed;
+
+        if (errors != null && !errors.isEmpty())
+        {
+            StringBuilder sbErrors = new StringBuilder();
+            synchronized (_dateFormat)
+            {
+                sbErrors.append("[" + _dateFormat.format(Calendar.getInstance().getTime()) + "]: ");
+            }
+            for (String err : errors)
+            {
+                sbErrors.append(err + "\n");
+            }
+            _log.insert(0, sbErrors);
+            trimLog(_log);
+        }
+    }
+
+    /*
+     * Reads the counters and the log as they are in Salesforce.
+     */
+    private SObject read() throws Exception
+    {
+        String query = String.format("SELECT %s, %s, %s FROM %s WHERE %s = '%s'", DeskMigrationFields.RecordsFailed,
+            DeskMigrationFields.RecordsMigrated, DeskMigrationFields.Log, SalesforceConstants.OBJ_DESK_MIGRATION,
+            DeskMigrationFields.ID, _migrationId);
+        List<SObject> results = _sf.query(query);
+
+        // check if an existing migration record was found
+        if (results == null || results.isEmpty())
+        {
+            // we are in big trouble if we get here
+            throw new InvalidParameterException(
+                "Could not find existing Desk Migration record with Id: [" + _migrationId + "]!");
+        }
+        return results.get(0);
+    }
+
+    private static int getInt(SObject record, String field)
+    {
+        return (record.getField(field) == null ? 0 : Double.valueOf((String) record.getField(field)).intValue());
+    }
+
+    private boolean isPending()
+    {
+        return _migrated != 0 || _failed != 0 || _log.length() > 0 || _statusDirty || _stageDirty || _jobIdDirty;
+    }
+
+    private boolean isFinal()
+    {
+        return DeskMigrationFields.StatusComplete.equals(_status) || DeskMigrationFields.StatusFailed.equals(_status);
+    }
+
+    private synchronized boolean isIdle(long now)
+    {
+        return !isPending() && now - _lastUpdate > IDLE_MILLIS;
+    }
+
+    private static void trimLog(StringBuilder log)
+    {
+        if (log.length() > SalesforceConstants.LONG_TEXT_MAX)
+        {
+            log.setLength(SalesforceConstants.LONG_TEXT_MAX);
+        }
+    }
+
+    private void scheduleFlush()
+    {
+        // a migration dropped from the map while changes were still being added to it is put back, so the shutdown
+        // hook sees it
+        _statuses.putIfAbsent(_migrationId, this);
+        if (!_scheduled)
+        {
+            _scheduled = true;
+            long delay = Math.max(0, _lastFlush + _flushMillis - System.currentTimeMillis());
+            _flusher.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static long getFlushMillis()
+    {
+        try
+        {
+            return (getenv(DESK_STATUS_FLUSH_SECONDS) == null ? DEFAULT_FLUSH_MILLIS
+                : Math.max(0, Long.parseLong(getenv(DESK_STATUS_FLUSH_SECONDS))) * 1000L);
+        }
+        catch (NumberFormatException e)
+        {
+            Utils.log(String.format("Invalid value for [%s], defaulting to %d", DESK_STATUS_FLUSH_SECONDS,
+                DEFAULT_FLUSH_MILLIS / 1000));
+            return DEFAULT_FLUSH_MILLIS;
+        }
+    }
+}
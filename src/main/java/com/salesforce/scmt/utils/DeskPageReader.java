@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Reads a Desk.com API page ({"total_entries", "page", "_links", "_embedded": {"entries": [...]}}) incrementally. Each
+ * entry is handed to a consumer as soon as it is parsed, so the page is mapped while it is read and the entries array
+ * of an ApiResponse is never materialized.
+ */
+public final class DeskPageReader
+{
+    /**
+     * Private constructor for utility class.
+     */
+    private DeskPageReader() {}
+
+    /**
+     * The paging information of a streamed page.
+     */
+    public static final class Page
+    {
+        private int totalEntries;
+        private int page;
+        private int entryCount;
+        private String nextUrl;
+
+        public int getTotalEntries()
+        {
+            return totalEntries;
+        }
+
+        public int getPage()
+        {
+            return page;
+        }
+
+        public int getEntryCount()
+        {
+            return entryCount;
+        }
+
+        public String getNextUrl()
+        {
+            return nextUrl;
+        }
+
+        public boolean hasNextPage()
+        {
+            return nextUrl != null;
+        }
+    }
+
+    /**
+     * Reads the page, passing each entry to the consumer. The reader is closed when done.
+     *
+     * @param in
+     *            The response body character stream.
+     * @param gson
+     *            The Gson instance configured for the Desk.com API (DeskClient.getGson()).
+     * @param entryType
+     *            The type of the entries.
+     * @param consumer
+     *            Called once per entry, in page order.
+     * @return The paging information.
+     */
+    public static <T> Page read(Reader in, Gson gson, Type entryType, Consumer<T> consumer) throws IOException
+    {
+        Page p = new Page();
+
+        try (JsonReader reader = new JsonReader(in))
+        {
+            reader.beginObject();
+            while (reader.hasNext())
+            {
+                String name = reader.nextName();
+
+                // null attributes (e.g. no next page) are skipped
+                if (reader.peek() == JsonToken.NULL)
+                {
+                    reader.skipValue();
+                    continue;
+                }
+
+                switch (name)
+                {
+                    case "total_entries":
+                        p.totalEntries = reader.nextInt();
+                        break;
+                    case "page":
+                        p.page = reader.nextInt();
+                        break;
+                    case "_links":
+                        readLinks(reader, p);
+                        break;
+                    case "_embedded":
+                        readEmbedded(reader, gson, entryType, consumer, p);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        }
+
+        return p;
+    }
+
+    private static void readLinks(JsonReader reader, Page p) throws IOException
+    {
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            if ("next".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT)
+            {
+                reader.beginObject();
+                while (reader.hasNext())
+                {
+                    if ("href".equals(reader.nextName()) && reader.peek() == JsonToken.STRING)
+                    {
+                        p.nextUrl = reader.nextString();
+                    }
+                    else
+                    {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static <T> void readEmbedded(JsonReader reader, Gson gson, Type entryType, Consumer<T> consumer, Page p)
+        throws IOException
+    {
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            if ("entries".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY)
+            {
+                reader.beginArray();
+                while (reader.hasNext())
+                {
+                    T entry = gson.fromJson(reader, entryType);
+                    p.entryCount++;
+                    consumer.accept(entry);
+                }
+                reader.endArray();
+            }
+            else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+/**
+ * Process wide Desk.com rate limit governor, one instance per Desk.com site. Every request takes a token before it
+ * goes out and every response refreshes the bucket from the X-Rate-Limit-* headers, so concurrent fetchers share the
+ * quota and are paced evenly across the rate window instead of sleeping after a 429. Until a response has told us
+ * the limit only one request is sent at a time, so a burst of fetchers starting together doesn't overrun it.
+ */
+public final class DeskRateGovernor implements Interceptor
+{
+    // number of times a 429 response is retried before it is handed back to the caller
+    private static final int MAX_THROTTLED_RETRIES = 3;
+
+    // default window used until the first response tells us the real reset time
+    private static final long DEFAULT_WINDOW_MILLIS = 60000L;
+
+    // how often the requests held until the limit is known check for it
+    private static final long UNKNOWN_LIMIT_WAIT_MILLIS = 50L;
+
+    private static final Map<String, DeskRateGovernor> _governors = new ConcurrentHashMap<>();
+
+    private final String _hostname;
+
+    // bucket state, guarded by this
+    private int _limit = -1;
+    private int _remaining = -1;
+    private int _inFlight = 0;
+    private long _resetAt = 0;
+    private long _nextSlot = 0;
+
+    private DeskRateGovernor(String hostname)
+    {
+        _hostname = hostname;
+    }
+
+    /**
+     * Returns the governor for the Desk.com site, the rate limit is per site so all clients of a site share it.
+     *
+     * @param hostname
+     *            The Desk.com hostname.
+     * @return The governor for the site.
+     */
+    public static DeskRateGovernor forHost(String hostname)
+    {
+        return _governors.computeIfAbsent(hostname.toLowerCase(), DeskRateGovernor::new);
+    }
+
+    @Override
+    public Response intercept(Interceptor.Chain chain) throws IOException
+    {
+        Request request = chain.request();
+
+        for (int attempt = 0;; attempt++)
+        {
+            acquire();
+
+            Response response;
+            try
+            {
+                response = chain.proceed(request);
+            }
+            finally
+            {
+                release();
+            }
+
+            update(response.code(), response.header(DeskUtil.DESK_HEADER_LIMIT_LIMIT),
+                response.header(DeskUtil.DESK_HEADER_LIMIT_REMAINING), response.header(DeskUtil.DESK_HEADER_LIMIT_RESET));
+
+            // the bucket is now empty until the reset, the next acquire() waits for it
+            if (response.code() != 429 || attempt >= MAX_THROTTLED_RETRIES)
+            {
+                return response;
+            }
+
+            response.body().close();
+        }
+    }
+
+    /**
+     * Blocks until a request may be sent without exceeding the rate limit.
+     */
+    public void acquire() throws IOException
+    {
+        long wait;
+        while ((wait = reserve()) > 0)
+        {
+            try
+            {
+                Thread.sleep(wait);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the Desk.com rate limit");
+            }
+        }
+    }
+
+    /**
+     * Marks a request acquired with acquire() as finished, used when the request is not sent through the interceptor.
+     */
+    public synchronized void release()
+    {
+        _inFlight = Math.max(0, _inFlight - 1);
+    }
+
+    /**
+     * Refreshes the bucket from the rate limit headers of a response.
+     *
+     * @param code
+     *            The HTTP response code.
+     * @param limit
+     *            The X-Rate-Limit-Limit header value.
+     * @param remaining
+     *            The X-Rate-Limit-Remaining header value.
+     * @param reset
+     *            The X-Rate-Limit-Reset header value (seconds).
+     */
+    public synchronized void update(int code, String limit, String remaining, String reset)
+    {
+        long now = System.currentTimeMillis();
+        try
+        {
+            if (limit != null)
+            {
+                _limit = Integer.parseInt(limit.trim());
+            }
+            if (remaining != null)
+            {
+                // requests still in flight have already been counted by us, but not yet by Desk.com
+                _remaining = Math.max(0, Integer.parseInt(remaining.trim()) - _inFlight);
+            }
+            if (reset != null)
+            {
+                _resetAt = now + Integer.parseInt(reset.trim()) * 1000L;
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            Utils.log("[DESK] Unable to parse rate limit headers: " + e.getMessage());
+        }
+
+        if (code == 429)
+        {
+            Utils.log(String.format("[DESK] API Limit Reached for [%s]. Holding requests for %d ms.", _hostname,
+                Math.max(0, _resetAt - now)));
+            _remaining = 0;
+        }
+    }
+
+    /*
+     * Takes a token if one is due, otherwise returns the number of milliseconds to wait before trying again.
+     */
+    private synchronized long reserve()
+    {
+        long now = System.currentTimeMillis();
+
+        // the window rolled over, refill from the last known limit
+        if (now >= _resetAt)
+        {
+            if (_limit < 0)
+            {
+                // nothing known yet, let a single request through and hold the others until its headers are in
+                if (_inFlight > 0)
+                {
+                    return UNKNOWN_LIMIT_WAIT_MILLIS;
+                }
+                _inFlight++;
+                return 0;
+            }
+            _remaining = _limit;
+            _resetAt = now + DEFAULT_WINDOW_MILLIS;
+            _nextSlot = now;
+        }
+
+        if (_remaining <= 0)
+        {
+            return Math.max(1, _resetAt - now);
+        }
+
+        // spread the remaining tokens evenly over what is left of the window
+        long interval = (_resetAt - now) / _remaining;
+        long slot = Math.max(now, _nextSlot);
+        if (slot > now)
+        {
+            return slot - now;
+        }
+
+        _nextSlot = now + interval;
+        _remaining--;
+        _inFlight++;
+        return 0;
+    }
+}
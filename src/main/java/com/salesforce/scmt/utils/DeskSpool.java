@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.utils;
+
+import static java.lang.System.getenv;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local, append-only spool of fetched Desk.com pages, one file per migration and object type. Every page is appended
+ * as a single line, "key\tjson\n", where the key identifies the cursor and page it was requested with. When a job is
+ * restarted (redelivered after a crash or dyno restart) the pages it already fetched are replayed from disk instead
+ * of being requested from Desk.com again.
+ *
+ * The spool is enabled by setting DESK_SPOOL_DIR to a writable directory. DESK_SPOOL_SIZE caps the bytes held by all
+ * the spools of the process (512MB by default), pages fetched past it are not spooled.
+ */
+public final class DeskSpool
+{
+    private static final String DESK_SPOOL_DIR = "DESK_SPOOL_DIR";
+    private static final String DESK_SPOOL_SIZE = "DESK_SPOOL_SIZE";
+    private static final long DEFAULT_SIZE = 512L * 1024 * 1024;
+    private static final long _maxBytes = getSize();
+
+    // bytes held by the open spools
+    private static final AtomicLong _totalBytes = new AtomicLong();
+
+    // open spools by file path, so every fetcher in the process appends through the same instance
+    private static final Map<String, DeskSpool> _spools = new HashMap<>();
+
+    private final File _file;
+    private final Map<String, long[]> _index = new HashMap<>();
+    private FileOutputStream _out;
+    private long _length;
+
+    // set once a page did not fit the size, so it is logged only once
+    private boolean _full;
+
+    private DeskSpool(File file) throws IOException
+    {
+        _file = file;
+        load();
+        _out = new FileOutputStream(_file, true);
+        _totalBytes.addAndGet(_length);
+    }
+
+    /**
+     * Opens (or creates) the spool for a migration and object type.
+     *
+     * @param migrationId
+     *            The Desk_Migration__c id.
+     * @param objectType
+     *            The object being migrated.
+     * @return The spool, or null if spooling is not enabled or there is no migration id.
+     */
+    public static DeskSpool open(String migrationId, String objectType) throws IOException
+    {
+        String dir = getenv(DESK_SPOOL_DIR);
+        if (dir == null || dir.isEmpty() || migrationId == null)
+        {
+            return null;
+        }
+
+        File file = new File(new File(dir, migrationId.replaceAll("[^a-zA-Z0-9]", "_")),
+            objectType.replaceAll("[^a-zA-Z0-9]", "_") + ".spool");
+
+        synchronized (DeskSpool.class)
+        {
+            DeskSpool spool = _spools.get(file.getAbsolutePath());
+            if (spool == null)
+            {
+                file.getParentFile().mkdirs();
+                spool = new DeskSpool(file);
+                _spools.put(file.getAbsolutePath(), spool);
+                Utils.log(String.format("[SPOOL] Opened [%s] with [%d] pages", file, spool._index.size()));
+            }
+            return spool;
+        }
+    }
+
+    public synchronized boolean contains(String key)
+    {
+        return _index.containsKey(key);
+    }
+
+    /**
+     * Appends a page to the spool, a later append with the same key replaces the earlier one. The page is dropped
+     * when the spools are full.
+     */
+    public synchronized void append(String key, String json) throws IOException
+    {
+        if (_out == null)
+        {
+            return;
+        }
+
+        byte[] prefix = (key + "\t").getBytes(StandardCharsets.UTF_8);
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        long bytes = prefix.length + body.length + 1;
+
+        // reserve the bytes first, the spools of the other objects grow concurrently
+        if (_totalBytes.addAndGet(bytes) > _maxBytes)
+        {
+            _totalBytes.addAndGet(-bytes);
+            if (!_full)
+            {
+                _full = true;
+                Utils.log(String.format("[SPOOL] [%s] reached the spool size of [%d] bytes, no longer spooling",
+                    _file, _maxBytes));
+            }
+            return;
+        }
+
+        try
+        {
+            _out.write(prefix);
+            _out.write(body);
+            _out.write('\n');
+            _out.flush();
+        }
+        catch (IOException e)
+        {
+            _totalBytes.addAndGet(-bytes);
+            throw e;
+        }
+
+        _index.put(key, new long[] { _length + prefix.length, body.length });
+        _length += bytes;
+    }
+
+    /**
+     * Returns the spooled page for the key, or null if the page has not been spooled.
+     */
+    public synchronized String read(String key) throws IOException
+    {
+        long[] entry = _index.get(key);
+        if (entry == null)
+        {
+            return null;
+        }
+
+        byte[] body = new byte[(int) entry[1]];
+        try (RandomAccessFile raf = new RandomAccessFile(_file, "r"))
+        {
+            raf.seek(entry[0]);
+            raf.readFully(body);
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deletes the spool once the migration of the object has completed.
+     */
+    public void delete()
+    {
+        synchronized (DeskSpool.class)
+        {
+            synchronized (this)
+            {
+                try
+                {
+                    if (_out != null)
+                    {
+                        _out.close();
+                    }
+                }
+                catch (IOException e)
+                {
+                    Utils.logException(e);
+                }
+                _out = null;
+                _index.clear();
+                _file.delete();
+                _totalBytes.addAndGet(-_length);
+                _length = 0;
+                _spools.remove(_file.getAbsolutePath());
+            }
+        }
+    }
+
+    private static long getSize()
+    {
+        try
+        {
+            return (getenv(DESK_SPOOL_SIZE) == null ? DEFAULT_SIZE : Long.parseLong(getenv(DESK_SPOOL_SIZE)));
+        }
+        catch (NumberFormatException e)
+        {
+            Utils.log(String.format("Invalid value for [%s], defaulting to %d", DESK_SPOOL_SIZE, DEFAULT_SIZE));
+            return DEFAULT_SIZE;
+        }
+    }
+
+    /*
+     * Builds the index of an existing spool file, an incomplete last line (crash during a write) is dropped.
+     */
+    private void load() throws IOException
+    {
+        if (!_file.exists())
+        {
+            return;
+        }
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(_file)))
+        {
+            StringBuilder key = new StringBuilder();
+            boolean inKey = true;
+            long pos = 0;
+            long bodyStart = 0;
+            int b;
+
+            while ((b = in.read()) != -1)
+            {
+                if (inKey)
+                {
+                    if (b == '\t')
+                    {
+                        inKey = false;
+                        bodyStart = pos + 1;
+                    }
+                    else
+                    {
+                        key.append((char) b);
+                    }
+                }
+                else if (b == '\n')
+                {
+                    _index.put(key.toString(), new long[] { bodyStart, pos - bodyStart });
+                    key.setLength(0);
+                    inKey = true;
+                    _length = pos + 1;
+                }
+                pos++;
+            }
+        }
+
+        // drop the partial record so new appends start on a clean line
+        if (_length < _file.length())
+        {
+            try (RandomAccessFile raf = new RandomAccessFile(_file, "rw"))
+            {
+                raf.setLength(_length);
+            }
+        }
+    }
+}
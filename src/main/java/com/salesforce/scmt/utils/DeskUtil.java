@@ -15,30 +15,45 @@
 
 package com.salesforce.scmt.utils;
 
+import static com.salesforce.scmt.utils.DeskJsonMapUtil.deskChatInteractionsToSalesforceJsonMaps;
 import static com.salesforce.scmt.utils.DeskJsonMapUtil.deskInteractionToSalesforceJsonMaps;
 import static com.salesforce.scmt.utils.DeskJsonMapUtil.deskLabelToSalesforceTopicJsonMap;
+import static java.lang.System.getenv;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.security.DigestInputStream;
 import java.security.InvalidParameterException;
+import java.security.MessageDigest;
 import java.security.spec.InvalidParameterSpecException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,7 +62,6 @@ import com.desk.java.apiclient.model.ApiResponse;
 import com.desk.java.apiclient.model.Attachment;
 import com.desk.java.apiclient.model.CustomField;
 import com.desk.java.apiclient.model.CustomFieldDataType;
-import com.desk.java.apiclient.model.CustomFieldType;
 import com.desk.java.apiclient.model.Group;
 import com.desk.java.apiclient.model.Interaction;
 import com.desk.java.apiclient.model.Interaction.InteractionType;
@@ -66,7 +80,9 @@ import com.desk.java.apiclient.util.StringUtils;
 import com.google.gson.reflect.TypeToken;
 import com.salesforce.scmt.model.DeployResponse;
 import com.salesforce.scmt.rabbitmq.RabbitConfiguration;
+import com.salesforce.scmt.service.BatchPacker;
 import com.salesforce.scmt.service.DeskService;
+import com.salesforce.scmt.service.QueryCursor;
 import com.salesforce.scmt.service.SalesforceService;
 import com.salesforce.scmt.utils.SalesforceConstants.AttachmentFields;
 import com.salesforce.scmt.utils.SalesforceConstants.CaseCommentFields;
@@ -86,6 +102,7 @@ import com.sforce.soap.partner.fault.ExceptionCode;
 import com.sforce.soap.partner.fault.UnexpectedErrorFault;
 import com.sforce.soap.partner.sobject.SObject;
 import com.squareup.okhttp.Headers;
+import com.squareup.okhttp.ResponseBody;
 
 import oauth.signpost.exception.OAuthCommunicationException;
 import oauth.signpost.exception.OAuthExpectationFailedException;
@@ -207,15 +224,34 @@ public final class DeskUtil
     }
 
     public static final String DESK_MESSAGE_ATTACHMENT_PREFIX = "Desk-Case-Attachments-";
+    public static final String DESK_MESSAGE_FAILURE_PREFIX = "Desk-Failed-";
     
-    private static final String DESK_HEADER_LIMIT_LIMIT = "X-Rate-Limit-Limit";
-    private static final String DESK_HEADER_LIMIT_REMAINING = "X-Rate-Limit-Remaining";
+    public static final String DESK_HEADER_LIMIT_LIMIT = "X-Rate-Limit-Limit";
+    public static final String DESK_HEADER_LIMIT_REMAINING = "X-Rate-Limit-Remaining";
     public static final String DESK_HEADER_LIMIT_RESET = "X-Rate-Limit-Reset";
     
-    private static final SimpleDateFormat _dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT);
-    
     private static final Pattern SINCE_ID_PATTERN = Pattern.compile(".*since_id=(\\d+).*");
 
+    // read buffer size of the attachment downloads
+    private static final int ATTACHMENT_READ_BUFFER = 64 * 1024;
+
+    // environment variable holding the size above which attachments are streamed into a ContentVersion
+    private static final String DESK_ATTACHMENT_STREAM_SIZE = "DESK_ATTACHMENT_STREAM_SIZE";
+    private static final long DEFAULT_ATTACHMENT_STREAM_SIZE = 10L * 1024 * 1024;
+
+    // environment variable / config key holding the number of concurrent interaction windows
+    private static final String DESK_SHARD_COUNT = "DESK_SHARD_COUNT";
+    private static final String CONFIG_SHARD_COUNT = "shard_count";
+
+    // max number of mapped interaction pages buffered per window before the window workers block
+    private static final int WINDOW_QUEUE_PAGES = 4;
+
+    // number of interaction pages merged between bulk job and migration status checks in the windowed extraction
+    private static final int WINDOW_STATUS_PAGES = 1000;
+
+    // relationship field every interaction record (EmailMessage, CaseComment, FeedItem) uses to refer to its case
+    private static final String INTERACTION_PARENT_FIELD = CaseCommentFields.Parent;
+
     // example date: 2014-12-08T04:58:01Z,
     public static final String DESK_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
 
@@ -243,6 +279,12 @@ public final class DeskUtil
     private DeskService _deskService;
 
     private List<CustomField> _deskCustomFields;
+
+    // custom field plans by Salesforce object name, compiled once per migration
+    private Map<String, DeskCustomFieldPlan> _customFieldPlans = new HashMap<>();
+
+    // attachments already streamed into ContentVersions, so a retried page doesn't upload them again
+    private final Set<String> _streamedAttachments = ConcurrentHashMap.newKeySet();
     
     /**
      * Private constructor for utility class.
@@ -392,14 +434,34 @@ public final class DeskUtil
 
     public CustomField getDeskCustomField(String name) throws Exception
     {
-        for (CustomField cf : getDeskCustomFields()) {
-            if (cf.getName().equals(name)) {
+        for (String sfObjectName : new String[] { "Case", "Contact", "Account" }) {
+            CustomField cf = getCustomFieldPlan(sfObjectName).get(name);
+            if (cf != null) {
                 return cf;
             }
         }
         return null;
     }
 
+    /**
+     * Returns the compiled custom field plan of a Salesforce object, the plan is built on first use and reused for
+     * every record of the migration.
+     *
+     * @param sfObjectName
+     *            The Salesforce object name (Account, Contact or Case).
+     * @return The custom field plan.
+     * @throws Exception
+     */
+    public synchronized DeskCustomFieldPlan getCustomFieldPlan(String sfObjectName) throws Exception
+    {
+        DeskCustomFieldPlan plan = _customFieldPlans.get(sfObjectName);
+        if (plan == null) {
+            plan = DeskCustomFieldPlan.compile(getDeskCustomFields(), sfObjectName);
+            _customFieldPlans.put(sfObjectName, plan);
+        }
+        return plan;
+    }
+
     public List<CustomField> getDeskCustomFields() throws Exception
     {
         if (_deskCustomFields == null) {
@@ -710,8 +772,7 @@ public final class DeskUtil
         Utils.log("CF Name: " + cf.getName());
 
         // get the Salesforce object name by the Desk.com field 'type' (not data type, but object type)
-        String sfObjectName = (cf.getType() == CustomFieldType.COMPANY ? "Account"
-            : (cf.getType() == CustomFieldType.CUSTOMER ? "Contact" : "Case"));
+        String sfObjectName = DeskCustomFieldPlan.getSalesforceObjectName(cf);
 
         // set the full name, which includes object
         sfCF.setFullName(sfObjectName + ".Desk_" + cf.getName() + "__c");
@@ -886,22 +947,24 @@ public final class DeskUtil
         String query = String.format("Select %s, %s, %s From %s Where %s != null Or %s = '%s'",
                 UserFields.Id, UserFields.DeskId, UserFields.Email, SalesforceConstants.OBJ_USER, UserFields.DeskId,
                 UserFields.Email, config.get("user_email"));
-        List<SObject> sfUsers = getSalesforceService().query(query);
-
         String currentUserId = null;
         String unassignedQueue = getSalesforceService().getQueues().get(SalesforceConstants.QueueUnassigned);
 
-        //map deskId to sfdcId
+        //map deskId to sfdcId, the users are streamed page by page and only their ids are kept
         Map<Long, String> deskIdToSfdcId = new HashMap<Long, String>();
-        for (SObject u : sfUsers)
+        try (QueryCursor sfUsers = getSalesforceService().queryCursor(query, true))
         {
-            if (u.getField(UserFields.Email).equals(config.get("user_email")))
-                currentUserId = (String) u.getField(UserFields.Id);
-
-            if (u.getField(UserFields.DeskId) != null) {
-                // better way to not lose precision? Values come back from sfdc as sci notation eg. 2.3091629E7
-                long deskId = new BigDecimal(String.valueOf(u.getField(UserFields.DeskId))).longValue();
-                deskIdToSfdcId.put(deskId, (String) u.getField(UserFields.Id));
+            while (sfUsers.hasNext())
+            {
+                SObject u = sfUsers.next();
+                if (u.getField(UserFields.Email).equals(config.get("user_email")))
+                    currentUserId = (String) u.getField(UserFields.Id);
+
+                if (u.getField(UserFields.DeskId) != null) {
+                    // better way to not lose precision? Values come back from sfdc as sci notation eg. 2.3091629E7
+                    long deskId = new BigDecimal(String.valueOf(u.getField(UserFields.DeskId))).longValue();
+                    deskIdToSfdcId.put(deskId, (String) u.getField(UserFields.Id));
+                }
             }
         }
 
@@ -962,9 +1025,8 @@ public final class DeskUtil
                         if (recList.size() >= SalesforceConstants.BULK_MAX_SIZE && !SalesforceConstants.READ_ONLY)
                         {
                             // create the group members
+                            // the members are counted from the job results by the ClosedWorker
                             dr.addDeployResponse(createGroupMembers(jobId, recList));
-                            //update dr success count
-                            dr.incrementSuccessCount(recList.size());
 
                             // clear the records that were bulk inserted
                             recList.subList(0, SalesforceConstants.BULK_MAX_SIZE).clear();
@@ -1014,8 +1076,6 @@ public final class DeskUtil
         if (!recList.isEmpty() && !SalesforceConstants.READ_ONLY)
         {
             dr.addDeployResponse(createGroupMembers(jobId, recList));
-            //update dr success count
-            dr.incrementSuccessCount(recList.size());
         }
 
         // close the bulk job
@@ -1116,8 +1176,8 @@ public final class DeskUtil
         boolean delta = (startId != null);
         
         // declare the response objects at this scope so I can check them in the do/while loop
-        Response<ApiResponse<Interaction>> resp = null;
-        ApiResponse<Interaction> apiResp = null;
+        Response<ResponseBody> resp = null;
+        DeskPageReader.Page apiResp = null;
 
         // deploy response
         DeployResponse dr = new DeployResponse();
@@ -1156,6 +1216,15 @@ public final class DeskUtil
                 updateMigrationStatus(DeskMigrationFields.StatusRunning, "", null, jobId);
         }
         
+        // split the id range into windows walked concurrently when configured
+        int windowCount = Utils.getIntSetting(config, CONFIG_SHARD_COUNT, DESK_SHARD_COUNT, 1);
+        if (windowCount > 1)
+        {
+            Set<Long> fiveHundreds = Collections.synchronizedSet(new HashSet<Long>());
+            dr = migrateDeskInteractionWindows(nextRecordId, windowCount, soTypes, recLists, jobIds, fiveHundreds, dr);
+            return completeDeskInteractions(soTypes, recLists, jobIds, fiveHundreds, dr, startId);
+        }
+
         // get a service
         InteractionService service = getDeskClient().interactions();
 
@@ -1184,7 +1253,8 @@ public final class DeskUtil
 //                }
 
                 // retrieve the records synchronously
-                resp = service.getInteractions(DESK_PAGE_SIZE_INTERACTION, nextRecordId).execute();
+                resp = service.streamInteractions(DESK_PAGE_SIZE_INTERACTION, nextRecordId,
+                    DeskJsonMapUtil.INTERACTION_FIELDS).execute();
 
                 // check for success
                 if (resp.isSuccess())
@@ -1196,25 +1266,36 @@ public final class DeskUtil
                     // log the Desk.com rate limiting headers
                     DeskUtil.logDeskRateHeaders(resp.headers());
 
-                    // get the response body
-                    apiResp = resp.body();
-                    
-                    // Utils.log("Next URL: " + apiResp.getLinks().getNext().getUrl());
-                    // get the since_id from the links
-                    Matcher mSinceId = SINCE_ID_PATTERN.matcher(apiResp.getLinks().getNext().getUrl());
-                    if (mSinceId.find())
-                    {
-                        // Utils.log("Match: " + mSinceId.group(1));
-                        nextRecordId = Long.valueOf(mSinceId.group(1));
-                    }
-                    
-                    // convert the desk interaction to Salesforce SObjects
+                    // convert the desk interactions to Salesforce JSON maps while the page is being read
                     // multiple CaseComment objects will be created if we need to split the note body over multiple
-                    // CaseComment records
+                    // CaseComment records, chat messages are combined per case once the whole page is read
 //                     List<SObject> recList = deskInteractionToSalesforceSObjects(apiResp.getEntries(), dr);
-                    if(apiResp.getEntries() != null)
+                    // the page is mapped into its own buffer, a read that fails part way is retried without the
+                    // records it already mapped
+                    final InteractionPage page = new InteractionPage(soTypes);
+                    final Map<Long, List<Interaction>> chatInteractionsByCase = new HashMap<>();
+                    apiResp = DeskPageReader.read(resp.body().charStream(), getDeskClient().getGson(),
+                        Interaction.class, (Interaction interaction) -> deskInteractionToSalesforceJsonMaps(this,
+                            page.recLists, interaction, chatInteractionsByCase, page.dr));
+                    deskChatInteractionsToSalesforceJsonMaps(this, page.recLists, chatInteractionsByCase, page.dr);
+
+                    // the whole page was read, merge it
+                    dr.addDeployResponse(page.dr);
+                    for (String soType : soTypes)
+                    {
+                        recLists.get(soType).addAll(page.recLists.get(soType));
+                    }
+
+                    // Utils.log("Next URL: " + apiResp.getNextUrl());
+                    // get the since_id from the links
+                    if (apiResp.getNextUrl() != null)
                     {
-                    	deskInteractionToSalesforceJsonMaps(this, recLists, apiResp.getEntries(), dr);
+                        Matcher mSinceId = SINCE_ID_PATTERN.matcher(apiResp.getNextUrl());
+                        if (mSinceId.find())
+                        {
+                            // Utils.log("Match: " + mSinceId.group(1));
+                            nextRecordId = Long.valueOf(mSinceId.group(1));
+                        }
                     }
                     
 //                    // loop through the objects and add to the holder
@@ -1243,23 +1324,13 @@ public final class DeskUtil
                         // loop through the object types
                         for (String soType : soTypes)
                         {
-                            while(recLists.get(soType).size() > 0 && !SalesforceConstants.READ_ONLY)
+                            if (!recLists.get(soType).isEmpty() && !SalesforceConstants.READ_ONLY)
                             {
-                                // Email Messages will submit a batch every 3k records in an attempt to not hit the 10mb limit
-                                int batchMaxSize = (SalesforceConstants.OBJ_EMAIL_MESSAGE.equalsIgnoreCase(soType) ? 100 :
-                                    SalesforceConstants.BULK_MAX_SIZE);
-                                
-                                // get the upper boundary of the record list
-                                int iMax = (recLists.get(soType).size() > batchMaxSize ? batchMaxSize : recLists.get(soType).size());
+                                // create the records, in batches filled up to the bulk limits
+                                addInteractionBatches(jobIds.get(soType), recLists.get(soType));
 
-                                // create the records
-                                getSalesforceService().addBatchToJob(jobIds.get(soType), recLists.get(soType).subList(0, iMax));
-                                
                                 //reset bulkCount
                                 retryBulkCount = 0;
-
-                                // clear the records that were inserted
-                                recLists.get(soType).subList(0, iMax).clear();
                             }
                         }
 
@@ -1304,9 +1375,7 @@ public final class DeskUtil
 
                         // check for 'too many requests' response
                         case 429:
-                            // get the reset seconds and sleep for that many seconds
-                            Thread.sleep(Integer.parseInt(resp.headers().get(DESK_HEADER_LIMIT_RESET)) * 1000);
-
+                            // the rate governor holds the retry until the limit resets
                             // re-queue or retry
                             bRetry = true;
                             break;
@@ -1410,26 +1479,25 @@ public final class DeskUtil
         // continue to loop while the request is successful and there are subsequent pages of results
         while (bRetry || (resp.isSuccess() && !bRequeue && apiResp.hasNextPage() && SalesforceConstants.RETRIEVE_ALL));
         
+        return completeDeskInteractions(soTypes, recLists, jobIds, fiveHundreds, dr, startId);
+    }
+
+    /*
+     * Uploads the remaining interaction records, closes the bulk jobs and reports the migration as complete.
+     */
+    private DeployResponse completeDeskInteractions(Set<String> soTypes, Map<String, List<Map<String, Object>>> recLists,
+        Map<String, String> jobIds, Set<Long> fiveHundreds, DeployResponse dr, Long startId) throws Exception
+    {
         // loop through the object types
         for (String soType : soTypes)
         {
             // Bypass process builder in the trial org
             getSalesforceService().updateCustomLabel("BypassProcessBuilder", "1");
 
-            while (recLists.get(soType).size() > 0 && !SalesforceConstants.READ_ONLY)
+            if (!recLists.get(soType).isEmpty() && !SalesforceConstants.READ_ONLY)
             {
-                // Email Messages will submit a batch every 3k records in an attempt to not hit the 10mb limit
-                int batchMaxSize = (SalesforceConstants.OBJ_EMAIL_MESSAGE.equalsIgnoreCase(soType) ? 100
-                    : SalesforceConstants.BULK_MAX_SIZE);
-
-                // get the upper boundary of the record list
-                int iMax = (recLists.get(soType).size() > batchMaxSize ? batchMaxSize : recLists.get(soType).size());
-
-                // create the records
-                getSalesforceService().addBatchToJob(jobIds.get(soType), recLists.get(soType).subList(0, iMax));
-
-                // clear the records that were inserted
-                recLists.get(soType).subList(0, iMax).clear();
+                // create the records, in batches filled up to the bulk limits
+                addInteractionBatches(jobIds.get(soType), recLists.get(soType));
             }
 
             // close the current job
@@ -1451,274 +1519,902 @@ public final class DeskUtil
         return dr;
     }
 
-
-    public byte[] getDeskAttachment(long caseId, String attachmentUrl)
-        throws OAuthCommunicationException, OAuthExpectationFailedException, OAuthMessageSignerException, IOException,
-        InvalidParameterSpecException, NumberFormatException, InterruptedException
+    /*
+     * Windowed interaction extraction, the id range is split into windows which independent since_id cursors walk
+     * concurrently, each stopping at the start of the next window. The workers map their pages and hand them to this
+     * thread through a bounded queue, which feeds the bulk jobs.
+     */
+    private DeployResponse migrateDeskInteractionWindows(long lower, int windowCount, Set<String> soTypes,
+        Map<String, List<Map<String, Object>>> recLists, Map<String, String> jobIds, Set<Long> fiveHundreds,
+        DeployResponse dr) throws Exception
     {
-        // make sure to strip the trailing '/' from the URL
-        String attachmentUrlSigned = getDeskClient().signUrl(
-            (attachmentUrl.endsWith("/") ? attachmentUrl.substring(0, attachmentUrl.length() - 1) : attachmentUrl));
-        BufferedInputStream in = null;
-        ByteArrayOutputStream out = null;
-        byte[] ret = null;
-        boolean bRetry = false;
-        int retryCount = 0;
+        long upper = getInteractionIdCeiling(lower);
+        long span = Math.max(1, (upper - lower + windowCount - 1) / windowCount);
+
+        Utils.log(String.format("Windowed interaction extraction: [%d] windows over [%d, %d), the last one open ended",
+            windowCount, lower, upper));
+
+        BlockingQueue<InteractionPage> pages = new LinkedBlockingQueue<>(windowCount * WINDOW_QUEUE_PAGES);
+        ExecutorService pool = Executors.newFixedThreadPool(windowCount);
+        List<Future<Void>> windows = new ArrayList<>();
+
+        long lo = lower;
+        do
+        {
+            final long from = lo;
+            final long cursor = (lo == lower ? lower : lo - 1);
+
+            // the last window stays open, so the interactions created while the migration runs are included
+            final long to = (lo + span >= upper ? Long.MAX_VALUE : lo + span);
+            windows.add(pool.submit(() -> fetchInteractionWindow(from, to, cursor, soTypes, fiveHundreds, pages)));
+            lo += span;
+        }
+        while (lo < upper);
+        pool.shutdown();
+
+        // one packer per bulk job, batches fill up across pages
+        Map<String, BatchPacker> packers = new HashMap<>();
+        for (String soType : soTypes)
+        {
+            packers.put(soType, getSalesforceService().newBatchPacker(jobIds.get(soType), getInteractionParentField()));
+        }
+
+        int pageCount = 0;
         try
         {
-            do
+            // drain on this thread, the record lists and bulk jobs are not thread-safe
+            while (!pool.isTerminated() || !pages.isEmpty())
             {
-                // reset retry flag
-                bRetry = false;
-                
-                long startTime = Calendar.getInstance().getTimeInMillis();
+                InteractionPage page = pages.poll(1, TimeUnit.SECONDS);
+                if (page == null) continue;
 
-                /**
-                 * Perform a 'GET' request for the attachment URL on Desk.com, this will return an Amazon S3 URL as the
-                 * redirect, however we do not want to follow the redirect. We do not want to follow because the
-                 * Desk.com URL requires authentication that would be passed to Amazon and Amazon will reject it.
-                 */
-                
-                // create the URL
-                URL url = new URL(attachmentUrlSigned);
-                Utils.log(String.format("--> GET %s", attachmentUrlSigned));
-                
-                // create the connection
-                HttpURLConnection connDesk = (HttpURLConnection) url.openConnection();
-                
-                // do not follow the redirect
-                connDesk.setInstanceFollowRedirects(false);
-                
-                // set special override header
-                connDesk.setRequestProperty("x-desk-app", "wowed");
-                
-                // log the response
-                Utils.log(String.format("<-- %s %s %s (%dms, %d-byte body)", url.getProtocol().toUpperCase(),
-                    connDesk.getResponseCode(), connDesk.getResponseMessage(),
-                    (Calendar.getInstance().getTimeInMillis() - startTime), connDesk.getContentLength()));
-                
-                // if the response is 'HTTPS 401 Unauthorized' do not log the headers
-                if (connDesk.getResponseCode() != 401)
+                dr.addDeployResponse(page.dr);
+                for (String soType : soTypes)
                 {
-                    DeskUtil.logDeskRateHeaders(connDesk.getHeaderFields());
+                    recLists.get(soType).addAll(page.recLists.get(soType));
+                    packInteractions(packers.get(soType), recLists.get(soType));
                 }
 
-                // debug statements
-                // Utils.log(connDesk.getHeaderFields());
-                // Utils.log("HTTP Response Code: " + connDesk.getResponseCode());
-                // Utils.log("HTTP Response Message: " + connDesk.getResponseMessage());
-                
-                // handle HTTP response code
-                switch (connDesk.getResponseCode())
+                // the windows can't be re-queued from a single start id, roll over to fresh jobs instead
+                if (++pageCount % WINDOW_STATUS_PAGES == 0)
                 {
-                    // check for 'too many requests' response
-                    case 429:
-                        // get the reset seconds and sleep for that many seconds
-                        Utils.log(String.format("[DESK] API Limit Reached. Sleeping for %s seconds.",
-                            connDesk.getHeaderField(DESK_HEADER_LIMIT_RESET)));
-                        Thread.sleep(Integer.parseInt(connDesk.getHeaderField(DESK_HEADER_LIMIT_RESET)) * 1000);
-
-                        // retry
-                        retryCount++;
-                        if (retryCount > 5)
-                        {
-                            Utils.log("Max retry count exceeded. Returning null for attachment content.");
-                            return null;
-                        }
-                        else
+                    for (String soType : soTypes)
+                    {
+                        if (getSalesforceService().createNewJob(jobIds.get(soType)))
                         {
-                            bRetry = true;
+                            // the open batch goes to the old job, the pending records to the new one
+                            BatchPacker packer = packers.remove(soType);
+                            try
+                            {
+                                packer.flush();
+                            }
+                            finally
+                            {
+                                packer.close();
+                            }
+                            getSalesforceService().closeBulkJob(jobIds.get(soType), getDeskService().getMigrationId(),
+                                soType);
+                            jobIds.put(soType, getSalesforceService().createBulkJob(soType, null, OperationEnum.insert));
+                            packers.put(soType, getSalesforceService().newBatchPacker(jobIds.get(soType),
+                                getInteractionParentField()));
                         }
+                    }
 
-                        break;
-                    // The 'GET' request will return an HTTP 302 response (Moved Temporarily) when it is successful.
-                    case HttpURLConnection.HTTP_MOVED_TEMP:
-                        // do nothing, this is the expected result
-                        break;
-                    default:
-                        throw new InvalidParameterSpecException(String.format(
-                            "Received HTTP Response Code %d (URL: %s)",
-                            connDesk.getResponseCode(), attachmentUrlSigned));
+                    Utils.log(String.format("Interaction Pages: [%d]", pageCount));
+                    updateMigrationStatus(DeskMigrationFields.StatusRunning, "Interactions", dr,
+                        jobIds.get(SalesforceConstants.OBJ_EMAIL_MESSAGE));
+                    dr = new DeployResponse();
                 }
-                
-                // only execute if we are not going to retry
-                if (!bRetry)
-                {
-                    // get the amazon URL from the 'Location' response header
-                    String amazonS3Url = connDesk.getHeaderField("Location");
-                    
-                    // set the start time for the attachment request
-                    startTime = Calendar.getInstance().getTimeInMillis();
-                    
-                    // create the URL
-                    URL amazonUrl = new URL(amazonS3Url);
-                    Utils.log(String.format("--> GET %s", amazonS3Url));
-                    
-                    // create the connection
-                    HttpURLConnection connAmazon = (HttpURLConnection) amazonUrl.openConnection();
+            }
 
-                    // open the input stream with the Amazon S3 URL
-                    in = new BufferedInputStream(connAmazon.getInputStream());
-    
-                    // open the output stream to the file
-                    out = new ByteArrayOutputStream();
-    
-                    // define the byte array
-                    final byte buf[] = new byte[1024];
-                    int size;
-    
-                    // read the data in 1024 byte chunks
-                    while ((size = in.read(buf, 0, 1024)) != -1)
-                    {
-                        // write the output data
-                        out.write(buf, 0, size);
-                    }
-    
-                    // write the output byte array to the return variable
-                    ret = out.toByteArray();
+            // surface the first window failure
+            for (Future<Void> window : windows)
+            {
+                window.get();
+            }
 
-                    // log the response
-                    Utils.log(String.format("<-- %s %s %s (%dms, %d-byte body)", url.getProtocol().toUpperCase(),
-                        connAmazon.getResponseCode(), connAmazon.getResponseMessage(),
-                        (Calendar.getInstance().getTimeInMillis() - startTime), connAmazon.getContentLength()));
+            // send what is left, the jobs are closed by the caller
+            for (String soType : soTypes)
+            {
+                if (!SalesforceConstants.READ_ONLY)
+                {
+                    groupInteractionsByCase(recLists.get(soType));
+                    packers.get(soType).addAll(recLists.get(soType));
+                    recLists.get(soType).clear();
                 }
+                packers.get(soType).flush();
             }
-            while (bRetry);
         }
-        catch (InvalidParameterSpecException e)
+        catch (ExecutionException e)
         {
-            Utils.logException(e);
+            pool.shutdownNow();
+            dr.setResumePoint(lower);
+            updateMigrationStatus(DeskMigrationFields.StatusFailed, "Interactions", dr);
+            throw (e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+        catch (Exception e)
+        {
+            pool.shutdownNow();
+            dr.setResumePoint(lower);
+            updateMigrationStatus(DeskMigrationFields.StatusFailed, "Interactions", dr);
+            throw e;
         }
         finally
         {
-            if (in != null)
-            {
-                in.close();
-            }
-            if (out != null)
+            for (BatchPacker packer : packers.values())
             {
-                out.close();
+                packer.close();
             }
         }
-        return ret;
+
+        return dr;
     }
 
-    public void migrateDeskAttachments(List<Integer> caseIds) throws Exception
+    /*
+     * Walks the interactions of a single window, [from, to), starting at the since_id cursor.
+     */
+    private Void fetchInteractionWindow(long from, long to, long cursor, Set<String> soTypes, Set<Long> fiveHundreds,
+        BlockingQueue<InteractionPage> pages) throws Exception
     {
-        updateMigrationStatus(DeskMigrationFields.StatusRunning, "Attachments", null);
-
-        // get a service
-        CaseService service = getDeskClient().cases();
-
-        // declare page counter
-        int page = 1;
-
-        // declare the response objects at this scope so I can check them in the do/while loop
-        Response<ApiResponse<Attachment>> resp = null;
-        ApiResponse<Attachment> apiResp = null;
-
-        // status object
-        DeployResponse dr = new DeployResponse();
-        
-        // error handling
-        boolean bRetry = false;
-        int retryCount = 0;
-
-        // list of error message strings
-        List<String> errorMessages = new ArrayList<>();
+        InteractionService service = getDeskClient().interactions();
+        int retryExCount = 0;
+        int retry500Count = 0;
 
-        // loop through the case id's
-        for (Integer caseId : caseIds)
+        while (cursor < to)
         {
-            // reset the page counter
-            page = 1;
-
-            // loop through retrieving records
-            do
+            // map the entries of this window while the page is being read, the rest belong to the next window
+            final InteractionPage page = new InteractionPage(soTypes);
+            final Map<Long, List<Interaction>> chatInteractionsByCase = new HashMap<>();
+            final boolean[] bPastWindow = { false };
+            DeskPageReader.Page apiResp;
+
+            // a page that fails while its body is streamed is requested again, the entries mapped so far are dropped
+            Response<ResponseBody> resp = null;
+            try
             {
-                try
-                {
-                    // reset the error handling flag
-                    bRetry = false;
-                    
-                    // reset the error messages
-                    errorMessages.clear();
-
-                    // call the desk api
-                    resp = service.getAttachments(caseId, 100, page).execute();
+                resp = service.streamInteractions(DESK_PAGE_SIZE_INTERACTION, cursor, DeskJsonMapUtil.INTERACTION_FIELDS)
+                    .execute();
 
-                    if (resp.isSuccess())
+                if (!resp.isSuccess())
+                {
+                    switch (resp.code())
                     {
-                        // log the Desk.com rate limiting headers
-                        DeskUtil.logDeskRateHeaders(resp.headers());
-                        
-                        // reset the error handling counter
-                        retryCount = 0;
+                        // no interactions past the cursor
+                        case 422:
+                            return null;
 
-                        // increment the page counter
-                        page++;
+                        // the rate governor holds the retry until the limit resets
+                        case 429:
+                            continue;
 
-                        // get the ApiResponse (so I can check for 'hasNextPage')
-                        apiResp = resp.body();
-                        
-                        // check if there are results
-                        if (apiResp.getTotalEntries() > 0)
-                        {
-                            // pass the list of attachments to the method that will migrate them
-                            errorMessages = createAttachments(apiResp.getEntriesAsList(), dr);
-                        }
-                        else
-                        {
-                            errorMessages.add(String.format("Case [%d] has no attachments.", caseId));
-                        }
-                        
-                        // check if there were errors
-                        if (errorMessages != null && !errorMessages.isEmpty())
-                        {
-                            // add the error message to deploy response
-                            dr.addErrors(errorMessages);
-                        }
+                        case 500:
+                            if (++retry500Count > 5)
+                            {
+                                Utils.log(String.format("Received HTTP 500 response > 5 times! 'since_id': [%d]",
+                                    cursor));
+                                fiveHundreds.add(cursor);
+                                cursor = cursor + DESK_PAGE_SIZE_INTERACTION;
+                            }
+                            continue;
 
-                        // update the Desk Message record with the failure
-                        getSalesforceService().upsertData(DeskMessageFields.Name,
-                            Arrays.asList(getDeskMessageCaseAttachment(caseId, errorMessages)));
+                        default:
+                            throw new Exception(String.format("Error (%d): %s\n%s", resp.code(), resp.message(),
+                                resp.errorBody().string()));
                     }
-                    else
+                }
+
+                apiResp = DeskPageReader.read(resp.body().charStream(), getDeskClient().getGson(), Interaction.class,
+                    (Interaction interaction) ->
                     {
-                        switch (resp.code())
+                        if (interaction.getId() >= to)
                         {
-                            // not found
-                            case 404:
-                                // let it continue
-                                break;
-                            // check for 'too many requests' response
-                            case 429:
-                                // get the reset seconds and sleep for that many seconds
-                                Thread.sleep(Integer.parseInt(resp.headers().get(DESK_HEADER_LIMIT_RESET)) * 1000);
-
-                                // re-queue or retry
-                                bRetry = true;
-                                break;
-                            case 500:
-                                // when we run imports through the API with threaded requests we'll occasionally get a
-                                // 500
-                                // response and have to retry the request (which succeeds on the retry).
-                                // TODO: Retry
-                                bRetry = true;
-                                break;
-                            default:
-                                Utils.log(resp.headers().toString());
-                                throw new Exception(String.format("Error (%d): %s\n%s", resp.code(), resp.message(),
-                                    resp.errorBody().string()));
+                            bPastWindow[0] = true;
                         }
-                    }
+                        else if (interaction.getId() >= from)
+                        {
+                            deskInteractionToSalesforceJsonMaps(this, page.recLists, interaction,
+                                chatInteractionsByCase, page.dr);
+                        }
+                    });
+            }
+            catch (InterruptedIOException e)
+            {
+                throw e;
+            }
+            catch (IOException e)
+            {
+                if (++retryExCount > 10)
+                {
+                    throw e;
                 }
-                catch (Exception e)
+                Utils.log("[EXCEPTION] Retry Attempt: " + retryExCount);
+                continue;
+            }
+            finally
+            {
+                if (resp != null)
                 {
-                    // retry if we hit a socket timeout exception
-                    retryCount++;
-                    Utils.log("[EXCEPTION] Retry Attempt: " + retryCount);
-                    if (retryCount > 5)
+                    closeQuietly(resp.isSuccess() ? resp.body() : resp.errorBody());
+                }
+            }
+            retryExCount = 0;
+            retry500Count = 0;
+
+            deskChatInteractionsToSalesforceJsonMaps(this, page.recLists, chatInteractionsByCase, page.dr);
+            pages.put(page);
+
+            if (bPastWindow[0] || !apiResp.hasNextPage() || !SalesforceConstants.RETRIEVE_ALL
+                || apiResp.getNextUrl() == null)
+            {
+                return null;
+            }
+
+            Matcher mSinceId = SINCE_ID_PATTERN.matcher(apiResp.getNextUrl());
+            if (!mSinceId.find())
+            {
+                return null;
+            }
+            cursor = Long.valueOf(mSinceId.group(1));
+        }
+
+        return null;
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        try
+        {
+            if (closeable != null)
+            {
+                closeable.close();
+            }
+        }
+        catch (IOException e)
+        {
+            Utils.logException(e);
+        }
+    }
+
+    /*
+     * Finds the upper boundary (exclusive) of the interaction ids at or past lower. The interactions can't be sorted,
+     * so since_id is probed with growing steps and then bisected, a 422 response means there is nothing past it.
+     */
+    private long getInteractionIdCeiling(long lower) throws Exception
+    {
+        long lo = firstInteractionIdAfter(lower);
+        if (lo < 0)
+        {
+            return lower;
+        }
+
+        long hi;
+        long step = DESK_PAGE_SIZE_INTERACTION;
+        while (true)
+        {
+            long id = firstInteractionIdAfter(lo + step);
+            if (id < 0)
+            {
+                hi = lo + step;
+                break;
+            }
+            lo = id;
+            step *= 2;
+        }
+
+        // close in to within a page worth of ids
+        while (hi - lo > DESK_PAGE_SIZE_INTERACTION)
+        {
+            long mid = lo + (hi - lo) / 2;
+            long id = firstInteractionIdAfter(mid);
+            if (id < 0)
+            {
+                hi = mid;
+            }
+            else
+            {
+                lo = Math.max(lo, id);
+            }
+        }
+
+        return hi + 1;
+    }
+
+    /*
+     * Returns the id of the first interaction after the since_id, or -1 if there is none.
+     */
+    private long firstInteractionIdAfter(long sinceId) throws Exception
+    {
+        int retryCount = 0;
+        while (true)
+        {
+            Response<ApiResponse<Interaction>> resp = getDeskClient().interactions().getInteractions(1, sinceId, "id")
+                .execute();
+            if (resp.isSuccess())
+            {
+                List<Interaction> entries = resp.body().getEntriesAsList();
+                return (entries.isEmpty() ? -1 : entries.get(0).getId());
+            }
+            if (resp.code() == 422)
+            {
+                return -1;
+            }
+            if (resp.code() != 429 && ++retryCount > 5)
+            {
+                throw new Exception(String.format("Error (%d): %s\n%s", resp.code(), resp.message(),
+                    resp.errorBody().string()));
+            }
+        }
+    }
+
+    /*
+     * Uploads all the records of the list in batches filled up to the bulk limits, and clears the list.
+     */
+    private void addInteractionBatches(String jobId, List<Map<String, Object>> recList) throws Exception
+    {
+        try (BatchPacker packer = getSalesforceService().newBatchPacker(jobId, getInteractionParentField()))
+        {
+            groupInteractionsByCase(recList);
+            packer.addAll(recList);
+            packer.flush();
+        }
+        recList.clear();
+    }
+
+    /*
+     * Hands a batch worth of pending records to the packer, which sends its batches as they fill up. Fewer records
+     * wait for more so a parallel job can still group them by case, and so do the interactions of the last case, which
+     * the next pages can add to.
+     */
+    private void packInteractions(BatchPacker packer, List<Map<String, Object>> recList) throws Exception
+    {
+        if (recList.size() >= SalesforceConstants.BULK_MAX_SIZE && !SalesforceConstants.READ_ONLY)
+        {
+            groupInteractionsByCase(recList);
+            int end = recList.size();
+            String parentField = getInteractionParentField();
+            if (parentField != null)
+            {
+                // cut at the start of the last case, the record past the cut is the last one
+                end = SalesforceUtil.getParentBatchEnd(recList, 0, parentField, end - 1);
+            }
+            List<Map<String, Object>> packed = recList.subList(0, end);
+            packer.addAll(packed);
+            packed.clear();
+        }
+    }
+
+    /*
+     * In parallel bulk mode, moves the interactions of a case next to each other so they go out in the same batch.
+     */
+    private static void groupInteractionsByCase(List<Map<String, Object>> recList)
+    {
+        if (SalesforceService.isBulkParallel())
+        {
+            SalesforceUtil.groupByParent(recList, INTERACTION_PARENT_FIELD);
+        }
+    }
+
+    /*
+     * The field the batch packers keep together, the case of an interaction in parallel bulk mode.
+     */
+    private static String getInteractionParentField()
+    {
+        return (SalesforceService.isBulkParallel() ? INTERACTION_PARENT_FIELD : null);
+    }
+
+    /*
+     * The Salesforce records mapped from one page of interactions by a window worker.
+     */
+    private static final class InteractionPage
+    {
+        final Map<String, List<Map<String, Object>>> recLists = new HashMap<>();
+        final DeployResponse dr = new DeployResponse();
+
+        InteractionPage(Set<String> soTypes)
+        {
+            for (String soType : soTypes)
+            {
+                recLists.put(soType, new ArrayList<>());
+            }
+        }
+    }
+
+    public byte[] getDeskAttachment(long caseId, String attachmentUrl)
+        throws OAuthCommunicationException, OAuthExpectationFailedException, OAuthMessageSignerException, IOException,
+        InvalidParameterSpecException, NumberFormatException, InterruptedException
+    {
+        BufferedInputStream in = null;
+        ByteArrayOutputStream out = null;
+        byte[] ret = null;
+        try
+        {
+            // get the amazon URL from the 'Location' response header
+            String amazonS3Url = getDeskAttachmentLocation(attachmentUrl);
+            if (amazonS3Url == null)
+            {
+                return null;
+            }
+
+            // set the start time for the attachment request
+            long startTime = Calendar.getInstance().getTimeInMillis();
+
+            // create the URL
+            URL amazonUrl = new URL(amazonS3Url);
+            Utils.log(String.format("--> GET %s", amazonS3Url));
+
+            // create the connection
+            HttpURLConnection connAmazon = (HttpURLConnection) amazonUrl.openConnection();
+
+            // the same payload attached to another case has the same S3 ETag, serve it from the cache
+            int length = connAmazon.getContentLength();
+            String etag = connAmazon.getHeaderField("ETag");
+            DeskAttachmentCache cache = DeskAttachmentCache.getInstance();
+            ret = (cache == null ? null : cache.get(length, etag));
+            if (ret != null)
+            {
+                Utils.log(String.format("<-- %s %d-byte body served from the attachment cache", amazonS3Url,
+                    ret.length));
+                connAmazon.disconnect();
+                return ret;
+            }
+
+            // open the input stream with the Amazon S3 URL, hashing the body as it is read
+            MessageDigest digest = DeskAttachmentCache.newDigest();
+            in = new BufferedInputStream(new DigestInputStream(connAmazon.getInputStream(), digest),
+                ATTACHMENT_READ_BUFFER);
+
+            // S3 sends the length, read straight into an array of that size instead of growing a copy
+            if (length >= 0)
+            {
+                ret = new byte[length];
+                int offset = 0;
+                int size;
+                while (offset < length && (size = in.read(ret, offset, length - offset)) != -1)
+                {
+                    offset += size;
+                }
+                if (offset < length)
+                {
+                    throw new IOException(String.format("Attachment truncated at %d of %d bytes (URL: %s)",
+                        offset, length, attachmentUrl));
+                }
+            }
+            else
+            {
+                // open the output stream to the file
+                out = new ByteArrayOutputStream(ATTACHMENT_READ_BUFFER);
+
+                // define the byte array
+                final byte buf[] = new byte[ATTACHMENT_READ_BUFFER];
+                int size;
+
+                // read the data in chunks
+                while ((size = in.read(buf, 0, buf.length)) != -1)
+                {
+                    // write the output data
+                    out.write(buf, 0, size);
+                }
+
+                // write the output byte array to the return variable
+                ret = out.toByteArray();
+            }
+
+            if (cache != null)
+            {
+                cache.put(etag, digest, ret);
+            }
+
+            // log the response
+            Utils.log(String.format("<-- %s %s %s (%dms, %d-byte body)", amazonUrl.getProtocol().toUpperCase(),
+                connAmazon.getResponseCode(), connAmazon.getResponseMessage(),
+                (Calendar.getInstance().getTimeInMillis() - startTime), connAmazon.getContentLength()));
+        }
+        catch (InvalidParameterSpecException e)
+        {
+            Utils.logException(e);
+        }
+        finally
+        {
+            if (in != null)
+            {
+                in.close();
+            }
+            if (out != null)
+            {
+                out.close();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Streams a Desk.com attachment from S3 into a Salesforce ContentVersion published to the case, through a fixed
+     * size buffer, so the size of the file is not limited by the heap.
+     *
+     * @param a
+     *            The attachment.
+     * @return The ContentVersion id, or null if Desk.com kept throttling the request.
+     */
+    public String streamDeskAttachmentToContentVersion(Attachment a) throws Exception
+    {
+        Map<String, Object> entity = newContentVersion(a);
+
+        String amazonS3Url = getDeskAttachmentLocation(a.getUrl());
+        if (amazonS3Url == null)
+        {
+            return null;
+        }
+
+        long startTime = Calendar.getInstance().getTimeInMillis();
+        Utils.log(String.format("--> GET %s (streamed)", amazonS3Url));
+        HttpURLConnection connAmazon = (HttpURLConnection) new URL(amazonS3Url).openConnection();
+
+        try (InputStream in = connAmazon.getInputStream())
+        {
+            String id = getSalesforceService().uploadContentVersion(entity, a.getFileName(), in,
+                connAmazon.getContentLengthLong());
+
+            Utils.log(String.format("<-- ContentVersion [%s] (%dms, %d-byte body)", id,
+                (Calendar.getInstance().getTimeInMillis() - startTime), connAmazon.getContentLengthLong()));
+            return id;
+        }
+    }
+
+    /**
+     * Uploads an attachment which is already downloaded into a Salesforce ContentVersion published to the case.
+     *
+     * @param a
+     *            The attachment.
+     * @param body
+     *            The attachment body.
+     * @return The ContentVersion id.
+     */
+    public String uploadAttachmentToContentVersion(Attachment a, byte[] body) throws Exception
+    {
+        String id = getSalesforceService().uploadContentVersion(newContentVersion(a), a.getFileName(),
+            new ByteArrayInputStream(body), body.length);
+        Utils.log(String.format("<-- ContentVersion [%s] (%d-byte body)", id, body.length));
+        return id;
+    }
+
+    /*
+     * The ContentVersion fields of an attachment, it has to be published to the case by its Salesforce id.
+     */
+    private Map<String, Object> newContentVersion(Attachment a) throws Exception
+    {
+        List<SObject> cases = getSalesforceService().query(String.format("SELECT Id FROM %s WHERE %s = %d",
+            SalesforceConstants.OBJ_CASE, CaseFields.DeskId, a.getCaseId()));
+        if (cases == null || cases.isEmpty())
+        {
+            throw new InvalidParameterException(String.format("Case [%d] has not been migrated.", a.getCaseId()));
+        }
+
+        Map<String, Object> entity = new HashMap<>();
+        entity.put("Title", a.getFileName());
+        entity.put("PathOnClient", a.getFileName());
+        entity.put("FirstPublishLocationId", cases.get(0).getId());
+        return entity;
+    }
+
+    /**
+     * Streams the attachments above DESK_ATTACHMENT_STREAM_SIZE into ContentVersions, skipping the ones streamed
+     * earlier in this migration.
+     *
+     * @param attachments
+     *            The attachments of a case.
+     * @param dr
+     *            The deploy response.
+     * @param errMessages
+     *            The error messages of the attachments which could not be streamed.
+     * @return The attachments which were not streamed.
+     */
+    public List<Attachment> streamLargeAttachments(List<Attachment> attachments, DeployResponse dr,
+        List<String> errMessages) throws UnexpectedErrorFault
+    {
+        return streamLargeAttachments(attachments, dr, errMessages, getAttachmentStreamSize());
+    }
+
+    /**
+     * Streams the attachments above DESK_ATTACHMENT_STREAM_SIZE, or above a lower limit of the caller, into
+     * ContentVersions.
+     *
+     * @param maxSize
+     *            The largest attachment the caller takes.
+     * @return The attachments which were not streamed.
+     */
+    public List<Attachment> streamLargeAttachments(List<Attachment> attachments, DeployResponse dr,
+        List<String> errMessages, long maxSize) throws UnexpectedErrorFault
+    {
+        long streamSize = Math.min(maxSize, getAttachmentStreamSize());
+        List<Attachment> rest = new ArrayList<>();
+        for (Attachment a : attachments)
+        {
+            if (a.getSize() <= streamSize)
+            {
+                rest.add(a);
+                continue;
+            }
+
+            String key = getAttachmentKey(a);
+            if (_streamedAttachments.contains(key))
+            {
+                Utils.log(String.format("Case (%d) attachment [%s] was already streamed, skipping it.", a.getCaseId(),
+                    a.getFileName()));
+                continue;
+            }
+
+            try
+            {
+                if (streamDeskAttachmentToContentVersion(a) == null)
+                {
+                    errMessages.add(String.format("Case (%d) attachment [%s] could not be downloaded.",
+                        a.getCaseId(), a.getFileName()));
+                }
+                else
+                {
+                    _streamedAttachments.add(key);
+                    dr.incrementSuccessCount();
+                }
+            }
+            catch (UnexpectedErrorFault e)
+            {
+                // check if the exception is for invalid session
+                if (e.getExceptionCode() == ExceptionCode.INVALID_SESSION_ID)
+                {
+                    // let the exception throw
+                    throw e;
+                }
+                errMessages.add(String.format("[%d] (%s) %s", a.getCaseId(), e.getExceptionCode().name(),
+                    e.getExceptionMessage()));
+            }
+            catch (Exception e)
+            {
+                String errMessage = String.format("%s: %s", e.getClass().getName(), e.getMessage());
+                errMessages.add(errMessage);
+                Utils.logException(e);
+                dr.addError(String.format("[Case Id: %d] %s", a.getCaseId(), errMessage));
+            }
+        }
+        return rest;
+    }
+
+    /*
+     * Identifies an attachment by its API url, which holds the attachment id.
+     */
+    private static String getAttachmentKey(Attachment a)
+    {
+        if (a.getLinks() != null && a.getLinks().getSelf() != null && a.getLinks().getSelf().getUrl() != null)
+        {
+            return a.getLinks().getSelf().getUrl();
+        }
+        return String.format("%d/%s/%d", a.getCaseId(), a.getFileName(), a.getSize());
+    }
+
+    private static long getAttachmentStreamSize()
+    {
+        try
+        {
+            return (getenv(DESK_ATTACHMENT_STREAM_SIZE) == null ? DEFAULT_ATTACHMENT_STREAM_SIZE
+                : Long.parseLong(getenv(DESK_ATTACHMENT_STREAM_SIZE)));
+        }
+        catch (NumberFormatException e)
+        {
+            return DEFAULT_ATTACHMENT_STREAM_SIZE;
+        }
+    }
+
+    /*
+     * Performs a 'GET' request for the attachment URL on Desk.com, this will return an Amazon S3 URL as the
+     * redirect, however we do not want to follow the redirect. We do not want to follow because the Desk.com URL
+     * requires authentication that would be passed to Amazon and Amazon will reject it. Returns null when Desk.com
+     * keeps throttling the request.
+     */
+    private String getDeskAttachmentLocation(String attachmentUrl)
+        throws OAuthCommunicationException, OAuthExpectationFailedException, OAuthMessageSignerException, IOException,
+        InvalidParameterSpecException
+    {
+        // make sure to strip the trailing '/' from the URL
+        String attachmentUrlSigned = getDeskClient().signUrl(
+            (attachmentUrl.endsWith("/") ? attachmentUrl.substring(0, attachmentUrl.length() - 1) : attachmentUrl));
+        int retryCount = 0;
+
+        while (true)
+        {
+            long startTime = Calendar.getInstance().getTimeInMillis();
+
+            // create the URL
+            URL url = new URL(attachmentUrlSigned);
+            Utils.log(String.format("--> GET %s", attachmentUrlSigned));
+
+            // create the connection
+            HttpURLConnection connDesk = (HttpURLConnection) url.openConnection();
+
+            // do not follow the redirect
+            connDesk.setInstanceFollowRedirects(false);
+
+            // set special override header
+            connDesk.setRequestProperty("x-desk-app", "wowed");
+
+            // this request bypasses the OkHttp client, so take the rate limit token by hand
+            DeskRateGovernor governor = DeskRateGovernor.forHost(getDeskClient().getHostname());
+            governor.acquire();
+            try
+            {
+                connDesk.getResponseCode();
+            }
+            finally
+            {
+                governor.release();
+            }
+            governor.update(connDesk.getResponseCode(), connDesk.getHeaderField(DESK_HEADER_LIMIT_LIMIT),
+                connDesk.getHeaderField(DESK_HEADER_LIMIT_REMAINING), connDesk.getHeaderField(DESK_HEADER_LIMIT_RESET));
+
+            // log the response
+            Utils.log(String.format("<-- %s %s %s (%dms, %d-byte body)", url.getProtocol().toUpperCase(),
+                connDesk.getResponseCode(), connDesk.getResponseMessage(),
+                (Calendar.getInstance().getTimeInMillis() - startTime), connDesk.getContentLength()));
+
+            // if the response is 'HTTPS 401 Unauthorized' do not log the headers
+            if (connDesk.getResponseCode() != 401)
+            {
+                DeskUtil.logDeskRateHeaders(connDesk.getHeaderFields());
+            }
+
+            // handle HTTP response code
+            switch (connDesk.getResponseCode())
+            {
+                // check for 'too many requests' response
+                case 429:
+                    // the rate governor holds the retry until the limit resets
+                    retryCount++;
+                    if (retryCount > 5)
+                    {
+                        Utils.log("Max retry count exceeded. Returning null for attachment content.");
+                        return null;
+                    }
+                    break;
+                // The 'GET' request will return an HTTP 302 response (Moved Temporarily) when it is successful.
+                case HttpURLConnection.HTTP_MOVED_TEMP:
+                    // get the amazon URL from the 'Location' response header
+                    return connDesk.getHeaderField("Location");
+                default:
+                    throw new InvalidParameterSpecException(String.format(
+                        "Received HTTP Response Code %d (URL: %s)",
+                        connDesk.getResponseCode(), attachmentUrlSigned));
+            }
+        }
+    }
+
+    public void migrateDeskAttachments(List<Integer> caseIds) throws Exception
+    {
+        updateMigrationStatus(DeskMigrationFields.StatusRunning, "Attachments", null);
+
+        // status object
+        DeployResponse dr = new DeployResponse();
+
+        // load through Bulk API binary attachment batches when enabled, otherwise insert through the SOAP API, the last
+        // batch is submitted and the bulk job closed however the migration ends
+        try (DeskAttachmentZipLoader zipLoader = (DeskAttachmentZipLoader.isEnabled()
+            ? new DeskAttachmentZipLoader(this) : null))
+        {
+            migrateCaseAttachments(caseIds, zipLoader, dr);
+        }
+
+        // update the migration status
+        updateMigrationStatus(DeskMigrationFields.StatusComplete, "Attachments", dr);
+    }
+
+    private void migrateCaseAttachments(List<Integer> caseIds, DeskAttachmentZipLoader zipLoader, DeployResponse dr)
+        throws Exception
+    {
+        // get a service
+        CaseService service = getDeskClient().cases();
+
+        // declare page counter
+        int page = 1;
+
+        // declare the response objects at this scope so I can check them in the do/while loop
+        Response<ApiResponse<Attachment>> resp = null;
+        ApiResponse<Attachment> apiResp = null;
+
+        // error handling
+        boolean bRetry = false;
+        int retryCount = 0;
+
+        // list of error message strings
+        List<String> errorMessages = new ArrayList<>();
+
+        // loop through the case id's
+        for (Integer caseId : caseIds)
+        {
+            // reset the page counter
+            page = 1;
+
+            // loop through retrieving records
+            do
+            {
+                try
+                {
+                    // reset the error handling flag
+                    bRetry = false;
+                    
+                    // reset the error messages
+                    errorMessages.clear();
+
+                    // call the desk api
+                    resp = service.getAttachments(caseId, 100, page).execute();
+
+                    if (resp.isSuccess())
+                    {
+                        // log the Desk.com rate limiting headers
+                        DeskUtil.logDeskRateHeaders(resp.headers());
+                        
+                        // reset the error handling counter
+                        retryCount = 0;
+
+                        // increment the page counter
+                        page++;
+
+                        // get the ApiResponse (so I can check for 'hasNextPage')
+                        apiResp = resp.body();
+                        
+                        // check if there are results
+                        if (apiResp.getTotalEntries() > 0)
+                        {
+                            // pass the list of attachments to the method that will migrate them
+                            errorMessages = (zipLoader != null ? zipLoader.add(apiResp.getEntriesAsList(), dr)
+                                : createAttachments(apiResp.getEntriesAsList(), dr));
+                        }
+                        else
+                        {
+                            errorMessages.add(String.format("Case [%d] has no attachments.", caseId));
+                        }
+                        
+                        // check if there were errors
+                        if (errorMessages != null && !errorMessages.isEmpty())
+                        {
+                            // add the error message to deploy response
+                            dr.addErrors(errorMessages);
+                        }
+
+                        // update the Desk Message record with the failure
+                        getSalesforceService().upsertData(DeskMessageFields.Name,
+                            Arrays.asList(getDeskMessageCaseAttachment(caseId, errorMessages)));
+                    }
+                    else
+                    {
+                        switch (resp.code())
+                        {
+                            // not found
+                            case 404:
+                                // let it continue
+                                break;
+                            // check for 'too many requests' response
+                            case 429:
+                                // the rate governor holds the retry until the limit resets
+                                // re-queue or retry
+                                bRetry = true;
+                                break;
+                            case 500:
+                                // when we run imports through the API with threaded requests we'll occasionally get a
+                                // 500
+                                // response and have to retry the request (which succeeds on the retry).
+                                // TODO: Retry
+                                bRetry = true;
+                                break;
+                            default:
+                                Utils.log(resp.headers().toString());
+                                throw new Exception(String.format("Error (%d): %s\n%s", resp.code(), resp.message(),
+                                    resp.errorBody().string()));
+                        }
+                    }
+                }
+                catch (Exception e)
+                {
+                    // retry if we hit a socket timeout exception
+                    retryCount++;
+                    Utils.log("[EXCEPTION] Retry Attempt: " + retryCount);
+                    if (retryCount > 5)
                     {
                         // we retried 5 times, let exception go
                         throw e;
@@ -1731,9 +2427,6 @@ public final class DeskUtil
             }
             while (bRetry || (resp.isSuccess() && apiResp.hasNextPage()));
         } // FOR Case Id
-
-        // update the migration status
-        updateMigrationStatus(DeskMigrationFields.StatusComplete, "Attachments", dr);
     }
 
     private static SObject getDeskMessageCaseAttachment(int caseId, List<String> errMessages)
@@ -2023,98 +2716,70 @@ public final class DeskUtil
         // create the list
         List<SObject> sos = new ArrayList<>();
         
-        // create the SObject
-        SObject so = new SObject(SalesforceConstants.OBJ_CASE_COMMENT);
-        
-        // flag which indicates the note body was truncated
-        boolean bTruncated = false;
-        
-        // audit fields
-        so.addField(CaseCommentFields.CreatedDate, interaction.getCreatedAt());
-        so.addField(CaseCommentFields.LastModifiedDate, interaction.getUpdatedAt());
-        
-        // check the body for max length
+        // split the body into pieces that fit the comment body once JSON encoded, each piece becomes a CaseComment
         String body = interaction.getBody();
-        if (body == null)
+        List<String> pieces = (body == null ? Collections.singletonList(null)
+            : TextChunker.splitJson(body, SalesforceConstants.MED_TEXT_MAX));
+        if (pieces.size() > 1)
         {
-            // do nothing
+            String msg = String.format("Body for interaction [%d] is too long and will be split across [%d] comments! Length: [%d], Max Length: [%d]",
+                interaction.getId(), pieces.size(), body.length(), SalesforceConstants.MED_TEXT_MAX);
+            Utils.log(msg);
+            deployResponse.addError(msg);
         }
-        else
+        
+        for (String piece : pieces)
         {
-            // trim the body if it is longer than max
-            if (body.length() > SalesforceConstants.MED_TEXT_MAX)
-            {
-                String msg = String.format("Body for interaction [%d] is too long and will be truncated! Length: [%d], Max Length: [%d]",
-                    interaction.getId(), body.length(), SalesforceConstants.MED_TEXT_MAX);
-                Utils.log(msg);
-                deployResponse.addError(msg);
-
-                // trim the un-encoded body to the max
-                body = body.substring(0, SalesforceConstants.MED_TEXT_MAX);
-                
-                // flip the flag indicated we truncated data
-                bTruncated = true;
-            }
-
-            // convert the JSON so I can check length
-            String bodyJson = JsonUtil.toJson(body);
+            // create the SObject
+            SObject so = new SObject(SalesforceConstants.OBJ_CASE_COMMENT);
             
-            // loop until the encoded length is <= the max
-            while (bodyJson.length() > SalesforceConstants.MED_TEXT_MAX)
-            {
-                // trim 1 character from the body
-                body = body.substring(0, body.length() - 1);
-                
-                // json encode the shortened body so I can check the length
-                bodyJson = JsonUtil.toJson(body);
-                // Utils.log("Body Length: " + bodyJson.length());
-                
-                // flip the flag indicated we truncated data
-                bTruncated = true;
-            }
+            // audit fields
+            so.addField(CaseCommentFields.CreatedDate, interaction.getCreatedAt());
+            so.addField(CaseCommentFields.LastModifiedDate, interaction.getUpdatedAt());
             
-            // check if I truncated and need to adjust the body on the interaction for splitting it across multiple
-            // CaseComment records
-            if (bTruncated)
-            {
-                // encoded length should now be good, left-trim the body
-                interaction.setBody(interaction.getBody().substring(body.length() - 1));
-            }
-        }
-        so.addField(CaseCommentFields.CommentBody, body);
-        so.addField(CaseCommentFields.IsPublished, false);
-        
-        // Case to which the email is associated.
-        SObject soCase = new SObject(SalesforceConstants.OBJ_CASE);
-        soCase.addField(CaseFields.DeskId, interaction.getCaseId());
-        so.addField(EmailMessageFields.Parent, soCase);
-        
-        sos.add(so);
-        
-        // check if I truncated the body
-        if (bTruncated)
-        {
-            // recursively call this method to add another case comment with the rest of the note
-            sos.addAll(deskInteractionToSalesforceComment(interaction, deployResponse));
+            so.addField(CaseCommentFields.CommentBody, piece);
+            so.addField(CaseCommentFields.IsPublished, false);
+            
+            // Case to which the email is associated.
+            SObject soCase = new SObject(SalesforceConstants.OBJ_CASE);
+            soCase.addField(CaseFields.DeskId, interaction.getCaseId());
+            so.addField(EmailMessageFields.Parent, soCase);
+            
+            sos.add(so);
         }
         
         return sos;
     }
 
     public List<String> createAttachments(List<Attachment> attachments, DeployResponse dr) throws UnexpectedErrorFault
+    {
+        // empty check
+        if (attachments == null || attachments.isEmpty())
+        {
+            Utils.log("[WARN] Empty list of attachments passed to DeskCaseUtil::createAttachments()!");
+            return null;
+        }
+
+        // large files go straight from S3 into ContentVersions, with constant memory, their failures are kept apart so
+        // they don't stop the small attachments from being inserted
+        List<String> streamErrMessages = new ArrayList<>();
+        attachments = streamLargeAttachments(attachments, dr, streamErrMessages);
+
+        List<String> errMessages = (attachments.isEmpty() ? new ArrayList<>() : insertAttachments(attachments, dr));
+        errMessages.addAll(streamErrMessages);
+        return errMessages;
+    }
+
+    /*
+     * Inserts the attachments small enough to be sent inline as Attachment records.
+     */
+    List<String> insertAttachments(List<Attachment> attachments, DeployResponse dr) throws UnexpectedErrorFault
     {
         List<SaveResult> saveResults = new ArrayList<>();
         List<String> errMessages = new ArrayList<String>();
         int requestFileSize = 0;
         try
         {
-            // empty check
-            if (attachments == null || attachments.isEmpty())
-            {
-                Utils.log("[WARN] Empty list of attachments passed to DeskCaseUtil::createAttachments()!");
-                return null;
-            }
-
             // list of salesforce attachments
             List<SObject> sfAttachments = new ArrayList<>();
 
@@ -2149,75 +2814,80 @@ public final class DeskUtil
                 return errMessages;
             }
 
-            // loop through the desk attachments
-            for (Attachment a : attachments)
+            // download the attachments concurrently, their bytes count against the memory budget until released
+            try (DeskAttachmentDownloader.Downloads downloads = DeskAttachmentDownloader.download(this, attachments))
             {
-                // add to the list to be inserted
-                sfAttachments.add(deskAttachmentToSalesforceAttachment(a, dr, errMessages));
-            }
+                // loop through the desk attachments
+                for (int i = 0; i < attachments.size(); i++)
+                {
+                    // add to the list to be inserted
+                    sfAttachments.add(deskAttachmentToSalesforceAttachment(attachments.get(i), downloads, i, dr,
+                        errMessages));
+                }
             
-            // found an error converting attachments
-            if (!errMessages.isEmpty())
-            {
-                return errMessages;
-            }
+                // found an error converting attachments
+                if (!errMessages.isEmpty())
+                {
+                    return errMessages;
+                }
 
-            // Utils.log(String.format("Inserting [%d] Attachments", sfAttachments.size()));
+                // Utils.log(String.format("Inserting [%d] Attachments", sfAttachments.size()));
 
-            // while we have records to migrate
-            while (!sfAttachments.isEmpty())
-            {
-                // determine the size of the request
-                int iMax = (sfAttachments.size() > SalesforceConstants.API_MAX_SIZE ? SalesforceConstants.API_MAX_SIZE
-                    : sfAttachments.size());
+                // while we have records to migrate
+                while (!sfAttachments.isEmpty())
+                {
+                    // determine the size of the request
+                    int iMax = (sfAttachments.size() > SalesforceConstants.API_MAX_SIZE ? SalesforceConstants.API_MAX_SIZE
+                        : sfAttachments.size());
 
-                // clear the save results
-                saveResults.clear();
+                    // clear the save results
+                    saveResults.clear();
                 
-                try
-                {
-                    // insert the records
-                    dr.addDeployResponse(getSalesforceService().insertData(sfAttachments.subList(0, iMax), true, saveResults));
-                }
-                catch (UnexpectedErrorFault e)
-                {
-                    // check if the exception is for invalid session
-                    if (e.getExceptionCode() == ExceptionCode.INVALID_SESSION_ID)
+                    try
                     {
-                        // let the exception throw
-                        throw e;
+                        // insert the records
+                        dr.addDeployResponse(getSalesforceService().insertData(sfAttachments.subList(0, iMax), true, saveResults));
                     }
-                    // set error message to '[case id] (exception code) exception message'
-                    errMessages.add(String.format("[%d] (%s) %s", attachments.get(0).getCaseId(),
-                        e.getExceptionCode().name(), e.getExceptionMessage()));
-                }
-
-                // loop through the records we just inserted and mark the corresponding Desk Message record as migrated
-                for (int i = 0; i < iMax; i++)
-                {
-                    // make sure there is a case id (this should never been blank!
-                    if (attachments.get(i).getCaseId() == Attachment.NO_ID)
+                    catch (UnexpectedErrorFault e)
                     {
-                        Utils.log("[ERROR] Case Id is 0 for an attachment!");
+                        // check if the exception is for invalid session
+                        if (e.getExceptionCode() == ExceptionCode.INVALID_SESSION_ID)
+                        {
+                            // let the exception throw
+                            throw e;
+                        }
+                        // set error message to '[case id] (exception code) exception message'
+                        errMessages.add(String.format("[%d] (%s) %s", attachments.get(0).getCaseId(),
+                            e.getExceptionCode().name(), e.getExceptionMessage()));
                     }
-                    else
+
+                    // loop through the records we just inserted and mark the corresponding Desk Message record as migrated
+                    for (int i = 0; i < iMax; i++)
                     {
-                        if (!saveResults.get(i).getSuccess())
+                        // make sure there is a case id (this should never been blank!
+                        if (attachments.get(i).getCaseId() == Attachment.NO_ID)
+                        {
+                            Utils.log("[ERROR] Case Id is 0 for an attachment!");
+                        }
+                        else
                         {
-                            // set error message
-                            for (com.sforce.soap.partner.Error err : saveResults.get(i).getErrors())
+                            if (!saveResults.get(i).getSuccess())
                             {
-                                errMessages.add(String.format("[%d] %s (%s)%s\n", attachments.get(0).getCaseId(),
-                                    err.getMessage(), err.getStatusCode().name(),
-                                    (err.getFields() == null || err.getFields().length == 0 ? "" :
-                                        " [Fields: " + StringUtils.join(", ", err.getFields()) + "]")));
+                                // set error message
+                                for (com.sforce.soap.partner.Error err : saveResults.get(i).getErrors())
+                                {
+                                    errMessages.add(String.format("[%d] %s (%s)%s\n", attachments.get(0).getCaseId(),
+                                        err.getMessage(), err.getStatusCode().name(),
+                                        (err.getFields() == null || err.getFields().length == 0 ? "" :
+                                            " [Fields: " + StringUtils.join(", ", err.getFields()) + "]")));
+                                }
                             }
                         }
                     }
-                }
 
-                // clear the migrated records from the list
-                sfAttachments.subList(0, iMax).clear();
+                    // clear the migrated records from the list
+                    sfAttachments.subList(0, iMax).clear();
+                }
             }
         }
         catch (UnexpectedErrorFault e)
@@ -2233,8 +2903,8 @@ public final class DeskUtil
         return errMessages;
     }
     
-    private SObject deskAttachmentToSalesforceAttachment(Attachment a, DeployResponse dr, List<String> errMessages)
-        throws OAuthCommunicationException, OAuthExpectationFailedException, OAuthMessageSignerException
+    private SObject deskAttachmentToSalesforceAttachment(Attachment a, DeskAttachmentDownloader.Downloads downloads,
+        int index, DeployResponse dr, List<String> errMessages)
     {
         // create the attachment object and set some fields
         SObject sfAttachment = new SObject(SalesforceConstants.OBJ_ATTACHMENT);
@@ -2263,8 +2933,8 @@ public final class DeskUtil
 
         try
         {
-            // get the file attachment bytes
-            byte[] attachmentBytes = getDeskAttachment(a.getCaseId(), a.getUrl());
+            // wait for the file attachment bytes
+            byte[] attachmentBytes = downloads.get(index);
             
             // set the 'Body' field to the Base64 encoded contents of the file
             sfAttachment.setField(AttachmentFields.Body, attachmentBytes);
@@ -2287,111 +2957,14 @@ public final class DeskUtil
 
     public void updateMigrationStatus(String status, String stage, DeployResponse dr, String jobId)
     {
-        try
-        {
-            SObject deskMigration = new SObject(SalesforceConstants.OBJ_DESK_MIGRATION);
-            deskMigration.setId(getDeskService().getMigrationId());
-    
-            // check if we need to increment the counters & append to log
-            if (dr != null)
-            {
-                // retrieve the existing counts so I can increment them
-                String query = String.format("SELECT %s, %s, %s FROM %s WHERE %s = '%s'", DeskMigrationFields.RecordsFailed,
-                    DeskMigrationFields.RecordsMigrated, DeskMigrationFields.Log, SalesforceConstants.OBJ_DESK_MIGRATION,
-                    DeskMigrationFields.ID, getDeskService().getMigrationId());
-                List<SObject> results = getSalesforceService().query(query);
-    
-                // check if an existing migration record was found
-                if (results == null || results.isEmpty())
-                {
-                    // we are in big trouble if we get here
-                    throw new InvalidParameterException(
-                        "Could not find existing Desk Migration record with Id: [" + getDeskService().getMigrationId() + "]!");
-                }
-    
-                SObject prev = results.get(0);
-    
-                Double recordsMigrated = (prev.getField(DeskMigrationFields.RecordsMigrated) == null ? 0
-                    : Double.valueOf((String) prev.getField(DeskMigrationFields.RecordsMigrated)));
-                Double recordsFailed = (prev.getField(DeskMigrationFields.RecordsFailed) == null ? 0
-                    : Double.valueOf((String) prev.getField(DeskMigrationFields.RecordsFailed)));
-    
-                // increment counters
-                deskMigration.setField(DeskMigrationFields.RecordsMigrated,
-                    recordsMigrated.intValue() + dr.getSuccessCount());
-                deskMigration.setField(DeskMigrationFields.RecordsFailed, recordsFailed.intValue() + dr.getErrorCount());
-                deskMigration.setField(DeskMigrationFields.RecordsTotal,
-                    recordsMigrated.intValue() + dr.getSuccessCount() + recordsFailed.intValue() + dr.getErrorCount());
-    
-                if (dr.getErrors() != null && !dr.getErrors().isEmpty())
-                {
-                    StringBuilder sbErrors = new StringBuilder();
-    
-                    sbErrors.append("[" + _dateFormat.format(Calendar.getInstance().getTime()) + "]: ");
-                    for (String err : dr.getErrors())
-                    {
-                        sbErrors.append(err + "\n");
-                        // Utils.log(err);
-                    }
-    
-                    // check if there are previous log messages to pre-pend
-                    if (prev.getField(DeskMigrationFields.Log) != null)
-                    {
-                        sbErrors.append(prev.getField(DeskMigrationFields.Log));
-                    }
-    
-                    // trim to max length
-                    if (sbErrors.length() > SalesforceConstants.LONG_TEXT_MAX)
-                    {
-                        sbErrors.setLength(SalesforceConstants.LONG_TEXT_MAX);
-                    }
-    
-                    // append errors to log
-                    deskMigration.setField(DeskMigrationFields.Log, sbErrors.toString());
-                }
-            }
-    
-            deskMigration.setField(DeskMigrationFields.Status, status);
-    
-            // set stage if provides
-            if (stage != null)
-            {
-                deskMigration.setField(DeskMigrationFields.Stage, stage);
-            }
-
-            if (jobId != null) {
-                deskMigration.setField(DeskMigrationFields.JobId, jobId);
-            }
-    
-            // TODO: Set this with a workflow rule
-            if (status == DeskMigrationFields.StatusComplete)
-            {
-                deskMigration.setField(DeskMigrationFields.EndDate, java.util.Calendar.getInstance());
-            }
-            
-            if (status == DeskMigrationFields.StatusFailed)
-            {
-//            	deskMigration.setField(DeskMigrationFields.EndDate, java.util.Calendar.getInstance());
-//            	deskMigration.setField(DeskMigrationFields.ResumePoint, dr.getResumePoint());
-            	
-            }
-            
-    
-            // upsert the migration status
-            getSalesforceService().upsertData(DeskMigrationFields.ID, Arrays.asList(deskMigration));
-        }
-        catch (UnexpectedErrorFault e)
-        {
-            Utils.log(String.format("[%s] %s", e.getExceptionCode().name(), e.getExceptionMessage()));
-        }
-        catch (AsyncApiException e)
-        {
-            Utils.log(String.format("[%s] %s", e.getExceptionCode().name(), e.getExceptionMessage()));
-        }
-        catch (Exception e)
+        // the record is written behind, see DeskMigrationStatus
+        DeskMigrationStatus migrationStatus = DeskMigrationStatus.forMigration(getDeskService().getMigrationId());
+        if (migrationStatus == null)
         {
-            Utils.log(String.format("[EXCEPTION] %s", e.getMessage()));
+            Utils.log("[EXCEPTION] No Desk Migration Id to update the status of");
+            return;
         }
+        migrationStatus.update(getSalesforceService(), status, stage, dr, jobId);
     }
 
     public static void logDeskRateHeaders(Headers headers)
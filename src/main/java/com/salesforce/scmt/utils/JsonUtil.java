@@ -15,15 +15,24 @@
 
 package com.salesforce.scmt.utils;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
 
 import spark.ResponseTransformer;
 
 public final class JsonUtil
 {
+    // Gson instances are thread safe, share one instead of building the type adapters on every call
+    private static final Gson _gson = new Gson();
+
     /**
      * Private constructor for utility class.
      */
@@ -33,14 +42,49 @@ public final class JsonUtil
 
     public static String toJson(Object object)
     {
-        return new Gson().toJson(object);
+        return _gson.toJson(object);
         // this statement will preserve null values
         // return new com.google.gson.GsonBuilder().serializeNulls().create().toJson(object);
     }
 
+    /**
+     * Writes the object as UTF-8 JSON to the stream, without building the JSON string first.
+     *
+     * @param object
+     *            The object to serialize.
+     * @param out
+     *            The stream to write to, it is flushed but not closed.
+     */
+    public static void toJson(Object object, OutputStream out)
+    {
+        try
+        {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            _gson.toJson(object, writer);
+            writer.flush();
+        }
+        catch (IOException e)
+        {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Appends the object as JSON to the writer.
+     *
+     * @param object
+     *            The object to serialize.
+     * @param writer
+     *            The writer to append to, it is neither flushed nor closed.
+     */
+    public static void toJson(Object object, Appendable writer)
+    {
+        _gson.toJson(object, writer);
+    }
+
     public static Object fromJson(String json, Type type)
     {
-        return new Gson().fromJson(json, type);
+        return _gson.fromJson(json, type);
     }
 
     public static <T> T convert(String urlencoded, Class<T> type)
@@ -48,8 +92,8 @@ public final class JsonUtil
         try
         {
             Map<String, Object> map = Utils.asMap(urlencoded);
-            String json = new Gson().toJson(map);
-            return new Gson().fromJson(json, type);
+            String json = _gson.toJson(map);
+            return _gson.fromJson(json, type);
         }
         catch (Exception e)
         {
@@ -18,13 +18,16 @@ package com.salesforce.scmt.utils;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 
 import com.salesforce.scmt.service.SalesforceService;
 import com.salesforce.scmt.utils.SalesforceConstants.GroupFields;
@@ -219,4 +222,59 @@ public final class SalesforceUtil
         // if the date fails to parse, return null
         return null;
     }
+    
+    /**
+     * Reorders the records so the children of a parent are next to each other, parents keep the order in which they
+     * first appear. Parallel bulk jobs lock the parent row while a batch writes its children, so children of one
+     * parent spread across batches that run at the same time fail with UNABLE_TO_LOCK_ROW.
+     * @param records The records, reordered in place.
+     * @param parentField The relationship field that refers to the parent.
+     */
+    public static void groupByParent(List<Map<String, Object>> records, String parentField)
+    {
+        Map<Object, List<Map<String, Object>>> groups = new LinkedHashMap<>();
+        for (Map<String, Object> record : records)
+        {
+            groups.computeIfAbsent(record.get(parentField), k -> new ArrayList<>()).add(record);
+        }
+        
+        // nothing to move if every record has its own parent
+        if (groups.size() == records.size())
+        {
+            return;
+        }
+        
+        records.clear();
+        for (List<Map<String, Object>> group : groups.values())
+        {
+            records.addAll(group);
+        }
+    }
+    
+    /**
+     * Returns the end of the batch that starts at start, backed off so the batch does not split the children of a
+     * parent with the next batch. A parent with more children than fit a batch is split anyway.
+     * @param records The records, grouped by parent (see groupByParent()).
+     * @param start The start of the batch.
+     * @param parentField The relationship field that refers to the parent.
+     * @param maxSize The max number of records in a batch.
+     * @return The end of the batch (exclusive).
+     */
+    public static int getParentBatchEnd(List<Map<String, Object>> records, int start, String parentField, int maxSize)
+    {
+        int end = Math.min(records.size(), start + maxSize);
+        if (end == records.size())
+        {
+            return end;
+        }
+        
+        // back off to the first child of the parent that straddles the end
+        Object parent = records.get(end).get(parentField);
+        int cut = end;
+        while (cut > start && Objects.equals(records.get(cut - 1).get(parentField), parent))
+        {
+            cut--;
+        }
+        return (cut > start ? cut : end);
+    }
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.scmt.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits text into pieces that fit a field limit, measured either as the length of the JSON encoded string (what the
+ * Bulk API JSON batches carry) or as UTF-8 bytes. Each piece is measured a character at a time while it is scanned, so
+ * splitting is linear in the length of the text. Pieces never end between the two halves of a surrogate pair.
+ */
+public final class TextChunker
+{
+    // the quotes around a JSON string
+    private static final int JSON_QUOTES = 2;
+
+    /**
+     * Private constructor for utility class.
+     */
+    private TextChunker()
+    {
+    }
+
+    /**
+     * Returns the number of characters a character takes once JSON encoded by Gson (which escapes HTML characters by
+     * default).
+     *
+     * @param c
+     *            The character.
+     * @return The encoded length.
+     */
+    public static int jsonLength(char c)
+    {
+        if (c < 0x20)
+        {
+            // control characters are unicode escaped, except the ones with a short escape
+            return (c == '\t' || c == '\b' || c == '\n' || c == '\r' || c == '\f' ? 2 : 6);
+        }
+
+        switch (c)
+        {
+            case '"':
+            case '\\':
+                return 2;
+            case '<':
+            case '>':
+            case '&':
+            case '=':
+            case '\'':
+            case '\u2028':
+            case '\u2029':
+                return 6;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Returns the number of characters the text takes once JSON encoded, including the quotes.
+     *
+     * @param text
+     *            The text.
+     * @return The encoded length.
+     */
+    public static int jsonLength(String text)
+    {
+        int length = JSON_QUOTES;
+        for (int i = 0; i < text.length(); i++)
+        {
+            length += jsonLength(text.charAt(i));
+        }
+        return length;
+    }
+
+    /**
+     * Returns the end of the longest piece of the text starting at start whose JSON encoding fits the max length.
+     *
+     * @param text
+     *            The text.
+     * @param start
+     *            The start of the piece.
+     * @param maxLength
+     *            The max encoded length, including the quotes.
+     * @return The end of the piece (exclusive), start if not even one character fits.
+     */
+    public static int jsonEnd(String text, int start, int maxLength)
+    {
+        int budget = maxLength - JSON_QUOTES;
+        int end = start;
+        while (end < text.length())
+        {
+            int length = jsonLength(text.charAt(end));
+            if (length > budget)
+            {
+                break;
+            }
+            budget -= length;
+            end++;
+        }
+        return safeEnd(text, start, end);
+    }
+
+    /**
+     * Returns the end of the longest piece of the text starting at start whose UTF-8 encoding fits the max bytes.
+     *
+     * @param text
+     *            The text.
+     * @param start
+     *            The start of the piece.
+     * @param maxBytes
+     *            The max number of bytes.
+     * @return The end of the piece (exclusive), start if not even one character fits.
+     */
+    public static int utf8End(String text, int start, int maxBytes)
+    {
+        int budget = maxBytes;
+        int end = start;
+        while (end < text.length())
+        {
+            char c = text.charAt(end);
+            int chars = 1;
+            int bytes;
+            if (c < 0x80)
+            {
+                bytes = 1;
+            }
+            else if (c < 0x800)
+            {
+                bytes = 2;
+            }
+            else if (Character.isHighSurrogate(c) && end + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(end + 1)))
+            {
+                // a supplementary character, both halves are kept together
+                chars = 2;
+                bytes = 4;
+            }
+            else
+            {
+                bytes = 3;
+            }
+
+            if (bytes > budget)
+            {
+                break;
+            }
+            budget -= bytes;
+            end += chars;
+        }
+        return safeEnd(text, start, end);
+    }
+
+    /**
+     * Splits the text into pieces whose JSON encoding fits the max length.
+     *
+     * @param text
+     *            The text.
+     * @param maxLength
+     *            The max encoded length of a piece, including the quotes.
+     * @return The pieces, a single empty piece for empty text.
+     */
+    public static List<String> splitJson(String text, int maxLength)
+    {
+        if (text.length() <= (maxLength - JSON_QUOTES) / 6)
+        {
+            // short enough to fit even if every character needed a unicode escape
+            return Collections.singletonList(text);
+        }
+
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        do
+        {
+            int end = progress(text, start, jsonEnd(text, start, maxLength));
+            pieces.add(text.substring(start, end));
+            start = end;
+        }
+        while (start < text.length());
+        return pieces;
+    }
+
+    /**
+     * Splits the text into pieces whose UTF-8 encoding fits the max bytes.
+     *
+     * @param text
+     *            The text.
+     * @param maxBytes
+     *            The max number of bytes of a piece.
+     * @return The pieces, a single empty piece for empty text.
+     */
+    public static List<String> splitUtf8(String text, int maxBytes)
+    {
+        if (text.length() <= maxBytes / 3)
+        {
+            // short enough to fit even if every character took 3 bytes (a surrogate pair is 2 characters, 4 bytes)
+            return Collections.singletonList(text);
+        }
+
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        do
+        {
+            int end = progress(text, start, utf8End(text, start, maxBytes));
+            pieces.add(text.substring(start, end));
+            start = end;
+        }
+        while (start < text.length());
+        return pieces;
+    }
+
+    /**
+     * Truncates the text to the max number of characters, without cutting a surrogate pair in half.
+     *
+     * @param text
+     *            The text.
+     * @param maxChars
+     *            The max number of characters.
+     * @return The truncated text.
+     */
+    public static String truncate(String text, int maxChars)
+    {
+        if (text.length() <= maxChars)
+        {
+            return text;
+        }
+        int end = maxChars;
+        if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1)) && Character.isLowSurrogate(text.charAt(end)))
+        {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    /*
+     * Moves the end of a piece back off a high surrogate whose low half did not fit.
+     */
+    private static int safeEnd(String text, int start, int end)
+    {
+        if (end > start && end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))
+            && Character.isLowSurrogate(text.charAt(end)))
+        {
+            end--;
+        }
+        return end;
+    }
+
+    /*
+     * Makes sure a piece holds at least one character, so splitting cannot stall on a limit smaller than a single
+     * character.
+     */
+    private static int progress(String text, int start, int end)
+    {
+        return (end > start ? end : start + Character.charCount(text.codePointAt(start)));
+    }
+}
@@ -55,6 +55,34 @@ public final class Utils
         return env;
     }
 
+    /**
+     * Reads a non-negative integer setting from the job config, or from an environment variable when the config
+     * doesn't set it.
+     *
+     * @param config
+     *            The job config.
+     * @param configKey
+     *            The config key of the setting.
+     * @param envName
+     *            The environment variable of the setting.
+     * @param defaultValue
+     *            The value when neither sets it, or it is not a number.
+     * @return The setting value.
+     */
+    public static int getIntSetting(Map<String, String> config, String configKey, String envName, int defaultValue)
+    {
+        String value = (config != null && config.get(configKey) != null ? config.get(configKey) : getenv(envName));
+        try
+        {
+            return (value == null || value.equals("null") ? defaultValue : Math.max(0, Integer.parseInt(value)));
+        }
+        catch (NumberFormatException e)
+        {
+            log(String.format("Invalid value for [%s]: [%s], defaulting to %d", configKey, value, defaultValue));
+            return defaultValue;
+        }
+    }
+
     public static void log(String msg)
     {
         System.out.println(msg);
@@ -113,51 +141,8 @@ public final class Utils
      */
     public static String truncateStringInBytes(String input, int byteLength) throws UnsupportedEncodingException
     {
-        // assume the longest length of a UTF8 character is 4 bytes
-        // see https://en.wikipedia.org/wiki/UTF-8#Description for more information
-        double MAX_UTF8_CHAR_LENGTH = 4.0;
-        
-        // check if the input length is longer than the max length
-        // (no sense calculating byte length against characters we know are beyond the max length we want)
-        if (input.length() > byteLength)
-        {
-            // truncate the input to the max length specified
-            input = input.substring(0, byteLength);
-        }
-        
-        // check if the length is greater than 4, if it is not, we can assume this is not multi-byte UTF-8 characters
-        if (input.length() > byteLength / MAX_UTF8_CHAR_LENGTH)
-        {
-            // get the difference in byte length to max length
-            int overage = input.getBytes("UTF-8").length - byteLength;
-            
-            // check if the byte length is longer than the specified length 
-            if (overage > 0)
-            {
-                // initialize integers for temporary overage, start position, and end position
-                int tmpOverage = overage, start, end = input.length();
-                
-                // loop while we still have overage
-                while (tmpOverage > 0)
-                {
-                    // find the start position by dividing overage bytes by UTF8 max byte length, and subtracting that
-                    // from the character length of the input
-                    start = end - ((int) Math.ceil((double) tmpOverage / MAX_UTF8_CHAR_LENGTH));
-                    
-                    // update the temporary overage subtracting the byte length of what we are going to trim
-                    tmpOverage = tmpOverage - input.substring(start, end).getBytes("UTF-8").length;
-                    
-                    // update the end position
-                    end = start;
-                }
-                
-                // truncate the string to the number of characters that will no exceed the maximum length in bytes
-                input = input.substring(0, end);
-            }
-        }
-        
-        // return the string that has been truncated by the specified number of bytes
-        return input;
+        // measure the UTF-8 length while scanning, instead of encoding the string to find out
+        return input.substring(0, TextChunker.utf8End(input, 0, byteLength));
     }
     
     /**
@@ -15,19 +15,25 @@
 
 package com.salesforce.scmt.worker;
 
-import java.util.List;
+import java.io.IOException;
 
+import com.salesforce.scmt.utils.DeskMigrationStatus;
 import com.salesforce.scmt.utils.Utils;
 import com.salesforce.scmt.utils.SalesforceConstants;
-import com.salesforce.scmt.utils.SalesforceConstants.DeskMigrationFields;
 import com.salesforce.scmt.model.DeployException;
+import com.salesforce.scmt.service.BulkJobPoller;
+import com.salesforce.scmt.service.BulkV2Loader;
 import com.salesforce.scmt.service.SalesforceService;
 import com.sforce.async.AsyncApiException;
 import com.sforce.async.JobInfo;
 import com.sforce.ws.ConnectionException;
-import com.sforce.soap.partner.sobject.SObject;
 
-public class ClosedWorker implements Runnable {
+public class ClosedWorker implements BulkJobPoller.Listener {
+    /**
+     * Delay before the process builders are enabled again, after the last job completed.
+     */
+    private static final long BYPASS_RESET_DELAY = 60000L;
+
     /**
      * The JobId to check for.
      */
@@ -38,80 +44,51 @@ public class ClosedWorker implements Runnable {
      */
     private String migrationId;
 
-    /**
-     * The Server URL.
-     */
-    private String serverUrl;
-
-    /**
-     * The Session Id.
-     */
-    private String sessionId;
-
     /**
      * SO Type
      */
     private String soType;
 
     /**
-     * Bulk Connection
+     * True for a Bulk API 2.0 ingest job, known only until the job completes.
      */
-    private SalesforceService sf;
+    private boolean ingest;
 
-    public ClosedWorker(String jobId, String migrationId, String serverUrl, String sessionId, String soType) {
+    public ClosedWorker(String jobId, String migrationId, String soType) {
         this.jobId       = jobId;
         this.migrationId = migrationId;
-        this.serverUrl   = serverUrl;
-        this.sessionId   = sessionId;
         this.soType      = soType;
+        this.ingest      = BulkV2Loader.isIngestJob(jobId);
     }
 
-    public void run() {
-        sf = new SalesforceService(serverUrl, sessionId);
+    public void onComplete(SalesforceService sf, JobInfo job) {
         try {
-            JobInfo job   = sf.awaitCompletion(jobId);
-            SObject mig   = getDeskMigration();
-
-            int failed    = job.getNumberRecordsFailed() + Double.valueOf((String) mig.getField(DeskMigrationFields.RecordsFailed)).intValue();
-            int processed = job.getNumberRecordsProcessed() + Double.valueOf((String) mig.getField(DeskMigrationFields.RecordsTotal)).intValue();
+            // the counters are kept by the write-behind status of the migration, no need to read them back
+            DeskMigrationStatus status = DeskMigrationStatus.forMigration(migrationId);
+            if (status != null) {
+                status.addJobCounts(sf, job.getNumberRecordsProcessed(), job.getNumberRecordsFailed());
+            }
 
-            sf.updateMigration(migrationId, failed, processed);
+            // keep the Desk ids of the failed rows, a retry reloads just those
+            try {
+                sf.getBulkReconciler().reconcile(job, ingest);
+            } catch (IOException e) {
+                Utils.log("[BULK] Unable to reconcile the results of job [" + jobId + "]");
+                Utils.logException(e);
+            }
 
             if (soType == null || soType == SalesforceConstants.OBJ_EMAIL_MESSAGE) {
-                Thread.sleep(60000L);
-                sf.updateCustomLabel("BypassProcessBuilder", "0");
+                // scheduled rather than slept, so the poller thread is not held
+                BulkJobPoller.schedule(() -> {
+                    try {
+                        sf.updateCustomLabel("BypassProcessBuilder", "0");
+                    } catch (AsyncApiException|ConnectionException|DeployException e) {
+                        Utils.logException(e);
+                    }
+                }, BYPASS_RESET_DELAY);
             }
-        } catch (AsyncApiException|ConnectionException|DeployException|InterruptedException e) {
+        } catch (AsyncApiException|ConnectionException|DeployException e) {
             Utils.logException(e);
         }
     }
-
-    /**
-     * Query the Desk Migration Record from Salesforce. If none is found we
-     * return a blank Desk Migration with zero failed and total.
-     *
-     * @throws ConnectionException
-     * @return SObject
-     */
-    public SObject getDeskMigration() throws ConnectionException {
-        String query = String.format(
-            "Select %s, %s From %s Where %s = '%s'",
-            DeskMigrationFields.RecordsFailed,
-            DeskMigrationFields.RecordsTotal,
-            SalesforceConstants.OBJ_DESK_MIGRATION,
-            DeskMigrationFields.ID, migrationId
-        );
-
-        List<SObject> result = sf.query(query);
-        if (result != null || !result.isEmpty()) {
-            return result.get(0);
-        }
-
-        SObject migration = new SObject(SalesforceConstants.OBJ_DESK_MIGRATION);
-        migration.setId(migrationId);
-        migration.setField(DeskMigrationFields.RecordsFailed, 0);
-        migration.setField(DeskMigrationFields.RecordsTotal, 0);
-
-        return migration;
-    }
 }
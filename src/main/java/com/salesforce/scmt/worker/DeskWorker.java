@@ -33,6 +33,7 @@ import com.salesforce.scmt.desk.DeskNoteMigration;
 import com.salesforce.scmt.desk.DeskUserMigration;
 import com.salesforce.scmt.model.DeployResponse;
 import com.salesforce.scmt.service.DeskService;
+import com.salesforce.scmt.service.QueryCursor;
 import com.salesforce.scmt.utils.DeskUtil;
 import com.salesforce.scmt.utils.JsonUtil;
 import com.salesforce.scmt.utils.RabbitUtil;
@@ -158,6 +159,15 @@ public final class DeskWorker
             	articleMigration.migrate();
             }
 
+            if (Boolean.valueOf(config.get("retryFailures")))
+            {
+                // reload only the records the bulk jobs reported as failed, parents before their children
+                new DeskUserMigration<com.desk.java.apiclient.model.User>(deskUtil, config).retryFailures();
+                new DeskAccountMigration<com.desk.java.apiclient.model.Company>(deskUtil, config).retryFailures();
+                new DeskContactMigration<com.desk.java.apiclient.model.Customer>(deskUtil, config).retryFailures();
+                new DeskCaseMigration<com.desk.java.apiclient.model.Case>(deskUtil, config).retryFailures();
+            }
+
         }
         catch (Exception e)
         {
@@ -253,93 +263,59 @@ public final class DeskWorker
         
         try
         {
-            // initialize the id
-            String sfId = SalesforceConstants.MIN_ID; 
-
-            // build the query
-            String queryBase = String.format(
-                "SELECT %s, %s FROM %s WHERE %s IN ('%s', '%s') AND %s > '__ID__' AND %s LIKE '%s%%' ORDER BY %s LIMIT %d",
-                DeskMessageFields.Id, DeskMessageFields.Name,
+            // build the query, the messages are read with one cursor and published in chunks of SOQL_MAX_SIZE
+            String query = String.format(
+                "SELECT %s FROM %s WHERE %s IN ('%s', '%s') AND %s LIKE '%s%%' ORDER BY %s",
+                DeskMessageFields.Name,
                 SalesforceConstants.OBJ_DESK_MESSAGE,
                 DeskMessageFields.Status, DeskMessageFields.StatusNew, DeskMessageFields.StatusFailed,
-                DeskMessageFields.Id,
                 DeskMessageFields.Name, DeskUtil.DESK_MESSAGE_ATTACHMENT_PREFIX,
-                DeskMessageFields.Id,
-                //100);
-                SalesforceConstants.SOQL_MAX_SIZE);
+                DeskMessageFields.Id);
             
             // list of case id's with attachments
             List<Integer> caseIdsWithAttachments = new ArrayList<>();
             
-            // attachments list
-            List<SObject> deskMessages = null;
-            
-//            int page = 0;
-            
-            // flag which indicates if the SOQL query is returning results to process
-            boolean hasResults = false;
-            
-            do
+            // the next page is fetched while the current one is published
+            try (QueryCursor deskMessages = deskUtil.getSalesforceService().queryCursor(query, true))
             {
-                // update the query with the Id filter
-                String query = queryBase.replaceAll("__ID__", sfId);
-
-                // query for the results
-                deskMessages = deskUtil.getSalesforceService().query(query, false);
-                
                 // check if the results are empty
-                if (deskMessages == null || deskMessages.isEmpty())
+                if (!deskMessages.hasNext())
                 {
-                    // check if we had results at least once
-                    if (!hasResults)
-                    {
-                        Utils.log("[ERROR] Query returned no results! Please try again.");
-                    }
-                    
-                    // flip the flag so we can exit gracefully
-                    hasResults = false;
+                    Utils.log("[ERROR] Query returned no results! Please try again.");
                 }
-                else
+                
+                // loop through the results and build the list of case id's with attachments
+                while (deskMessages.hasNext())
                 {
-                    // flip the flag indicating we received results
-                    hasResults = true;
+                    // get the name (can we assume it is never null?)
+                    String name = deskMessages.next().getField(DeskMessageFields.Name).toString();
                     
-                    // clear the attachment id holder
-                    caseIdsWithAttachments.clear();
+                    // // get the case Id as string
+                    String caseId = name.substring(name.lastIndexOf("-") + 1);
                     
-                    // loop through the results and build the list of case id's with attachments
-                    for (SObject deskMessage : deskMessages)
+                    // add the integer value of the case id to the list
+                    caseIdsWithAttachments.add(Integer.valueOf(caseId));
+                    
+                    // publish a full chunk, and the rest once the cursor is done
+                    if (caseIdsWithAttachments.size() == SalesforceConstants.SOQL_MAX_SIZE || !deskMessages.hasNext())
                     {
-                        // get the name (can we assume it is never null?)
-                        String name = deskMessage.getField(DeskMessageFields.Name).toString();
+                        // add the case id's to the map with the config
+                        config.put("desk_case_ids_with_attachments", caseIdsWithAttachments);
                         
-                        // // get the case Id as string
-                        String caseId = name.substring(name.lastIndexOf("-") + 1);
+                        // publish the job to RabbitMQ
+                        RabbitUtil.publishToQueue(QUEUE_DESK_ATTACHMENT_BACKGROUND, EXCHANGE_FORMULA1,
+                            JsonUtil.toJson(config).getBytes());
                         
-                        // add the integer value of the case id to the list
-                        caseIdsWithAttachments.add(Integer.valueOf(caseId));
+                        // clear the attachment id holder
+                        caseIdsWithAttachments.clear();
                     }
-                    
-                    // add the case id's to the map with the config
-                    config.put("desk_case_ids_with_attachments", caseIdsWithAttachments);
-                    
-                    // publish the job to RabbitMQ
-                    RabbitUtil.publishToQueue(QUEUE_DESK_ATTACHMENT_BACKGROUND, EXCHANGE_FORMULA1,
-                        JsonUtil.toJson(config).getBytes());
-                    
-                    // update the filter
-                    sfId = deskMessages.get(deskMessages.size() - 1).getField(DeskMessageFields.Id).toString();
-                    
-//                    // increment page counter
-//                    page++;
                 }
-//                // DEBUG
-//                if (page >= 1)
-//                {
-//                    return;
-//                }
             }
-            while (hasResults);
+            catch (QueryCursor.QueryException e)
+            {
+                // surface the fault of the failed page
+                throw e.getCause();
+            }
         }
         catch (UnexpectedErrorFault e)
         {
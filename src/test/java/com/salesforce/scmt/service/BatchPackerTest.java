@@ -0,0 +1,179 @@
+package com.salesforce.scmt.service;
+
+import com.google.gson.Gson;
+import com.salesforce.scmt.utils.SalesforceConstants.Fields;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class BatchPackerTest {
+
+    private static final String PARENT = "ParentId";
+
+    // the batches handed to the sender: their JSON and their Desk ids
+    private List<String> batches;
+    private List<long[]> keys;
+
+    @Before
+    public void setUp() {
+        batches = new ArrayList<>();
+        keys = new ArrayList<>();
+    }
+
+    @Test
+    public void testPacksRecordsIntoOneBatch() throws Exception {
+        try (BatchPacker packer = newPacker(null)) {
+            for (long id = 1; id <= 3; id++) {
+                packer.add(newRecord(id, null, "subject " + id));
+            }
+            assertTrue(batches.isEmpty());
+            packer.flush();
+
+            assertEquals(1, batches.size());
+            assertEquals(3, parse(batches.get(0)).size());
+            assertArrayEquals(new long[] { 1, 2, 3 }, keys.get(0));
+            assertEquals(3, packer.getSubmitted());
+            assertEquals(1, packer.getBatches());
+        }
+    }
+
+    @Test
+    public void testSplitsAtRecordLimit() throws Exception {
+        try (BatchPacker packer = newPacker(null)) {
+            for (long id = 1; id <= 10001; id++) {
+                packer.add(newRecord(id, null, "s"));
+            }
+            assertEquals(1, batches.size());
+            packer.flush();
+
+            assertEquals(2, batches.size());
+            assertEquals(10000, parse(batches.get(0)).size());
+            assertEquals(1, parse(batches.get(1)).size());
+            assertArrayEquals(new long[] { 10001 }, keys.get(1));
+        }
+    }
+
+    @Test
+    public void testSplitsAtByteLimit() throws Exception {
+        // three records of 3,000,000 characters fit a 10,000,000 byte batch, the fourth does not
+        String body = repeat('x', 3000000);
+        try (BatchPacker packer = newPacker(null)) {
+            for (long id = 1; id <= 4; id++) {
+                packer.add(newRecord(id, null, body));
+            }
+            packer.flush();
+
+            assertEquals(2, batches.size());
+            for (String batch : batches) {
+                assertTrue(batch.length() <= 10000000);
+            }
+            assertArrayEquals(new long[] { 1, 2, 3 }, keys.get(0));
+            assertArrayEquals(new long[] { 4 }, keys.get(1));
+            assertEquals(3, parse(batches.get(0)).size());
+        }
+    }
+
+    @Test
+    public void testKeepsParentGroupTogether() throws Exception {
+        // the children of parent 20 would straddle the batches, so they all move on to the next one
+        String body = repeat('x', 2000000);
+        try (BatchPacker packer = newPacker(PARENT)) {
+            packer.add(newRecord(1, "10", body));
+            packer.add(newRecord(2, "10", body));
+            packer.add(newRecord(3, "20", body));
+            packer.add(newRecord(4, "20", body));
+            packer.add(newRecord(5, "20", body));
+            packer.flush();
+
+            assertEquals(2, batches.size());
+            assertArrayEquals(new long[] { 1, 2 }, keys.get(0));
+            assertArrayEquals(new long[] { 3, 4, 5 }, keys.get(1));
+            List<Map<String, Object>> second = parse(batches.get(1));
+            assertEquals(3, second.size());
+            for (Map<String, Object> record : second) {
+                assertEquals("20", record.get(PARENT));
+            }
+        }
+    }
+
+    @Test
+    public void testCloseDropsUnsentRecords() throws Exception {
+        BatchPacker packer = newPacker(null);
+        packer.add(newRecord(1, null, "s"));
+        packer.close();
+
+        assertTrue(batches.isEmpty());
+        assertEquals(0, packer.getSubmitted());
+    }
+
+    private BatchPacker newPacker(String parentField) {
+        return new BatchPacker(null, (jobId, batch, records, batchKeys) -> {
+            try {
+                batches.add(batch.toString("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            keys.add(batchKeys);
+            assertEquals(records, batchKeys.length);
+            batch.release();
+        }, "job", parentField);
+    }
+
+    private static Map<String, Object> newRecord(long id, String parent, String body) {
+        Map<String, Object> record = new HashMap<>();
+        record.put(Fields.DeskId, id);
+        if (parent != null) {
+            record.put(PARENT, parent);
+        }
+        record.put("Body", body);
+        return record;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> parse(String batch) {
+        return new Gson().fromJson(batch, List.class);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
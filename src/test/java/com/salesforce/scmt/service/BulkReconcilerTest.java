@@ -0,0 +1,87 @@
+package com.salesforce.scmt.service;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class BulkReconcilerTest {
+
+    @Test
+    public void testReadResultsRecordsFailedRows() throws Exception {
+        String json = "[{\"id\":\"500000000000001\",\"success\":true,\"created\":true,\"errors\":[]},"
+            + "{\"id\":null,\"success\":false,\"created\":false,\"errors\":[{\"statusCode\":\"REQUIRED_FIELD_MISSING\","
+            + "\"message\":\"Required fields are missing: [Subject]\",\"fields\":[\"Subject\"]}]},"
+            + "{\"id\":null,\"success\":false,\"created\":false,\"errors\":[{\"statusCode\":\"DUPLICATE_VALUE\","
+            + "\"message\":\"duplicate\"},{\"statusCode\":\"FIELD_INTEGRITY_EXCEPTION\",\"message\":\"bad\"}]}]";
+        Map<Long, String> failures = new HashMap<>();
+
+        BulkReconciler.readResults(toStream(json), new long[] { 101, 102, 103 }, failures);
+
+        assertEquals(2, failures.size());
+        assertFalse(failures.containsKey(101L));
+        assertEquals("REQUIRED_FIELD_MISSING: Required fields are missing: [Subject]", failures.get(102L));
+        assertEquals("DUPLICATE_VALUE: duplicate\nFIELD_INTEGRITY_EXCEPTION: bad", failures.get(103L));
+    }
+
+    @Test
+    public void testReadResultsIgnoresRowsWithoutKey() throws Exception {
+        // rows without a Desk id (key 0) and rows past the keys can't be recorded
+        String json = "[{\"success\":false,\"errors\":[{\"statusCode\":\"A\",\"message\":\"a\"}]},"
+            + "{\"success\":false,\"errors\":[{\"statusCode\":\"B\",\"message\":\"b\"}]},"
+            + "{\"success\":false,\"errors\":[{\"statusCode\":\"C\",\"message\":\"c\"}]}]";
+        Map<Long, String> failures = new HashMap<>();
+
+        BulkReconciler.readResults(toStream(json), new long[] { 0, 7 }, failures);
+
+        assertEquals(1, failures.size());
+        assertEquals("B: b", failures.get(7L));
+    }
+
+    @Test
+    public void testReadResultsEmpty() throws Exception {
+        Map<Long, String> failures = new HashMap<>();
+
+        BulkReconciler.readResults(toStream("[]"), new long[0], failures);
+
+        assertTrue(failures.isEmpty());
+    }
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,122 @@
+package com.salesforce.scmt.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+
+import com.salesforce.scmt.model.DeployResponse;
+import com.salesforce.scmt.utils.BatchBuffer;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.JobInfo;
+import com.sforce.ws.ConnectorConfig;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class BulkUploadStageTest {
+
+    private BulkConnection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        // the stage uploads inline when SALESFORCE_UPLOAD_THREADS is 0
+        assumeTrue(BulkUploadStage.isEnabled());
+
+        ConnectorConfig config = new ConnectorConfig();
+        config.setSessionId("session");
+        config.setRestEndpoint("https://localhost/services/async/36.0");
+
+        // fails the batches of the jobs named "failed*"
+        conn = new BulkConnection(config) {
+            @Override
+            public BatchInfo createBatchFromStream(JobInfo job, InputStream input) throws AsyncApiException {
+                if (job.getId().startsWith("failed")) {
+                    throw new AsyncApiException("InvalidBatch", AsyncExceptionCode.ClientInputError);
+                }
+                BatchInfo batch = new BatchInfo();
+                batch.setId("batch");
+                return batch;
+            }
+        };
+    }
+
+    @Test
+    public void testAwaitReturnsFailedUploads() throws Exception {
+        JobInfo job = newJob("failedJob");
+
+        BulkUploadStage.submit(conn, job, newBuffer(), 3, new long[] { 1, 2, 3 });
+        BulkUploadStage.submit(conn, job, newBuffer(), 2, new long[] { 4, 5 });
+
+        DeployResponse failures = BulkUploadStage.await(job.getId());
+        assertNotNull(failures);
+        assertEquals(5, failures.getErrorCount());
+        assertEquals(0, failures.getSuccessCount());
+        assertEquals(2, failures.getErrors().size());
+        assertTrue(failures.getErrors().get(0).contains("[failedJob]"));
+    }
+
+    @Test
+    public void testAwaitReturnsNullWhenEveryBatchIsUploaded() throws Exception {
+        JobInfo job = newJob("uploadedJob");
+
+        BulkUploadStage.submit(conn, job, newBuffer(), 3, new long[] { 1, 2, 3 });
+
+        assertNull(BulkUploadStage.await(job.getId()));
+    }
+
+    @Test
+    public void testAwaitForgetsTheJob() throws Exception {
+        JobInfo job = newJob("failedOnce");
+
+        BulkUploadStage.submit(conn, job, newBuffer(), 1, new long[] { 1 });
+
+        assertNotNull(BulkUploadStage.await(job.getId()));
+        assertNull(BulkUploadStage.await(job.getId()));
+    }
+
+    private static JobInfo newJob(String id) {
+        JobInfo job = new JobInfo();
+        job.setId(id);
+        return job;
+    }
+
+    private static BatchBuffer newBuffer() {
+        BatchBuffer buffer = BatchBuffer.get();
+        buffer.write('[');
+        buffer.write(']');
+        return buffer;
+    }
+}
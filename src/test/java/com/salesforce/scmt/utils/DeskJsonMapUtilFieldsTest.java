@@ -0,0 +1,205 @@
+package com.salesforce.scmt.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.desk.java.apiclient.model.Case;
+import com.desk.java.apiclient.model.Customer;
+import com.desk.java.apiclient.model.Interaction;
+import com.desk.java.apiclient.util.ISO8601DateAdapter;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.salesforce.scmt.model.DeployResponse;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class DeskJsonMapUtilFieldsTest {
+
+    // parses like the Desk.com client
+    private static final Gson GSON = new GsonBuilder()
+        .registerTypeAdapter(Date.class, new ISO8601DateAdapter())
+        .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+        .create();
+
+    // every attribute of a case, the ones the projection leaves out must not change the mapped record
+    private static final String CASE_JSON = "{\"id\":101,\"external_id\":\"ext-101\",\"blurb\":\"Short blurb\","
+        + "\"subject\":\"Printer is on fire\",\"description\":\"It is really on fire\",\"name\":\"Printer\","
+        + "\"priority\":\"4\",\"status\":\"open\",\"type\":\"email\",\"language\":\"en\",\"locked_until\":null,"
+        + "\"labels\":[\"urgent\",\"hardware\"],\"label_ids\":[1,2],\"custom_fields\":{\"level\":\"vip\"},"
+        + "\"created_at\":\"2016-01-01T10:00:00Z\",\"updated_at\":\"2016-01-02T10:00:00Z\","
+        + "\"changed_at\":\"2016-01-02T09:00:00Z\",\"active_at\":\"2016-01-02T08:00:00Z\","
+        + "\"received_at\":\"2016-01-01T09:00:00Z\",\"first_opened_at\":\"2016-01-01T11:00:00Z\","
+        + "\"opened_at\":\"2016-01-01T12:00:00Z\",\"first_resolved_at\":\"2016-01-03T10:00:00Z\","
+        + "\"resolved_at\":\"2016-01-04T10:00:00Z\",\"active_attachments_count\":2,\"active_notes_count\":1,"
+        + "\"has_pending_interactions\":false,\"has_failed_interactions\":false,\"description_html\":\"<p>fire</p>\","
+        + "\"_links\":{\"self\":{\"href\":\"/api/v2/cases/101\",\"class\":\"case\"},"
+        + "\"customer\":{\"href\":\"/api/v2/customers/201\",\"class\":\"customer\"},"
+        + "\"assigned_user\":{\"href\":\"/api/v2/users/301\",\"class\":\"user\"},"
+        + "\"assigned_group\":{\"href\":\"/api/v2/groups/9\",\"class\":\"group\"}}}";
+
+    private static final String CUSTOMER_JSON = "{\"id\":201,\"external_id\":\"ext-201\",\"first_name\":\"Ada\","
+        + "\"last_name\":\"Lovelace\",\"company\":\"Analytical Engines\",\"title\":\"Engineer\",\"avatar\":\"a.png\","
+        + "\"language\":\"en\",\"background\":\"Likes engines\",\"locked_until\":null,"
+        + "\"created_at\":\"2016-01-01T10:00:00Z\",\"updated_at\":\"2016-01-02T10:00:00Z\","
+        + "\"custom_fields\":{\"tier\":\"gold\"},"
+        + "\"emails\":[{\"type\":\"work\",\"value\":\"ada@example.com\"}],"
+        + "\"phone_numbers\":[{\"type\":\"work\",\"value\":\"555-0100\"},{\"type\":\"mobile\",\"value\":\"555-0101\"}],"
+        + "\"addresses\":[{\"type\":\"work\",\"value\":\"1 Engine St\"}],"
+        + "\"_links\":{\"self\":{\"href\":\"/api/v2/customers/201\",\"class\":\"customer\"},"
+        + "\"company\":{\"href\":\"/api/v2/companies/401\",\"class\":\"company\"}}}";
+
+    // an interaction of every type the mappers convert, with every attribute of an interaction
+    private static final String[] INTERACTION_TYPES = { "email", "tweet", "facebook_post", "phone_call",
+        "chat_message", "chat_message", "community_question", "community_answer" };
+
+    private static final String INTERACTION_JSON = "{\"id\":%d,\"body\":\"Hello there\","
+        + "\"body_html\":\"<p>Hello there</p>\",\"created_at\":\"2016-01-01T10:00:00Z\","
+        + "\"updated_at\":\"2016-01-01T10:05:00Z\",\"sent_at\":\"2016-01-01T10:01:00Z\",\"erased_at\":null,"
+        + "\"hidden_at\":null,\"entered_at\":\"2016-01-01T10:00:00Z\",\"event_type\":\"message\","
+        + "\"client_type\":\"agent\",\"hidden\":false,\"direction\":\"in\",\"status\":\"received\","
+        + "\"subject\":\"Printer\",\"to\":\"support@example.com\",\"from\":\"Ada <ada@example.com>\","
+        + "\"cc\":\"cc@example.com\",\"bcc\":\"bcc@example.com\",\"type\":\"status\",\"twitter_status_id\":\"42\","
+        + "\"facebook_id\":\"fb-1\",\"from_facebook_name\":\"Ada L\",\"liked\":true,\"public_url\":\"http://x/1\","
+        + "\"answers_disallowed_at\":null,\"are_answers_disallowed\":false,\"agent_answer_count\":1,"
+        + "\"customer_answer_count\":2,\"rating\":5,\"rating_count\":3,\"rating_score\":4,\"is_best_answer\":true,"
+        + "\"_links\":{\"self\":{\"href\":\"/api/v2/cases/101/replies/%d\",\"class\":\"%s\"},"
+        + "\"case\":{\"href\":\"/api/v2/cases/101\",\"class\":\"case\"},"
+        + "\"customer\":{\"href\":\"/api/v2/customers/201\",\"class\":\"customer\"},"
+        + "\"sent_by\":{\"href\":\"/api/v2/users/301\",\"class\":\"user\"},"
+        + "\"entered_by\":{\"href\":\"/api/v2/users/301\",\"class\":\"user\"},"
+        + "\"created_by\":{\"href\":\"/api/v2/users/301\",\"class\":\"user\"}}}";
+
+    private final DeskUtil du = new DeskUtil(null) {
+        @Override
+        public DeskCustomFieldPlan getCustomFieldPlan(String sfObjectName) {
+            return DeskCustomFieldPlan.compile(Collections.emptyList(), sfObjectName);
+        }
+
+        @Override
+        public Map<Long, String> getDeskGroupIdAndName() {
+            return Collections.singletonMap(9L, "Support");
+        }
+
+        @Override
+        public String getQueueId(long deskGroupId) {
+            return "00G000000000009";
+        }
+
+        @Override
+        public boolean getAuditFieldsEnabled() {
+            return true;
+        }
+    };
+
+    @Test
+    public void testCaseFieldsCoverTheCaseMapper() throws Exception {
+        Map<String, String> config = Collections.singletonMap("case_record_type_id", "012000000000001");
+
+        Map<String, Object> full = DeskJsonMapUtil.deskCaseToSalesforceJsonMap(du,
+            parse(CASE_JSON, null, Case.class), config);
+        Map<String, Object> projected = DeskJsonMapUtil.deskCaseToSalesforceJsonMap(du,
+            parse(CASE_JSON, DeskJsonMapUtil.CASE_FIELDS, Case.class), config);
+
+        assertEquals(full, projected);
+    }
+
+    @Test
+    public void testCustomerFieldsCoverTheCustomerMapper() throws Exception {
+        Map<String, String> config = Collections.singletonMap("contact_record_type_id", "012000000000002");
+
+        Map<String, Object> full = DeskJsonMapUtil.deskCustomerToSalesforceJsonMap(du,
+            parse(CUSTOMER_JSON, null, Customer.class), new DeployResponse(), config);
+        Map<String, Object> projected = DeskJsonMapUtil.deskCustomerToSalesforceJsonMap(du,
+            parse(CUSTOMER_JSON, DeskJsonMapUtil.CUSTOMER_FIELDS, Customer.class), new DeployResponse(), config);
+
+        assertEquals(full, projected);
+    }
+
+    @Test
+    public void testInteractionFieldsCoverTheInteractionMappers() throws Exception {
+        Map<String, List<Map<String, Object>>> full = mapInteractions(null);
+        Map<String, List<Map<String, Object>>> projected = mapInteractions(DeskJsonMapUtil.INTERACTION_FIELDS);
+
+        // every type was converted
+        assertEquals(1, full.get(SalesforceConstants.OBJ_EMAIL_MESSAGE).size());
+        assertFalse(full.get(SalesforceConstants.OBJ_CASE_COMMENT).isEmpty());
+        assertEquals(full, projected);
+    }
+
+    private Map<String, List<Map<String, Object>>> mapInteractions(String fields) {
+        Interaction[] interactions = new Interaction[INTERACTION_TYPES.length];
+        for (int i = 0; i < interactions.length; i++) {
+            String json = String.format(INTERACTION_JSON, 501 + i, 501 + i, INTERACTION_TYPES[i]);
+            interactions[i] = parse(json, fields, Interaction.class);
+        }
+
+        Map<String, List<Map<String, Object>>> jsonMaps = new HashMap<>();
+        jsonMaps.put(SalesforceConstants.OBJ_EMAIL_MESSAGE, new ArrayList<>());
+        jsonMaps.put(SalesforceConstants.OBJ_CASE_COMMENT, new ArrayList<>());
+        DeskJsonMapUtil.deskInteractionToSalesforceJsonMaps(du, jsonMaps, interactions, new DeployResponse());
+        return jsonMaps;
+    }
+
+    /*
+     * Parses the object as Desk.com returns it for a fields= projection, only the projected attributes and the _links,
+     * or every attribute if fields is null.
+     */
+    private static <T> T parse(String json, String fields, Class<T> type) {
+        JsonObject object = new JsonParser().parse(json).getAsJsonObject();
+        if (fields != null) {
+            Set<String> projection = new HashSet<>(Arrays.asList(fields.split(",")));
+            projection.add("_links");
+
+            JsonObject projected = new JsonObject();
+            for (Map.Entry<String, JsonElement> attr : object.entrySet()) {
+                if (projection.contains(attr.getKey())) {
+                    projected.add(attr.getKey(), attr.getValue());
+                }
+            }
+            object = projected;
+        }
+        return GSON.fromJson(object, type);
+    }
+}
@@ -0,0 +1,145 @@
+package com.salesforce.scmt.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.salesforce.scmt.model.DeployResponse;
+import com.salesforce.scmt.service.SalesforceService;
+import com.salesforce.scmt.utils.SalesforceConstants.DeskMigrationFields;
+import com.sforce.soap.partner.sobject.SObject;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class DeskMigrationStatusTest {
+
+    @Test
+    public void testChangesAreAppliedToTheRecord() throws Exception {
+        FakeService sf = new FakeService(10, 2, "older\n");
+        DeskMigrationStatus status = DeskMigrationStatus.forMigration("a00000000000001");
+
+        DeployResponse dr = new DeployResponse();
+        dr.incrementSuccessCount(5);
+        dr.incrementErrorCount(1);
+        dr.addError("bad record");
+
+        // a new status is written right away
+        status.update(sf, DeskMigrationFields.StatusRunning, "Cases", dr, null);
+
+        assertEquals(1, sf.upserts.size());
+        SObject written = sf.upserts.get(0);
+        assertEquals(15, written.getField(DeskMigrationFields.RecordsMigrated));
+        assertEquals(3, written.getField(DeskMigrationFields.RecordsFailed));
+        assertEquals(18, written.getField(DeskMigrationFields.RecordsTotal));
+        assertEquals(DeskMigrationFields.StatusRunning, written.getField(DeskMigrationFields.Status));
+        assertEquals("Cases", written.getField(DeskMigrationFields.Stage));
+
+        // the new errors go in front of the log written by the other processes
+        String log = (String) written.getField(DeskMigrationFields.Log);
+        assertTrue(log.contains("bad record\n"));
+        assertTrue(log.endsWith("older\n"));
+    }
+
+    @Test
+    public void testOnlyTheChangesSinceTheLastWriteAreApplied() throws Exception {
+        FakeService sf = new FakeService(10, 2, null);
+        DeskMigrationStatus status = DeskMigrationStatus.forMigration("a00000000000002");
+
+        status.update(sf, DeskMigrationFields.StatusRunning, "Cases", null, null);
+        status.addJobCounts(sf, 7, 3);
+        status.flush();
+
+        // another process wrote its counts in the meantime
+        sf.setCounts(30, 5);
+        status.addJobCounts(sf, 1, 0);
+        status.flush();
+
+        assertEquals(3, sf.upserts.size());
+        SObject written = sf.upserts.get(2);
+        assertEquals(31, written.getField(DeskMigrationFields.RecordsMigrated));
+        assertEquals(5, written.getField(DeskMigrationFields.RecordsFailed));
+        assertEquals(36, written.getField(DeskMigrationFields.RecordsTotal));
+
+        // the status and stage didn't change, they are left as the other processes wrote them
+        assertNull(written.getField(DeskMigrationFields.Status));
+        assertNull(written.getField(DeskMigrationFields.Stage));
+        assertNull(written.getField(DeskMigrationFields.Log));
+
+        SObject jobCounts = sf.upserts.get(1);
+        assertEquals(14, jobCounts.getField(DeskMigrationFields.RecordsMigrated));
+        assertEquals(5, jobCounts.getField(DeskMigrationFields.RecordsFailed));
+    }
+
+    @Test
+    public void testNothingIsWrittenWithoutChanges() throws Exception {
+        FakeService sf = new FakeService(0, 0, null);
+        DeskMigrationStatus status = DeskMigrationStatus.forMigration("a00000000000003");
+
+        status.update(sf, DeskMigrationFields.StatusRunning, "Cases", null, null);
+        status.update(sf, DeskMigrationFields.StatusRunning, "Cases", null, null);
+        status.flush();
+
+        assertEquals(1, sf.upserts.size());
+    }
+
+    /*
+     * Serves the Desk_Migration__c record as written by the other processes and keeps the upserted records.
+     */
+    private static class FakeService extends SalesforceService {
+        private final List<SObject> upserts = new ArrayList<>();
+        private final SObject record = new SObject(SalesforceConstants.OBJ_DESK_MIGRATION);
+
+        FakeService(int migrated, int failed, String log) {
+            super("https://localhost/services/Soap/u/36.0/00D000000000001", "session");
+            setCounts(migrated, failed);
+            record.setField(DeskMigrationFields.Log, log);
+        }
+
+        void setCounts(int migrated, int failed) {
+            record.setField(DeskMigrationFields.RecordsMigrated, String.valueOf((double) migrated));
+            record.setField(DeskMigrationFields.RecordsFailed, String.valueOf((double) failed));
+        }
+
+        @Override
+        public List<SObject> query(String query) {
+            return Collections.singletonList(record);
+        }
+
+        @Override
+        public DeployResponse upsertData(String IdField, List<SObject> sobjects) {
+            upserts.addAll(sobjects);
+            return new DeployResponse();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.salesforce.scmt.utils;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class DeskPageReaderTest {
+
+    private static class Entry {
+        long id;
+        String name;
+    }
+
+    @Test
+    public void testReadsEntriesAndPaging() throws Exception {
+        String json = "{\"total_entries\":3,\"page\":1,\"_links\":{\"self\":{\"href\":\"/api/v2/users?page=1\"},"
+            + "\"next\":{\"href\":\"/api/v2/users?page=2&per_page=2\",\"class\":\"page\"},\"previous\":null},"
+            + "\"_embedded\":{\"entries\":[{\"id\":1,\"name\":\"one\",\"_links\":{}},{\"id\":2,\"name\":\"two\"}]}}";
+        List<Entry> entries = new ArrayList<>();
+
+        DeskPageReader.Page page = DeskPageReader.read(new StringReader(json), new Gson(), Entry.class,
+            (Entry e) -> entries.add(e));
+
+        assertEquals(3, page.getTotalEntries());
+        assertEquals(1, page.getPage());
+        assertEquals(2, page.getEntryCount());
+        assertTrue(page.hasNextPage());
+        assertEquals("/api/v2/users?page=2&per_page=2", page.getNextUrl());
+        assertEquals(2, entries.size());
+        assertEquals(1, entries.get(0).id);
+        assertEquals("two", entries.get(1).name);
+    }
+
+    @Test
+    public void testLastPage() throws Exception {
+        // _embedded before the paging attributes, and no next link on the last page
+        String json = "{\"_embedded\":{\"entries\":[{\"id\":3,\"name\":\"three\"}]},\"total_entries\":3,\"page\":2,"
+            + "\"_links\":{\"next\":null}}";
+        List<Entry> entries = new ArrayList<>();
+
+        DeskPageReader.Page page = DeskPageReader.read(new StringReader(json), new Gson(), Entry.class,
+            (Entry e) -> entries.add(e));
+
+        assertEquals(2, page.getPage());
+        assertEquals(1, page.getEntryCount());
+        assertFalse(page.hasNextPage());
+        assertNull(page.getNextUrl());
+        assertEquals(3, entries.get(0).id);
+    }
+
+    @Test
+    public void testEmptyPage() throws Exception {
+        String json = "{\"total_entries\":0,\"page\":1,\"_links\":{\"next\":null},\"_embedded\":{\"entries\":[]}}";
+
+        DeskPageReader.Page page = DeskPageReader.read(new StringReader(json), new Gson(), Entry.class,
+            (Entry e) -> fail("unexpected entry"));
+
+        assertEquals(0, page.getTotalEntries());
+        assertEquals(0, page.getEntryCount());
+        assertFalse(page.hasNextPage());
+    }
+}
@@ -0,0 +1,79 @@
+package com.salesforce.scmt.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class DeskRateGovernorTest {
+
+    @Test(timeout = 10000)
+    public void testRequestsAreHeldUntilTheLimitIsKnown() throws Exception {
+        DeskRateGovernor governor = DeskRateGovernor.forHost("held.desk.com");
+
+        // the first request goes out right away
+        governor.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread second = new Thread(() -> {
+            try {
+                governor.acquire();
+                acquired.countDown();
+            } catch (Exception e) {
+                // the latch is never released
+            }
+        });
+        second.setDaemon(true);
+        second.start();
+        assertFalse(acquired.await(300, TimeUnit.MILLISECONDS));
+
+        // the headers of the first response release the others
+        governor.release();
+        governor.update(200, "600", "599", "60");
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        governor.release();
+    }
+
+    @Test(timeout = 10000)
+    public void testRequestIsLetOutWhenTheFirstOneFailed() throws Exception {
+        DeskRateGovernor governor = DeskRateGovernor.forHost("failed.desk.com");
+
+        governor.acquire();
+
+        // no response, so no headers, the next request is let out to learn the limit
+        governor.release();
+        governor.acquire();
+        governor.release();
+    }
+}
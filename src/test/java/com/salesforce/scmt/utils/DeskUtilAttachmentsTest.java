@@ -0,0 +1,106 @@
+package com.salesforce.scmt.utils;
+
+import com.desk.java.apiclient.model.Attachment;
+import com.salesforce.scmt.model.DeployResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class DeskUtilAttachmentsTest {
+
+    // above the default DESK_ATTACHMENT_STREAM_SIZE of 10MB
+    private static final int LARGE = 20 * 1024 * 1024;
+
+    private List<String> streamed;
+    private List<String> inserted;
+    private DeskUtil du;
+
+    @Before
+    public void setUp() {
+        streamed = new ArrayList<>();
+        inserted = new ArrayList<>();
+        du = new DeskUtil(null) {
+            @Override
+            public String streamDeskAttachmentToContentVersion(Attachment a) throws Exception {
+                streamed.add(a.getFileName());
+                if (a.getFileName().startsWith("fail")) {
+                    throw new IOException("connection reset");
+                }
+                return "068000000000001";
+            }
+
+            @Override
+            List<String> insertAttachments(List<Attachment> attachments, DeployResponse dr) {
+                for (Attachment a : attachments) {
+                    inserted.add(a.getFileName());
+                }
+                return new ArrayList<>();
+            }
+        };
+    }
+
+    @Test
+    public void testFailedStreamDoesNotDropSmallAttachments() throws Exception {
+        DeployResponse dr = new DeployResponse();
+
+        List<String> errors = du.createAttachments(Arrays.asList(newAttachment("fail.zip", LARGE),
+            newAttachment("small.png", 1024), newAttachment("large.pdf", LARGE), newAttachment("notes.txt", 10)), dr);
+
+        assertEquals(Arrays.asList("fail.zip", "large.pdf"), streamed);
+        assertEquals(Arrays.asList("small.png", "notes.txt"), inserted);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).contains("connection reset"));
+        assertEquals(1, dr.getSuccessCount());
+    }
+
+    @Test
+    public void testOnlyLargeAttachments() throws Exception {
+        List<String> errors = du.createAttachments(Arrays.asList(newAttachment("large.pdf", LARGE)),
+            new DeployResponse());
+
+        assertTrue(errors.isEmpty());
+        assertTrue(inserted.isEmpty());
+    }
+
+    private static Attachment newAttachment(String fileName, int size) {
+        Attachment a = new Attachment();
+        a.setFileName(fileName);
+        a.setSize(size);
+        return a;
+    }
+}
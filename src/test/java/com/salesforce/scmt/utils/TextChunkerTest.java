@@ -0,0 +1,144 @@
+package com.salesforce.scmt.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copyright (c) 2017, Salesforce.com, Inc.
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class TextChunkerTest {
+
+    // a supplementary character (U+1F600), two chars and four UTF-8 bytes
+    private static final String EMOJI = "\uD83D\uDE00";
+
+    @Test
+    public void testJsonLengthMatchesGson() {
+        String text = "plain \"quoted\" back\\slash tab\t nl\n <b>&amp;</b> it's a=b \u0001 \u2028 caf\u00e9 " + EMOJI;
+        String encoded = JsonUtil.toJson(text);
+        assertEquals(encoded.length(), TextChunker.jsonLength(text));
+    }
+
+    @Test
+    public void testJsonLengthOfEscapes() {
+        assertEquals(1, TextChunker.jsonLength('a'));
+        assertEquals(2, TextChunker.jsonLength('"'));
+        assertEquals(2, TextChunker.jsonLength('\\'));
+        assertEquals(2, TextChunker.jsonLength('\n'));
+        assertEquals(6, TextChunker.jsonLength('\u0001'));
+        assertEquals(6, TextChunker.jsonLength('<'));
+        assertEquals(6, TextChunker.jsonLength('\''));
+        assertEquals(6, TextChunker.jsonLength('\u2029'));
+        assertEquals(2, TextChunker.jsonLength(""));
+    }
+
+    @Test
+    public void testSplitJsonFitsAndRoundTrips() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("row ").append(i).append(" <\"x\"> & ").append(EMOJI).append('\n');
+        }
+        String text = sb.toString();
+
+        List<String> pieces = TextChunker.splitJson(text, 100);
+        assertTrue(pieces.size() > 1);
+        StringBuilder joined = new StringBuilder();
+        for (String piece : pieces) {
+            assertTrue(JsonUtil.toJson(piece).length() <= 100);
+            assertNoBrokenSurrogate(piece);
+            joined.append(piece);
+        }
+        assertEquals(text, joined.toString());
+    }
+
+    @Test
+    public void testSplitUtf8FitsAndRoundTrips() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("caf\u00e9 ").append(EMOJI).append(" \u20ac").append(i);
+        }
+        String text = sb.toString();
+
+        List<String> pieces = TextChunker.splitUtf8(text, 64);
+        assertTrue(pieces.size() > 1);
+        StringBuilder joined = new StringBuilder();
+        for (String piece : pieces) {
+            assertTrue(piece.getBytes("UTF-8").length <= 64);
+            assertNoBrokenSurrogate(piece);
+            joined.append(piece);
+        }
+        assertEquals(text, joined.toString());
+    }
+
+    @Test
+    public void testSplitNeverCutsSurrogatePair() {
+        // every possible limit lands the cut before, after or between the halves of the pair
+        String text = "ab" + EMOJI + "cd" + EMOJI + EMOJI + "e";
+        for (int max = 1; max <= 12; max++) {
+            StringBuilder joined = new StringBuilder();
+            for (String piece : TextChunker.splitUtf8(text, max)) {
+                assertNoBrokenSurrogate(piece);
+                joined.append(piece);
+            }
+            assertEquals(text, joined.toString());
+        }
+        for (int max = 3; max <= 14; max++) {
+            StringBuilder joined = new StringBuilder();
+            for (String piece : TextChunker.splitJson(text, max)) {
+                assertNoBrokenSurrogate(piece);
+                joined.append(piece);
+            }
+            assertEquals(text, joined.toString());
+        }
+    }
+
+    @Test
+    public void testSplitShortAndEmptyText() {
+        assertEquals(1, TextChunker.splitJson("", 10).size());
+        assertEquals("", TextChunker.splitUtf8("", 10).get(0));
+        assertEquals("short", TextChunker.splitJson("short", 1000).get(0));
+    }
+
+    @Test
+    public void testTruncate() {
+        assertEquals("abc", TextChunker.truncate("abc", 5));
+        assertEquals("ab", TextChunker.truncate("abcdef", 2));
+        // the cut would land between the halves of the pair, so the whole pair is dropped
+        assertEquals("a", TextChunker.truncate("a" + EMOJI + "b", 2));
+        assertEquals("a" + EMOJI, TextChunker.truncate("a" + EMOJI + "b", 3));
+    }
+
+    private static void assertNoBrokenSurrogate(String piece) {
+        assertFalse(piece.isEmpty());
+        assertFalse(Character.isLowSurrogate(piece.charAt(0)));
+        assertFalse(Character.isHighSurrogate(piece.charAt(piece.length() - 1)));
+    }
+}